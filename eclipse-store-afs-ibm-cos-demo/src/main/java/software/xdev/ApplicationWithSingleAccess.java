@@ -18,6 +18,7 @@ import com.ibm.cloud.objectstorage.oauth.BasicIBMOAuthCredentials;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3ClientBuilder;
 
+import software.xdev.eclipse.store.afs.ibm.CosRateLimiter;
 import software.xdev.eclipse.store.afs.ibm.access.AccessConfiguration;
 import software.xdev.eclipse.store.afs.ibm.access.SingleAccessManager;
 import software.xdev.eclipse.store.afs.ibm.cos.types.CosConnector;
@@ -90,6 +91,8 @@ public final class ApplicationWithSingleAccess
 			.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpointUrl, location))
 			.withPathStyleAccessEnabled(true)
 			.withClientConfiguration(clientConfig)
+			// Shared by the storage and the access manager, which both use this client
+			.withRequestHandlers(new CosRateLimiter())
 			.build();
 	}
 	
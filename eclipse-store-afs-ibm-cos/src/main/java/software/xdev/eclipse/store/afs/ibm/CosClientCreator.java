@@ -15,6 +15,8 @@
  */
 package software.xdev.eclipse.store.afs.ibm;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import org.eclipse.serializer.configuration.exceptions.ConfigurationException;
@@ -25,6 +27,7 @@ import com.ibm.cloud.objectstorage.auth.DefaultAWSCredentialsProviderChain;
 import com.ibm.cloud.objectstorage.auth.EnvironmentVariableCredentialsProvider;
 import com.ibm.cloud.objectstorage.auth.SystemPropertiesCredentialsProvider;
 import com.ibm.cloud.objectstorage.client.builder.AwsClientBuilder;
+import com.ibm.cloud.objectstorage.handlers.RequestHandler2;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3Client;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3ClientBuilder;
@@ -44,10 +47,36 @@ public final class CosClientCreator
 		
 		final AwsClientBuilder<AmazonS3ClientBuilder, AmazonS3> clientBuilder = AmazonS3Client.builder();
 		configureClient(clientBuilder, s3Configuration);
+		configureRateLimit(clientBuilder, s3Configuration);
 		
 		return clientBuilder.build();
 	}
 	
+	private static void configureRateLimit(
+		final AwsClientBuilder<?, ?> clientBuilder,
+		final Configuration configuration
+	)
+	{
+		if(!configuration.optBoolean("rate-limit").orElse(false))
+		{
+			return;
+		}
+		final CosRateLimitConfiguration rateLimitConfiguration = new CosRateLimitConfiguration();
+		configuration.optDouble("rate-limit-initial-rate").ifPresent(rateLimitConfiguration::withInitialRate);
+		configuration.optDouble("rate-limit-min-rate").ifPresent(rateLimitConfiguration::withMinRate);
+		configuration.optDouble("rate-limit-max-rate").ifPresent(rateLimitConfiguration::withMaxRate);
+		configuration.optDouble("rate-limit-additive-increase")
+			.ifPresent(rateLimitConfiguration::withAdditiveIncrease);
+		// Keeps the handlers which were registered before
+		final List<RequestHandler2> requestHandlers = new ArrayList<>();
+		if(clientBuilder.getRequestHandlers() != null)
+		{
+			requestHandlers.addAll(clientBuilder.getRequestHandlers());
+		}
+		requestHandlers.add(new CosRateLimiter(rateLimitConfiguration));
+		clientBuilder.setRequestHandlers(requestHandlers.toArray(new RequestHandler2[0]));
+	}
+	
 	private static void configureClient(
 		final AwsClientBuilder<?, ?> clientBuilder,
 		final Configuration configuration
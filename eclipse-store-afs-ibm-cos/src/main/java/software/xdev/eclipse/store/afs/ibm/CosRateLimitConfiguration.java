@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm;
+
+/**
+ * Holds the options of a {@link CosRateLimiter}. All rates are requests per second to a single bucket.
+ * <p>
+ * All options have sensible defaults, so a new instance can be used as it is.
+ * </p>
+ */
+public class CosRateLimitConfiguration
+{
+	public static final double DEFAULT_INITIAL_RATE = 100;
+	public static final double DEFAULT_MIN_RATE = 1;
+	public static final double DEFAULT_MAX_RATE = 1000;
+	public static final double DEFAULT_ADDITIVE_INCREASE = 10;
+	
+	private double initialRate = DEFAULT_INITIAL_RATE;
+	private double minRate = DEFAULT_MIN_RATE;
+	private double maxRate = DEFAULT_MAX_RATE;
+	private double additiveIncrease = DEFAULT_ADDITIVE_INCREASE;
+	
+	/**
+	 * @param initialRate rate a bucket starts with.
+	 * @return this configuration
+	 */
+	public CosRateLimitConfiguration withInitialRate(final double initialRate)
+	{
+		if(!(initialRate > 0))
+		{
+			throw new IllegalArgumentException("initialRate must be positive");
+		}
+		this.initialRate = initialRate;
+		return this;
+	}
+	
+	/**
+	 * @param minRate rate which is kept even if the COS keeps throttling.
+	 * @return this configuration
+	 */
+	public CosRateLimitConfiguration withMinRate(final double minRate)
+	{
+		if(!(minRate > 0))
+		{
+			throw new IllegalArgumentException("minRate must be positive");
+		}
+		this.minRate = minRate;
+		return this;
+	}
+	
+	/**
+	 * @param maxRate rate which is never exceeded, even if the COS doesn't throttle.
+	 * @return this configuration
+	 */
+	public CosRateLimitConfiguration withMaxRate(final double maxRate)
+	{
+		if(!(maxRate > 0))
+		{
+			throw new IllegalArgumentException("maxRate must be positive");
+		}
+		this.maxRate = maxRate;
+		return this;
+	}
+	
+	/**
+	 * @param additiveIncrease how much the rate grows per second in which the requests use up the whole rate
+	 *                         without being throttled.
+	 * @return this configuration
+	 */
+	public CosRateLimitConfiguration withAdditiveIncrease(final double additiveIncrease)
+	{
+		if(!(additiveIncrease > 0))
+		{
+			throw new IllegalArgumentException("additiveIncrease must be positive");
+		}
+		this.additiveIncrease = additiveIncrease;
+		return this;
+	}
+	
+	public double getInitialRate()
+	{
+		return this.initialRate;
+	}
+	
+	public double getMinRate()
+	{
+		return this.minRate;
+	}
+	
+	public double getMaxRate()
+	{
+		return this.maxRate;
+	}
+	
+	public double getAdditiveIncrease()
+	{
+		return this.additiveIncrease;
+	}
+}
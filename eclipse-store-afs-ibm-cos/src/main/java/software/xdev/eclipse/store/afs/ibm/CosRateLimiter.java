@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import com.ibm.cloud.objectstorage.AbortedException;
+import com.ibm.cloud.objectstorage.AmazonServiceException;
+import com.ibm.cloud.objectstorage.AmazonWebServiceRequest;
+import com.ibm.cloud.objectstorage.Request;
+import com.ibm.cloud.objectstorage.handlers.HandlerAfterAttemptContext;
+import com.ibm.cloud.objectstorage.handlers.HandlerBeforeAttemptContext;
+import com.ibm.cloud.objectstorage.handlers.HandlerContextKey;
+import com.ibm.cloud.objectstorage.handlers.RequestHandler2;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectMetadataRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ListMultipartUploadsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.ListPartsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.PutObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartRequest;
+
+import software.xdev.eclipse.store.afs.ibm.cos.types.CosRequestContext;
+
+
+/**
+ * Limits the requests to each bucket adaptively. Every bucket has its own token bucket, whose rate grows as long
+ * as the COS accepts the requests and is halved when it answers with {@code 503 SlowDown}.
+ * <p>
+ * The limiter is registered as request handler of the client, e.g. with
+ * {@code AmazonS3ClientBuilder.withRequestHandlers(new CosRateLimiter(configuration))}. It sees every attempt,
+ * including the retries of the SDK. All limiters of the JVM share the token bucket of a bucket, so clients which
+ * send requests to the same bucket, like the ones of a {@code CosConnector} and a {@code SingleAccessManager}, don't
+ * get the limit each. The bucket takes the configuration of the limiter which sends the first request to it.
+ * </p>
+ * <p>
+ * Requests are foreground requests by default. Requests within {@link #runInBackground(Runnable)} only get
+ * tokens if enough are left for the foreground.
+ * </p>
+ * <p>
+ * Only the object and listing requests which the connector sends are limited, other requests pass unchanged.
+ * </p>
+ */
+public final class CosRateLimiter extends RequestHandler2
+{
+	private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+	private static final String SLOW_DOWN = "SlowDown";
+	private static final HandlerContextKey<Long> ATTEMPT_SENT = new HandlerContextKey<>("CosRateLimiterAttemptSent");
+	private static final List<Map.Entry<Class<?>, Function<AmazonWebServiceRequest, String>>> BUCKET_NAMES =
+		bucketNames();
+	private static final ConcurrentMap<String, CosTokenBucket> SHARED_BUCKETS = new ConcurrentHashMap<>();
+	
+	/**
+	 * Executes the work with the priority of background requests, see
+	 * {@link CosRequestContext#runInBackground(Runnable)}.
+	 */
+	public static void runInBackground(final Runnable work)
+	{
+		CosRequestContext.runInBackground(work);
+	}
+	
+	private final CosRateLimitConfiguration configuration;
+	private final LongSupplier clock;
+	private final ConcurrentMap<String, CosTokenBucket> buckets;
+	
+	public CosRateLimiter()
+	{
+		this(new CosRateLimitConfiguration());
+	}
+	
+	public CosRateLimiter(final CosRateLimitConfiguration configuration)
+	{
+		this(configuration, System::nanoTime, SHARED_BUCKETS);
+	}
+	
+	/**
+	 * Creates a limiter with its own token buckets.
+	 */
+	CosRateLimiter(final CosRateLimitConfiguration configuration, final LongSupplier clock)
+	{
+		this(configuration, clock, new ConcurrentHashMap<>());
+	}
+	
+	private CosRateLimiter(
+		final CosRateLimitConfiguration configuration,
+		final LongSupplier clock,
+		final ConcurrentMap<String, CosTokenBucket> buckets
+	)
+	{
+		this.configuration = configuration;
+		this.clock = clock;
+		this.buckets = buckets;
+	}
+	
+	@Override
+	public void beforeAttempt(final HandlerBeforeAttemptContext context)
+	{
+		final Request<?> request = context.getRequest();
+		final CosTokenBucket bucket = this.bucket(request);
+		if(bucket == null)
+		{
+			return;
+		}
+		try
+		{
+			if(CosRequestContext.isBackground())
+			{
+				long waitNanos = bucket.tryReserveBackground(this.clock.getAsLong());
+				while(waitNanos > 0)
+				{
+					sleep(waitNanos);
+					waitNanos = bucket.tryReserveBackground(this.clock.getAsLong());
+				}
+			}
+			else
+			{
+				sleep(bucket.reserve(this.clock.getAsLong()));
+			}
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new AbortedException("Interrupted while waiting for the rate limit", e);
+		}
+		request.addHandlerContext(ATTEMPT_SENT, this.clock.getAsLong());
+	}
+	
+	/**
+	 * Sleeps without holding a connection slot of the {@code CosConnector}, so other requests are not held up.
+	 */
+	private static void sleep(final long nanos) throws InterruptedException
+	{
+		if(nanos > 0)
+		{
+			CosRequestContext.awaitWithoutSlot(() -> TimeUnit.NANOSECONDS.sleep(nanos));
+		}
+	}
+	
+	@Override
+	public void afterAttempt(final HandlerAfterAttemptContext context)
+	{
+		final Request<?> request = context.getRequest();
+		final Long sentNanos = request.getHandlerContext(ATTEMPT_SENT);
+		final CosTokenBucket bucket = this.bucket(request);
+		if(sentNanos == null || bucket == null)
+		{
+			return;
+		}
+		final Exception exception = context.getException();
+		if(exception == null)
+		{
+			bucket.succeeded();
+		}
+		else if(isThrottling(exception))
+		{
+			bucket.throttled(sentNanos, this.clock.getAsLong());
+		}
+	}
+	
+	private static boolean isThrottling(final Exception exception)
+	{
+		if(!(exception instanceof AmazonServiceException))
+		{
+			return false;
+		}
+		final AmazonServiceException serviceException = (AmazonServiceException)exception;
+		return serviceException.getStatusCode() == HTTP_SERVICE_UNAVAILABLE
+			|| SLOW_DOWN.equals(serviceException.getErrorCode());
+	}
+	
+	/**
+	 * @return the current rate of the bucket, 0 if no request was sent to it yet
+	 */
+	public double rate(final String bucketName)
+	{
+		final CosTokenBucket bucket = this.buckets.get(bucketName);
+		return bucket != null
+			? bucket.rate()
+			: 0;
+	}
+	
+	/**
+	 * @return the token bucket of the request's bucket, <code>null</code> if it doesn't target a bucket
+	 */
+	private CosTokenBucket bucket(final Request<?> request)
+	{
+		final String bucketName = bucketName(request.getOriginalRequest());
+		if(bucketName == null)
+		{
+			return null;
+		}
+		return this.buckets.computeIfAbsent(
+			bucketName,
+			b -> new CosTokenBucket(this.configuration, this.clock.getAsLong())
+		);
+	}
+	
+	private static List<Map.Entry<Class<?>, Function<AmazonWebServiceRequest, String>>> bucketNames()
+	{
+		final List<Map.Entry<Class<?>, Function<AmazonWebServiceRequest, String>>> bucketNames = new ArrayList<>();
+		addBucketName(bucketNames, GetObjectRequest.class, GetObjectRequest::getBucketName);
+		addBucketName(bucketNames, GetObjectMetadataRequest.class, GetObjectMetadataRequest::getBucketName);
+		addBucketName(bucketNames, PutObjectRequest.class, PutObjectRequest::getBucketName);
+		addBucketName(bucketNames, DeleteObjectRequest.class, DeleteObjectRequest::getBucketName);
+		addBucketName(bucketNames, DeleteObjectsRequest.class, DeleteObjectsRequest::getBucketName);
+		// Copies are sent to the target bucket
+		addBucketName(bucketNames, CopyObjectRequest.class, CopyObjectRequest::getDestinationBucketName);
+		addBucketName(bucketNames, CopyPartRequest.class, CopyPartRequest::getDestinationBucketName);
+		addBucketName(
+			bucketNames,
+			InitiateMultipartUploadRequest.class,
+			InitiateMultipartUploadRequest::getBucketName
+		);
+		addBucketName(bucketNames, UploadPartRequest.class, UploadPartRequest::getBucketName);
+		addBucketName(
+			bucketNames,
+			CompleteMultipartUploadRequest.class,
+			CompleteMultipartUploadRequest::getBucketName
+		);
+		addBucketName(bucketNames, AbortMultipartUploadRequest.class, AbortMultipartUploadRequest::getBucketName);
+		addBucketName(bucketNames, ListObjectsRequest.class, ListObjectsRequest::getBucketName);
+		addBucketName(bucketNames, ListObjectsV2Request.class, ListObjectsV2Request::getBucketName);
+		addBucketName(bucketNames, ListMultipartUploadsRequest.class, ListMultipartUploadsRequest::getBucketName);
+		addBucketName(bucketNames, ListPartsRequest.class, ListPartsRequest::getBucketName);
+		return List.copyOf(bucketNames);
+	}
+	
+	private static <R extends AmazonWebServiceRequest> void addBucketName(
+		final List<Map.Entry<Class<?>, Function<AmazonWebServiceRequest, String>>> bucketNames,
+		final Class<R> requestClass,
+		final Function<R, String> bucketName
+	)
+	{
+		bucketNames.add(Map.entry(requestClass, request -> bucketName.apply(requestClass.cast(request))));
+	}
+	
+	/**
+	 * @return the bucket which the request is sent to, <code>null</code> if it is not a limited request
+	 */
+	static String bucketName(final AmazonWebServiceRequest originalRequest)
+	{
+		if(originalRequest == null)
+		{
+			return null;
+		}
+		// Subclasses of the requests are limited as well
+		for(final Map.Entry<Class<?>, Function<AmazonWebServiceRequest, String>> bucketName : BUCKET_NAMES)
+		{
+			if(bucketName.getKey().isInstance(originalRequest))
+			{
+				return bucketName.getValue().apply(originalRequest);
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm;
+
+/**
+ * Token bucket of a single COS bucket, whose rate is adjusted with additive increase and multiplicative decrease.
+ * <p>
+ * Every request which was not throttled increases the rate by a fraction, so it grows by the additive increase
+ * per second of full load. A throttled request halves the rate and drains the bucket, but only once for all
+ * requests which were sent before the last decrease.
+ * </p>
+ * <p>
+ * Foreground requests always take a token and wait until it is covered by the rate. Background requests only
+ * take one if a reserve is left for the foreground.
+ * </p>
+ */
+final class CosTokenBucket
+{
+	private static final double NANOS_PER_SECOND = 1_000_000_000;
+	private static final double DECREASE_FACTOR = 0.5;
+	/**
+	 * Share of the burst which is kept for foreground requests.
+	 */
+	private static final double BACKGROUND_RESERVE = 0.25;
+	
+	private final double minRate;
+	private final double maxRate;
+	private final double additiveIncrease;
+	
+	// Guarded by this
+	private double rate;
+	private double tokens;
+	private long lastRefillNanos;
+	private long lastDecreaseNanos;
+	
+	CosTokenBucket(final CosRateLimitConfiguration configuration, final long nowNanos)
+	{
+		this.minRate = configuration.getMinRate();
+		this.maxRate = Math.max(this.minRate, configuration.getMaxRate());
+		this.additiveIncrease = configuration.getAdditiveIncrease();
+		this.rate = Math.max(this.minRate, Math.min(this.maxRate, configuration.getInitialRate()));
+		this.tokens = this.burst();
+		this.lastRefillNanos = nowNanos;
+		this.lastDecreaseNanos = nowNanos;
+	}
+	
+	/**
+	 * Takes a token for a foreground request.
+	 *
+	 * @return how long the request has to wait before it is sent
+	 */
+	synchronized long reserve(final long nowNanos)
+	{
+		this.refill(nowNanos);
+		this.tokens--;
+		return this.tokens >= 0
+			? 0
+			: (long)(-this.tokens / this.rate * NANOS_PER_SECOND);
+	}
+	
+	/**
+	 * Takes a token for a background request, if enough are left.
+	 *
+	 * @return 0 if the token was taken, otherwise how long to wait before trying again
+	 */
+	synchronized long tryReserveBackground(final long nowNanos)
+	{
+		this.refill(nowNanos);
+		final double required = 1 + BACKGROUND_RESERVE * this.burst();
+		if(this.tokens >= required)
+		{
+			this.tokens--;
+			return 0;
+		}
+		return Math.max(1, (long)((required - this.tokens) / this.rate * NANOS_PER_SECOND));
+	}
+	
+	synchronized void succeeded()
+	{
+		this.rate = Math.min(this.maxRate, this.rate + this.additiveIncrease / this.rate);
+	}
+	
+	/**
+	 * @param sentNanos when the throttled request was sent
+	 */
+	synchronized void throttled(final long sentNanos, final long nowNanos)
+	{
+		if(sentNanos - this.lastDecreaseNanos < 0)
+		{
+			// Was already sent at the old rate
+			return;
+		}
+		this.refill(nowNanos);
+		this.rate = Math.max(this.minRate, this.rate * DECREASE_FACTOR);
+		this.tokens = Math.min(this.tokens, 0);
+		this.lastDecreaseNanos = nowNanos;
+	}
+	
+	synchronized double rate()
+	{
+		return this.rate;
+	}
+	
+	private double burst()
+	{
+		return Math.max(1, this.rate);
+	}
+	
+	private void refill(final long nowNanos)
+	{
+		final long elapsedNanos = nowNanos - this.lastRefillNanos;
+		if(elapsedNanos > 0)
+		{
+			this.tokens = Math.min(this.burst(), this.tokens + elapsedNanos / NANOS_PER_SECOND * this.rate);
+			this.lastRefillNanos = nowNanos;
+		}
+	}
+}
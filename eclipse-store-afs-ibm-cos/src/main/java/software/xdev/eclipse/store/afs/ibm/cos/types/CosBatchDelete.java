@@ -0,0 +1,148 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.slf4j.Logger;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsResult;
+import com.ibm.cloud.objectstorage.services.s3.model.MultiObjectDeleteException;
+
+
+/**
+ * Deletes any number of keys with batch requests.
+ * <p>
+ * The COS accepts at most 1000 keys per request, so the keys are split into batches which are executed
+ * concurrently. Keys which could not be deleted by their batch are retried one by one.
+ * </p>
+ */
+final class CosBatchDelete
+{
+	private static final Logger LOGGER = Logging.getLogger(CosBatchDelete.class);
+	
+	static final int MAX_KEYS_PER_REQUEST = 1000;
+	
+	private final AmazonS3 s3;
+	private final Executor executor;
+	private final int keyRetries;
+	private final CosIoScheduler scheduler;
+	
+	CosBatchDelete(
+		final AmazonS3 s3,
+		final Executor executor,
+		final int keyRetries,
+		final CosIoScheduler scheduler
+	)
+	{
+		this.s3 = s3;
+		this.executor = executor;
+		this.keyRetries = keyRetries;
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * @return exactly the keys which were deleted
+	 */
+	List<String> delete(final String bucketName, final List<String> keys)
+	{
+		if(keys.isEmpty())
+		{
+			// The COS rejects a batch request without keys
+			return new ArrayList<>();
+		}
+		if(keys.size() <= MAX_KEYS_PER_REQUEST)
+		{
+			return this.deleteBatch(bucketName, keys);
+		}
+		
+		final List<CompletableFuture<List<String>>> batches = new ArrayList<>();
+		for(int from = 0; from < keys.size(); from += MAX_KEYS_PER_REQUEST)
+		{
+			final List<String> batch = keys.subList(from, Math.min(from + MAX_KEYS_PER_REQUEST, keys.size()));
+			batches.add(CompletableFuture.supplyAsync(() -> this.deleteBatch(bucketName, batch), this.executor));
+		}
+		return batches.stream()
+			.map(CosFutures::join)
+			.flatMap(List::stream)
+			.collect(Collectors.toList());
+	}
+	
+	private List<String> deleteBatch(final String bucketName, final List<String> keys)
+	{
+		final DeleteObjectsRequest request = new DeleteObjectsRequest(bucketName)
+			.withKeys(keys.toArray(String[]::new));
+		try
+		{
+			return deletedKeys(
+				this.scheduler.execute(CosIoClass.BACKGROUND_MAINTENANCE, () -> this.s3.deleteObjects(request))
+					.getDeletedObjects()
+			);
+		}
+		catch(final MultiObjectDeleteException e)
+		{
+			final List<String> deleted = deletedKeys(e.getDeletedObjects());
+			e.getErrors().forEach(error ->
+			{
+				if(this.deleteKey(bucketName, error.getKey()))
+				{
+					deleted.add(error.getKey());
+				}
+			});
+			return deleted;
+		}
+		catch(final SdkClientException e)
+		{
+			LOGGER.debug("Batch delete of {} keys failed, deleting them one by one", keys.size(), e);
+			return keys.stream()
+				.filter(key -> this.deleteKey(bucketName, key))
+				.collect(Collectors.toList());
+		}
+	}
+	
+	private boolean deleteKey(final String bucketName, final String key)
+	{
+		for(int attempt = 0; attempt < this.keyRetries; attempt++)
+		{
+			try
+			{
+				this.scheduler.run(CosIoClass.BACKGROUND_MAINTENANCE, () -> this.s3.deleteObject(bucketName, key));
+				return true;
+			}
+			catch(final SdkClientException e)
+			{
+				LOGGER.debug("Deleting {} failed (attempt {})", key, attempt + 1, e);
+			}
+		}
+		LOGGER.warn("Could not delete {} after {} attempts", key, this.keyRetries);
+		return false;
+	}
+	
+	private static List<String> deletedKeys(final List<DeleteObjectsResult.DeletedObject> deletedObjects)
+	{
+		return deletedObjects.stream()
+			.map(DeleteObjectsResult.DeletedObject::getKey)
+			.collect(Collectors.toCollection(ArrayList::new));
+	}
+}
@@ -0,0 +1,692 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.eclipse.store.afs.blobstore.types.BlobStorePath;
+import org.slf4j.Logger;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartResult;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ObjectMetadata;
+import com.ibm.cloud.objectstorage.services.s3.model.PartETag;
+import com.ibm.cloud.objectstorage.services.s3.model.S3Object;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartRequest;
+
+
+/**
+ * Merges the run of small consecutive blobs at the end of a file into a single blob in the background.
+ * <p>
+ * The merged blob is assembled with a multipart upload under the next blob number of the file, so the order of the
+ * blobs stays the same and no existing blob is ever overwritten. Its metadata names the numbers of the compacted
+ * blobs. Sources of at least 5 MiB are copied inside the COS with {@code UploadPartCopy}, smaller ones are downloaded
+ * and concatenated, because every part except the last one must have at least 5 MiB.
+ * </p>
+ * <p>
+ * Under the lock of the file, after checking that the run is unchanged and still ends the file, a marker is stored
+ * next to the blobs, the upload is completed, the blob index is updated and the compacted blobs are deleted, then the
+ * marker is deleted. A listing which finds a marker finishes the interrupted compaction, see
+ * {@link #compactedBlobs(List, S3ObjectSummary, String)}, so the data is never read twice.
+ * </p>
+ * <p>
+ * Readers which listed the file before the swap still find the data of the replaced blobs with
+ * {@link #locate(S3ObjectSummary, long)} for a while. All requests are made on a single thread with a limited rate, so
+ * the compaction doesn't compete with the foreground requests.
+ * </p>
+ */
+final class CosBlobCompactor implements AutoCloseable
+{
+	private static final Logger LOGGER = Logging.getLogger(CosBlobCompactor.class);
+	
+	/**
+	 * How long the data of replaced blobs can still be located by readers which listed them before.
+	 */
+	static final long FORWARDING_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	/**
+	 * User metadata of a merged blob with the numbers of the first and the last compacted blob, e.g. "3-17".
+	 */
+	static final String COMPACTED_BLOBS_METADATA = "compacted-blobs";
+	
+	/**
+	 * Suffix of the marker key after the blob key prefix of the file. It doesn't match the blob keys, but is listed
+	 * together with them.
+	 */
+	private static final String MARKER_SUFFIX = "compaction";
+	
+	/**
+	 * Access to the files of the connector.
+	 */
+	interface Files
+	{
+		/**
+		 * @return all blobs of the file, including the ones which are still uploaded in the background
+		 */
+		List<S3ObjectSummary> blobs(BlobStorePath file);
+		
+		/**
+		 * @return if blobs of the file are still uploaded in the background
+		 */
+		boolean hasPendingWrites(BlobStorePath file);
+		
+		/**
+		 * @return the key of the blob which would be written next
+		 */
+		String nextBlobKey(BlobStorePath file);
+		
+		/**
+		 * @return the lock which guards the numbering of new blobs and the replacement and removal of the file's
+		 * blobs
+		 */
+		Lock lock(BlobStorePath file);
+		
+		/**
+		 * Replaces the compacted blobs by the merged blob in the metadata of the connector.
+		 */
+		void replaced(BlobStorePath file, List<S3ObjectSummary> compactedBlobs, S3ObjectSummary mergedBlob);
+		
+		/**
+		 * @return exactly the keys which were deleted
+		 */
+		List<String> delete(String bucketName, List<String> keys);
+	}
+	
+	/**
+	 * Current position of a byte of a blob which may have been merged into another blob.
+	 */
+	static final class Location
+	{
+		private final S3ObjectSummary blob;
+		private final long offset;
+		
+		Location(final S3ObjectSummary blob, final long offset)
+		{
+			this.blob = blob;
+			this.offset = offset;
+		}
+		
+		S3ObjectSummary blob()
+		{
+			return this.blob;
+		}
+		
+		long offset()
+		{
+			return this.offset;
+		}
+		
+		@Override
+		public boolean equals(final Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(!(o instanceof Location))
+			{
+				return false;
+			}
+			final Location other = (Location)o;
+			return this.offset == other.offset
+				&& this.blob.getKey().equals(other.blob.getKey())
+				&& Objects.equals(this.blob.getETag(), other.blob.getETag());
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(this.blob.getKey(), this.blob.getETag(), this.offset);
+		}
+	}
+	
+	private static final class Forwarding
+	{
+		final Location target;
+		final long expiresAt;
+		
+		Forwarding(final Location target, final long expiresAt)
+		{
+			this.target = target;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	private final AmazonS3 s3;
+	private final Files files;
+	private final long smallBlobSize;
+	private final int minBlobs;
+	private final long maxBlobSize;
+	private final long requestIntervalNanos;
+	/**
+	 * Files with new blobs since their last compaction, by their file key.
+	 */
+	private final Map<String, BlobStorePath> candidates = new ConcurrentHashMap<>();
+	/**
+	 * Where the data of replaced blobs went, by their key and ETag.
+	 */
+	private final Map<String, Forwarding> forwardings = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final CosIoScheduler ioScheduler;
+	private long nextRequestNanos = System.nanoTime();
+	
+	CosBlobCompactor(
+		final AmazonS3 s3,
+		final Files files,
+		final CosConnectorConfiguration configuration,
+		final CosIoScheduler ioScheduler
+	)
+	{
+		this.s3 = s3;
+		this.files = files;
+		this.ioScheduler = ioScheduler;
+		this.smallBlobSize = configuration.getCompactionSmallBlobSize();
+		this.minBlobs = configuration.getCompactionMinBlobs();
+		this.maxBlobSize = configuration.getCompactionMaxBlobSize();
+		this.requestIntervalNanos = TimeUnit.SECONDS.toNanos(1) / configuration.getCompactionRequestsPerSecond();
+		this.scheduler = CosFutures.newBackgroundScheduler("CosConnector-compaction");
+		this.scheduler.scheduleWithFixedDelay(
+			() -> CosRequestContext.runInBackground(this::compactCandidates),
+			configuration.getCompactionIntervalMillis(),
+			configuration.getCompactionIntervalMillis(),
+			TimeUnit.MILLISECONDS
+		);
+	}
+	
+	/**
+	 * @param blobKeyPrefix the prefix of the blob keys of a file
+	 * @return the key of the marker which exists while the compacted blobs of the file are deleted. Its content is
+	 * the key of the merged blob.
+	 */
+	static String markerKey(final String blobKeyPrefix)
+	{
+		return blobKeyPrefix + MARKER_SUFFIX;
+	}
+	
+	/**
+	 * @return if the key is the marker of a file, which must not show up as a file of its own. Blob keys end with
+	 * their number, so no blob key ends like a marker.
+	 */
+	static boolean isMarkerKey(final String key)
+	{
+		return key.endsWith("." + MARKER_SUFFIX);
+	}
+	
+	/**
+	 * Finds the blobs which are left of an interrupted compaction.
+	 *
+	 * @param blobs           all blobs of the file
+	 * @param mergedBlob      the blob named by the file's marker
+	 * @param compactedBlobs  the {@link #COMPACTED_BLOBS_METADATA} of the merged blob, <code>null</code> if it has
+	 *                        none
+	 * @return the blobs which were merged into the merged blob, and must be deleted
+	 */
+	static List<S3ObjectSummary> compactedBlobs(
+		final List<S3ObjectSummary> blobs,
+		final S3ObjectSummary mergedBlob,
+		final String compactedBlobs
+	)
+	{
+		if(compactedBlobs == null)
+		{
+			// A blob which was written with the number after the compaction failed
+			return List.of();
+		}
+		final int separator = compactedBlobs.indexOf('-');
+		final long first = Long.parseLong(compactedBlobs.substring(0, separator));
+		// New blobs always get higher numbers than the merged one, so the lower numbers can't be taken again
+		final long last = Math.min(
+			Long.parseLong(compactedBlobs.substring(separator + 1)),
+			CosBlobIndex.blobNumber(mergedBlob.getKey()) - 1
+		);
+		return blobs.stream()
+			.filter(blob ->
+			{
+				final long number = CosBlobIndex.blobNumber(blob.getKey());
+				return number >= first && number <= last;
+			})
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Registers the file for the next compaction run.
+	 */
+	void fileWritten(final String fileKey, final BlobStorePath file)
+	{
+		this.candidates.put(fileKey, file);
+	}
+	
+	/**
+	 * @return the current location of the byte at the offset of the blob, following all merges since the blob was
+	 * listed
+	 */
+	Location locate(final S3ObjectSummary blob, final long offset)
+	{
+		Location location = new Location(blob, offset);
+		for(
+			Forwarding forwarding = this.forwardings.get(forwardingKey(location.blob));
+			forwarding != null;
+			forwarding = this.forwardings.get(forwardingKey(location.blob))
+		)
+		{
+			location = new Location(forwarding.target.blob, forwarding.target.offset + location.offset);
+		}
+		return location;
+	}
+	
+	private static String forwardingKey(final S3ObjectSummary blob)
+	{
+		return blob.getKey() + '\n' + blob.getETag();
+	}
+	
+	private void compactCandidates()
+	{
+		final long now = System.currentTimeMillis();
+		this.forwardings.values().removeIf(forwarding -> forwarding.expiresAt < now);
+		
+		for(final String fileKey : new ArrayList<>(this.candidates.keySet()))
+		{
+			if(Thread.currentThread().isInterrupted())
+			{
+				return;
+			}
+			final BlobStorePath file = this.candidates.remove(fileKey);
+			try
+			{
+				if(this.files.hasPendingWrites(file))
+				{
+					// Tried again once the uploads are done
+					this.candidates.putIfAbsent(fileKey, file);
+					continue;
+				}
+				final List<S3ObjectSummary> run = findTailRun(
+					this.files.blobs(file),
+					this.smallBlobSize,
+					this.minBlobs,
+					this.maxBlobSize
+				);
+				if(!run.isEmpty())
+				{
+					this.compactRun(file, run);
+				}
+			}
+			catch(final RuntimeException e)
+			{
+				LOGGER.warn("Compaction of {} failed", fileKey, e);
+			}
+		}
+	}
+	
+	/**
+	 * @return the runs of at least {@code minBlobs} consecutive blobs, which are all smaller than
+	 * {@code smallBlobSize} and have at most {@code maxBlobSize} together
+	 */
+	static List<List<S3ObjectSummary>> findRuns(
+		final List<S3ObjectSummary> blobs,
+		final long smallBlobSize,
+		final int minBlobs,
+		final long maxBlobSize
+	)
+	{
+		final List<List<S3ObjectSummary>> runs = new ArrayList<>();
+		List<S3ObjectSummary> run = new ArrayList<>();
+		long runSize = 0;
+		for(final S3ObjectSummary blob : blobs)
+		{
+			final boolean small = blob.getSize() < smallBlobSize;
+			if(!small || runSize + blob.getSize() > maxBlobSize)
+			{
+				if(run.size() >= minBlobs)
+				{
+					runs.add(run);
+				}
+				run = new ArrayList<>();
+				runSize = 0;
+			}
+			if(small)
+			{
+				run.add(blob);
+				runSize += blob.getSize();
+			}
+		}
+		if(run.size() >= minBlobs)
+		{
+			runs.add(run);
+		}
+		return runs;
+	}
+	
+	/**
+	 * @return the last run of {@link #findRuns(List, long, int, long)}, if it ends with the last blob. Only such a
+	 * run can be replaced by a blob with the next number without changing the order of the blobs.
+	 */
+	static List<S3ObjectSummary> findTailRun(
+		final List<S3ObjectSummary> blobs,
+		final long smallBlobSize,
+		final int minBlobs,
+		final long maxBlobSize
+	)
+	{
+		final List<List<S3ObjectSummary>> runs = findRuns(blobs, smallBlobSize, minBlobs, maxBlobSize);
+		if(runs.isEmpty())
+		{
+			return List.of();
+		}
+		final List<S3ObjectSummary> run = runs.get(runs.size() - 1);
+		return run.get(run.size() - 1) == blobs.get(blobs.size() - 1)
+			? run
+			: List.of();
+	}
+	
+	private void compactRun(final BlobStorePath file, final List<S3ObjectSummary> run)
+	{
+		final String bucketName = file.container();
+		final String key = this.files.nextBlobKey(file);
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.addUserMetadata(
+			COMPACTED_BLOBS_METADATA,
+			CosBlobIndex.blobNumber(run.get(0).getKey()) + "-"
+				+ CosBlobIndex.blobNumber(run.get(run.size() - 1).getKey())
+		);
+		
+		this.pace();
+		final String uploadId = this.ioScheduler.execute(
+			CosIoClass.BACKGROUND_MAINTENANCE,
+			() -> this.s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, metadata))
+		).getUploadId();
+		boolean completed = false;
+		try
+		{
+			final List<PartETag> parts = this.uploadParts(bucketName, key, uploadId, run);
+			this.pace();
+			
+			final Lock lock = this.files.lock(file);
+			lock.lock();
+			try
+			{
+				if(parts == null || !this.isUnchanged(file, run))
+				{
+					LOGGER.debug("Skipping compaction of {}, the blobs were modified", key);
+					this.abort(bucketName, key, uploadId, null);
+					return;
+				}
+				final String markerKey = markerKey(key.substring(0, key.lastIndexOf('.') + 1));
+				this.ioScheduler.execute(
+					CosIoClass.BACKGROUND_MAINTENANCE,
+					() -> this.s3.putObject(bucketName, markerKey, key)
+				);
+				// A failed completion may still have created the merged blob, the marker lets the next listing check it
+				final String eTag = this.ioScheduler.execute(
+					CosIoClass.BACKGROUND_MAINTENANCE,
+					() -> this.s3.completeMultipartUpload(
+						new CompleteMultipartUploadRequest(bucketName, key, uploadId, parts)
+					)
+				).getETag();
+				completed = true;
+				
+				final S3ObjectSummary mergedBlob = CosBlobIndex.summary(
+					bucketName,
+					key,
+					run.stream().mapToLong(S3ObjectSummary::getSize).sum(),
+					eTag
+				);
+				
+				final long expiresAt = System.currentTimeMillis() + FORWARDING_RETENTION_MILLIS;
+				long offset = 0;
+				for(final S3ObjectSummary blob : run)
+				{
+					this.forwardings.put(
+						forwardingKey(blob),
+						new Forwarding(new Location(mergedBlob, offset), expiresAt)
+					);
+					offset += blob.getSize();
+				}
+				this.files.replaced(file, run, mergedBlob);
+				
+				final List<String> compactedKeys = run.stream()
+					.map(S3ObjectSummary::getKey)
+					.collect(Collectors.toList());
+				if(this.files.delete(bucketName, compactedKeys).size() < compactedKeys.size())
+				{
+					// The marker stays, so the next listing of the file deletes them
+					throw new SdkClientException("Could not delete all blobs which were compacted into " + key);
+				}
+				this.ioScheduler.run(
+					CosIoClass.BACKGROUND_MAINTENANCE,
+					() -> this.s3.deleteObject(bucketName, markerKey)
+				);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		catch(final RuntimeException e)
+		{
+			if(!completed)
+			{
+				this.abort(bucketName, key, uploadId, e);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return the parts of the merged blob, or <code>null</code> if a blob of the run was modified in the meantime
+	 */
+	private List<PartETag> uploadParts(
+		final String bucketName,
+		final String key,
+		final String uploadId,
+		final List<S3ObjectSummary> run
+	)
+	{
+		final List<PartETag> parts = new ArrayList<>();
+		final List<ByteBuffer> pending = new ArrayList<>();
+		long pendingSize = 0;
+		for(final S3ObjectSummary blob : run)
+		{
+			if(pendingSize == 0 && blob.getSize() >= CosMultipartUpload.MIN_PART_SIZE)
+			{
+				this.pace();
+				final CopyPartRequest request = new CopyPartRequest()
+					.withSourceBucketName(bucketName)
+					.withSourceKey(blob.getKey())
+					.withMatchingETagConstraint(blob.getETag())
+					.withDestinationBucketName(bucketName)
+					.withDestinationKey(key)
+					.withUploadId(uploadId)
+					.withPartNumber(parts.size() + 1);
+				final CopyPartResult result = this.ioScheduler.execute(
+					CosIoClass.BACKGROUND_MAINTENANCE,
+					() -> this.s3.copyPart(request)
+				);
+				if(result == null)
+				{
+					return null;
+				}
+				parts.add(result.getPartETag());
+				continue;
+			}
+			
+			final ByteBuffer data = this.download(bucketName, blob);
+			if(data == null)
+			{
+				return null;
+			}
+			pending.add(data);
+			pendingSize += blob.getSize();
+			if(pendingSize >= CosMultipartUpload.MIN_PART_SIZE)
+			{
+				parts.add(this.uploadPart(bucketName, key, uploadId, parts.size() + 1, pending));
+				pending.clear();
+				pendingSize = 0;
+			}
+		}
+		if(!pending.isEmpty())
+		{
+			parts.add(this.uploadPart(bucketName, key, uploadId, parts.size() + 1, pending));
+		}
+		return parts;
+	}
+	
+	/**
+	 * @return the content of the blob, or <code>null</code> if it was modified in the meantime
+	 */
+	private ByteBuffer download(final String bucketName, final S3ObjectSummary blob)
+	{
+		final ByteBuffer data = ByteBuffer.allocate((int)blob.getSize());
+		if(blob.getSize() == 0)
+		{
+			return data;
+		}
+		this.pace();
+		final GetObjectRequest request = new GetObjectRequest(bucketName, blob.getKey())
+			.withMatchingETagConstraint(blob.getETag());
+		return this.ioScheduler.execute(CosIoClass.BACKGROUND_MAINTENANCE, () -> this.get(request, data))
+			? data.flip()
+			: null;
+	}
+	
+	/**
+	 * @return if the object could be read, <code>false</code> if it was modified in the meantime
+	 */
+	private boolean get(final GetObjectRequest request, final ByteBuffer data)
+	{
+		try(final S3Object object = this.s3.getObject(request))
+		{
+			if(object == null)
+			{
+				return false;
+			}
+			CosBuffers.readFully(object.getObjectContent(), data, data.remaining());
+			return true;
+		}
+		catch(final IOException e)
+		{
+			throw new SdkClientException(e);
+		}
+	}
+	
+	private PartETag uploadPart(
+		final String bucketName,
+		final String key,
+		final String uploadId,
+		final int partNumber,
+		final List<ByteBuffer> part
+	)
+	{
+		this.pace();
+		final CosByteBufferInputStream inputStream = CosByteBufferInputStream.New(part);
+		final UploadPartRequest request = new UploadPartRequest()
+			.withBucketName(bucketName)
+			.withKey(key)
+			.withUploadId(uploadId)
+			.withPartNumber(partNumber)
+			.withPartSize(inputStream.length())
+			.withInputStream(inputStream);
+		return this.ioScheduler.execute(CosIoClass.BACKGROUND_MAINTENANCE, () -> this.s3.uploadPart(request))
+			.getPartETag();
+	}
+	
+	/**
+	 * @return if the run still consists of the same blobs and still ends the file, so the number of the merged blob
+	 * wasn't taken in the meantime
+	 */
+	private boolean isUnchanged(final BlobStorePath file, final List<S3ObjectSummary> run)
+	{
+		final List<S3ObjectSummary> blobs = this.files.blobs(file);
+		if(blobs.isEmpty() || !blobs.get(blobs.size() - 1).getKey().equals(run.get(run.size() - 1).getKey()))
+		{
+			return false;
+		}
+		final Map<String, String> currentETags = new HashMap<>();
+		blobs.forEach(blob -> currentETags.put(blob.getKey(), blob.getETag()));
+		return run.stream().allMatch(blob -> Objects.equals(currentETags.get(blob.getKey()), blob.getETag()));
+	}
+	
+	private void abort(
+		final String bucketName,
+		final String key,
+		final String uploadId,
+		final RuntimeException cause
+	)
+	{
+		try
+		{
+			this.ioScheduler.run(
+				CosIoClass.BACKGROUND_MAINTENANCE,
+				() -> this.s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId))
+			);
+		}
+		catch(final RuntimeException e)
+		{
+			if(cause == null)
+			{
+				throw e;
+			}
+			cause.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * Waits until the next request is allowed by the configured rate.
+	 */
+	private void pace()
+	{
+		final long now = System.nanoTime();
+		final long waitNanos = this.nextRequestNanos - now;
+		if(waitNanos > 0)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CancellationException("The compaction was stopped");
+			}
+		}
+		this.nextRequestNanos = Math.max(now, this.nextRequestNanos) + this.requestIntervalNanos;
+	}
+	
+	@Override
+	public void close()
+	{
+		this.scheduler.shutdownNow();
+	}
+}
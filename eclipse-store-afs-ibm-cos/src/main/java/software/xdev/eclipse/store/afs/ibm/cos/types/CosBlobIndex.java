@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * In-memory index of the blobs of each file, ordered by their blob number.
+ * <p>
+ * A file is listed once on its first access. After that the index is updated by every write and delete of the
+ * connector, so it stays authoritative as long as the connector is the only one writing to the bucket.
+ * </p>
+ * <p>
+ * With a time to live, a file is listed again once its listing is older than that, which picks up the changes of
+ * other writers. If the maximum number of files is reached, the least recently used file is dropped.
+ * </p>
+ */
+final class CosBlobIndex
+{
+	private final long ttlMillis;
+	private final LongSupplier clock;
+	private final Map<String, FileEntry> files;
+	
+	/**
+	 * Creates an authoritative index without limit.
+	 */
+	CosBlobIndex()
+	{
+		this(0, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @param ttlMillis time after which a file is listed again, 0 if the index is authoritative
+	 * @param maxFiles  maximum number of indexed files
+	 */
+	CosBlobIndex(final long ttlMillis, final int maxFiles)
+	{
+		this(ttlMillis, maxFiles, System::currentTimeMillis);
+	}
+	
+	CosBlobIndex(final long ttlMillis, final int maxFiles, final LongSupplier clock)
+	{
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.files = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, FileEntry> eldest)
+			{
+				return this.size() > maxFiles;
+			}
+		};
+	}
+	
+	/**
+	 * @param fileKey identifies the file, see {@link #fileKey(String, String)}
+	 * @param loader  lists the blobs of the file if they are not indexed yet
+	 * @return the blobs of the file, ordered by their blob number
+	 */
+	List<S3ObjectSummary> blobs(
+		final String fileKey,
+		final Supplier<Stream<S3ObjectSummary>> loader
+	)
+	{
+		return this.entry(fileKey).blobs(loader, this.ttlMillis, this.clock);
+	}
+	
+	/**
+	 * Registers a newly written blob. Files which are not indexed yet are loaded completely on their first access.
+	 */
+	void added(final String fileKey, final S3ObjectSummary blob)
+	{
+		this.entry(fileKey).add(blob);
+	}
+	
+	/**
+	 * Removes deleted blobs from the index.
+	 */
+	void removed(final String fileKey, final Collection<String> blobKeys)
+	{
+		final FileEntry entry = this.existingEntry(fileKey);
+		if(entry != null)
+		{
+			entry.remove(blobKeys);
+		}
+	}
+	
+	/**
+	 * Replaces the summary of a blob which was indexed before its upload was complete, see {@link CosWriteBehind}.
+	 * A blob which is not indexed anymore stays removed.
+	 */
+	void uploaded(final String fileKey, final S3ObjectSummary blob)
+	{
+		final FileEntry entry = this.existingEntry(fileKey);
+		if(entry != null)
+		{
+			entry.update(blob);
+		}
+	}
+	
+	/**
+	 * Replaces blobs by a single blob in one step, so no reader sees the file without them or with both.
+	 */
+	void replaced(final String fileKey, final Collection<String> blobKeys, final S3ObjectSummary replacement)
+	{
+		final FileEntry entry = this.existingEntry(fileKey);
+		if(entry != null)
+		{
+			entry.replace(blobKeys, replacement);
+		}
+	}
+	
+	private synchronized FileEntry entry(final String fileKey)
+	{
+		return this.files.computeIfAbsent(fileKey, k -> new FileEntry());
+	}
+	
+	private synchronized FileEntry existingEntry(final String fileKey)
+	{
+		return this.files.get(fileKey);
+	}
+	
+	static String fileKey(final String bucketName, final String blobKeyPrefix)
+	{
+		return bucketName + '/' + blobKeyPrefix;
+	}
+	
+	static long blobNumber(final String blobKey)
+	{
+		return Long.parseLong(blobKey.substring(blobKey.lastIndexOf('.') + 1));
+	}
+	
+	static S3ObjectSummary summary(
+		final String bucketName,
+		final String key,
+		final long size,
+		final String eTag
+	)
+	{
+		final S3ObjectSummary summary = new S3ObjectSummary();
+		summary.setBucketName(bucketName);
+		summary.setKey(key);
+		summary.setSize(size);
+		summary.setETag(eTag);
+		summary.setLastModified(new Date());
+		return summary;
+	}
+	
+	/**
+	 * The blobs of a single file. Loading happens under the lock of the entry, so a concurrent write can't get lost
+	 * between the listing and the registration of the entry.
+	 */
+	private static final class FileEntry
+	{
+		private final NavigableMap<Long, S3ObjectSummary> blobs = new TreeMap<>();
+		private boolean loaded;
+		private long loadedAt;
+		
+		synchronized List<S3ObjectSummary> blobs(
+			final Supplier<Stream<S3ObjectSummary>> loader,
+			final long ttlMillis,
+			final LongSupplier clock
+		)
+		{
+			if(this.loaded && ttlMillis > 0 && clock.getAsLong() - this.loadedAt > ttlMillis)
+			{
+				// Blobs written by this connector in the meantime are part of the new listing as well
+				this.blobs.clear();
+				this.loaded = false;
+			}
+			if(!this.loaded)
+			{
+				try(final Stream<S3ObjectSummary> listing = loader.get())
+				{
+					listing.forEach(blob -> this.blobs.putIfAbsent(blobNumber(blob.getKey()), blob));
+				}
+				this.loaded = true;
+				this.loadedAt = clock.getAsLong();
+			}
+			return new ArrayList<>(this.blobs.values());
+		}
+		
+		synchronized void add(final S3ObjectSummary blob)
+		{
+			this.blobs.put(blobNumber(blob.getKey()), blob);
+		}
+		
+		synchronized void update(final S3ObjectSummary blob)
+		{
+			this.blobs.computeIfPresent(
+				blobNumber(blob.getKey()),
+				(number, current) -> current.getKey().equals(blob.getKey())
+					? blob
+					: current
+			);
+		}
+		
+		synchronized void remove(final Collection<String> blobKeys)
+		{
+			blobKeys.forEach(key -> this.blobs.remove(blobNumber(key)));
+		}
+		
+		synchronized void replace(final Collection<String> blobKeys, final S3ObjectSummary replacement)
+		{
+			this.remove(blobKeys);
+			this.add(replacement);
+		}
+	}
+}
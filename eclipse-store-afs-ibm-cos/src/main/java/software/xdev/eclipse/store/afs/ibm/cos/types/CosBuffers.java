@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * {@link ByteBuffer} helpers which never copy the content of the buffers.
+ */
+final class CosBuffers
+{
+	/**
+	 * @return an independent view of {@code length} bytes of the buffer, starting at the absolute {@code index}.
+	 * Position and limit of the given buffer are not changed.
+	 */
+	static ByteBuffer slice(final ByteBuffer buffer, final int index, final int length)
+	{
+		final ByteBuffer duplicate = buffer.duplicate();
+		duplicate.limit(index + length);
+		duplicate.position(index);
+		return duplicate.slice();
+	}
+	
+	/**
+	 * Streams exactly {@code length} bytes from the input into the target buffer, starting at its position.
+	 * <p>
+	 * The bytes are transferred through the channel adapter of the stream, which only uses a small transfer buffer,
+	 * so no array of the size of the whole range is ever allocated.
+	 * </p>
+	 */
+	static void readFully(
+		final InputStream inputStream,
+		final ByteBuffer targetBuffer,
+		final long length
+	)
+		throws IOException
+	{
+		final int limit = targetBuffer.limit();
+		targetBuffer.limit(Math.addExact(targetBuffer.position(), Math.toIntExact(length)));
+		try
+		{
+			final ReadableByteChannel channel = Channels.newChannel(inputStream);
+			while(targetBuffer.hasRemaining())
+			{
+				if(channel.read(targetBuffer) < 0)
+				{
+					throw new EOFException(targetBuffer.remaining() + " bytes missing at the end of the stream");
+				}
+			}
+		}
+		finally
+		{
+			targetBuffer.limit(limit);
+		}
+	}
+	
+	private CosBuffers()
+	{
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Replayable {@link InputStream} which reads directly from the remaining bytes of a list of {@link ByteBuffer}s.
+ * <p>
+ * The stream works on duplicates, so the given buffers are not modified. {@link #mark(int)} and {@link #reset()}
+ * are supported for any distance without buffering anything, which allows the SDK to retry a request without
+ * holding a second copy of the payload.
+ * </p>
+ */
+final class CosByteBufferInputStream extends InputStream
+{
+	static CosByteBufferInputStream New(final Iterable<? extends ByteBuffer> sourceBuffers)
+	{
+		final List<ByteBuffer> buffers = new ArrayList<>();
+		sourceBuffers.forEach(buffer ->
+		{
+			if(buffer.hasRemaining())
+			{
+				buffers.add(buffer.slice());
+			}
+		});
+		return new CosByteBufferInputStream(buffers.toArray(ByteBuffer[]::new));
+	}
+	
+	private final ByteBuffer[] buffers;
+	private final long[] startOffsets;
+	private final long length;
+	
+	private int currentBuffer;
+	private long position;
+	private long markedPosition;
+	
+	private CosByteBufferInputStream(final ByteBuffer[] buffers)
+	{
+		super();
+		this.buffers = buffers;
+		this.startOffsets = new long[buffers.length];
+		long offset = 0;
+		for(int i = 0; i < buffers.length; i++)
+		{
+			this.startOffsets[i] = offset;
+			offset += buffers[i].remaining();
+		}
+		this.length = offset;
+	}
+	
+	/**
+	 * @return the exact number of bytes of this stream, independent of the current position
+	 */
+	long length()
+	{
+		return this.length;
+	}
+	
+	@Override
+	public int read()
+	{
+		final ByteBuffer buffer = this.currentBuffer();
+		if(buffer == null)
+		{
+			return -1;
+		}
+		this.position++;
+		return buffer.get() & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] target, final int offset, final int length)
+	{
+		if(length == 0)
+		{
+			return 0;
+		}
+		int read = 0;
+		ByteBuffer buffer;
+		while(read < length && (buffer = this.currentBuffer()) != null)
+		{
+			final int chunk = Math.min(length - read, buffer.remaining());
+			buffer.get(target, offset + read, chunk);
+			read += chunk;
+		}
+		this.position += read;
+		return read == 0 ? -1 : read;
+	}
+	
+	private ByteBuffer currentBuffer()
+	{
+		while(this.currentBuffer < this.buffers.length)
+		{
+			final ByteBuffer buffer = this.buffers[this.currentBuffer];
+			if(buffer.hasRemaining())
+			{
+				return buffer;
+			}
+			this.currentBuffer++;
+		}
+		return null;
+	}
+	
+	@Override
+	public long skip(final long n)
+	{
+		final long skipped = Math.max(0, Math.min(n, this.length - this.position));
+		this.seek(this.position + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public int available()
+	{
+		return (int)Math.min(Integer.MAX_VALUE, this.length - this.position);
+	}
+	
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+	
+	/**
+	 * Marks the current position. The read limit is ignored, the stream can always be reset to the mark.
+	 */
+	@Override
+	public void mark(final int readLimit)
+	{
+		this.markedPosition = this.position;
+	}
+	
+	@Override
+	public void reset()
+	{
+		this.seek(this.markedPosition);
+	}
+	
+	private void seek(final long target)
+	{
+		for(int i = 0; i < this.buffers.length; i++)
+		{
+			final ByteBuffer buffer = this.buffers[i];
+			final long relative = target - this.startOffsets[i];
+			buffer.position((int)Math.max(0, Math.min(relative, buffer.limit())));
+		}
+		// Exhausted buffers are skipped by the next read
+		this.currentBuffer = 0;
+		this.position = target;
+	}
+	
+	@Override
+	public void close()
+	{
+		// Nothing to release, the buffers belong to the caller
+	}
+}
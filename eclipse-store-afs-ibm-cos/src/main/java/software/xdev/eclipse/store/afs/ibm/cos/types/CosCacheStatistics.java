@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+/**
+ * Snapshot of the counters of a cache of the {@link CosConnector}.
+ */
+public final class CosCacheStatistics
+{
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long usedBytes;
+	
+	CosCacheStatistics(
+		final long hits,
+		final long misses,
+		final long evictions,
+		final long usedBytes
+	)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.usedBytes = usedBytes;
+	}
+	
+	/**
+	 * @return number of blocks which were served from the cache
+	 */
+	public long getHits()
+	{
+		return this.hits;
+	}
+	
+	/**
+	 * @return number of blocks which had to be fetched
+	 */
+	public long getMisses()
+	{
+		return this.misses;
+	}
+	
+	/**
+	 * @return number of blocks which were evicted to make room for others
+	 */
+	public long getEvictions()
+	{
+		return this.evictions;
+	}
+	
+	/**
+	 * @return number of bytes currently held by the cache
+	 */
+	public long getUsedBytes()
+	{
+		return this.usedBytes;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "CosCacheStatistics [hits=" + this.hits
+			+ ", misses=" + this.misses
+			+ ", evictions=" + this.evictions
+			+ ", usedBytes=" + this.usedBytes + "]";
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+/**
+ * Lets a running request register how it can be aborted, for example by aborting its response stream, when its
+ * result is not needed anymore.
+ */
+final class CosCancellation
+{
+	private Runnable action;
+	private boolean cancelled;
+	private boolean finished;
+	
+	/**
+	 * Registers the action which aborts the request. It is executed right away if the request was already
+	 * cancelled.
+	 */
+	void onCancel(final Runnable action)
+	{
+		synchronized(this)
+		{
+			if(!this.cancelled)
+			{
+				this.action = action;
+				return;
+			}
+		}
+		action.run();
+	}
+	
+	synchronized boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+	
+	/**
+	 * Aborts the request, unless it already finished.
+	 */
+	void cancel()
+	{
+		final Runnable action;
+		synchronized(this)
+		{
+			if(this.cancelled || this.finished)
+			{
+				return;
+			}
+			this.cancelled = true;
+			action = this.action;
+			this.action = null;
+		}
+		if(action != null)
+		{
+			action.run();
+		}
+	}
+	
+	/**
+	 * Marks the request as finished, after that it is not aborted anymore.
+	 */
+	synchronized void finish()
+	{
+		this.finished = true;
+		this.action = null;
+	}
+}
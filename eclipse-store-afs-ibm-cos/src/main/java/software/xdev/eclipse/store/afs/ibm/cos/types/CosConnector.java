@@ -18,29 +18,31 @@ package software.xdev.eclipse.store.afs.ibm.cos.types;
 
 import static org.eclipse.serializer.util.X.notNull;
 
-import java.io.BufferedInputStream;
-import java.io.IOException;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
-import org.eclipse.serializer.exceptions.IORuntimeException;
-import org.eclipse.serializer.io.ByteBufferInputStream;
 import org.eclipse.store.afs.blobstore.types.BlobStoreConnector;
 import org.eclipse.store.afs.blobstore.types.BlobStorePath;
 
 import com.ibm.cloud.objectstorage.SdkClientException;
 import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
-import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
-import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsResult;
-import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.AmazonS3Exception;
 import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Result;
 import com.ibm.cloud.objectstorage.services.s3.model.ObjectMetadata;
 import com.ibm.cloud.objectstorage.services.s3.model.PutObjectRequest;
-import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectInputStream;
 import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
 
 
@@ -59,6 +61,21 @@ import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
 @SuppressWarnings({"checkstyle:MethodName", "java:S100"}) // EclipseStore Naming
 public interface CosConnector extends BlobStoreConnector
 {
+	/**
+	 * @return the current counters of the memory cache, or <code>null</code> if it is disabled
+	 * @see CosConnectorConfiguration#withMemoryCacheSize(long)
+	 */
+	CosCacheStatistics memoryCacheStatistics();
+	
+	/**
+	 * Waits until all data written so far is stored in the COS. Only writes in the
+	 * {@link CosConnectorConfiguration#withWriteBehind(boolean) write-behind} mode may still be pending, otherwise
+	 * there is nothing to wait for.
+	 *
+	 * @throws com.ibm.cloud.objectstorage.SdkClientException if a background upload failed
+	 */
+	void flush();
+	
 	/**
 	 * Pseudo-constructor method which creates a new {@link CosConnector}.
 	 *
@@ -68,10 +85,26 @@ public interface CosConnector extends BlobStoreConnector
 	static CosConnector New(
 		final AmazonS3 s3
 	)
+	{
+		return New(s3, new CosConnectorConfiguration());
+	}
+	
+	/**
+	 * Pseudo-constructor method which creates a new {@link CosConnector}.
+	 *
+	 * @param s3            connection to the S3 storage
+	 * @param configuration tuning options of the connector
+	 * @return a new {@link CosConnector}
+	 */
+	static CosConnector New(
+		final AmazonS3 s3,
+		final CosConnectorConfiguration configuration
+	)
 	{
 		return new CosConnector.Default(
 			notNull(s3),
-			false
+			false,
+			notNull(configuration)
 		);
 	}
 	
@@ -84,10 +117,26 @@ public interface CosConnector extends BlobStoreConnector
 	static CosConnector Caching(
 		final AmazonS3 s3
 	)
+	{
+		return Caching(s3, new CosConnectorConfiguration());
+	}
+	
+	/**
+	 * Pseudo-constructor method which creates a new {@link CosConnector} with cache.
+	 *
+	 * @param s3            connection to the S3 storage
+	 * @param configuration tuning options of the connector
+	 * @return a new {@link CosConnector}
+	 */
+	static CosConnector Caching(
+		final AmazonS3 s3,
+		final CosConnectorConfiguration configuration
+	)
 	{
 		return new CosConnector.Default(
 			notNull(s3),
-			true
+			true,
+			notNull(configuration)
 		);
 	}
 	
@@ -96,35 +145,587 @@ public interface CosConnector extends BlobStoreConnector
 		implements CosConnector
 	{
 		public static final int READ_LIMIT = Integer.MAX_VALUE;
+		private static final int HTTP_NOT_FOUND = 404;
+		
 		private final AmazonS3 s3;
+		private final CosConnectorConfiguration configuration;
+		private final ExecutorService ioExecutor;
+		/**
+		 * Executes the hedged requests, or <code>null</code> if hedging is disabled.
+		 */
+		private final ExecutorService hedgingExecutor;
+		private final CosHedging listingHedging;
+		/**
+		 * Admits the requests to the connection pool by their priority.
+		 */
+		private final CosIoScheduler ioScheduler;
+		private final CosMultipartUpload multipartUpload;
+		private final CosBatchDelete batchDelete;
+		private final CosServerSideCopy serverSideCopy;
+		/**
+		 * Time to live of cached metadata, 0 if it never expires.
+		 */
+		private final long metadataTtlMillis;
+		private final CosBlobIndex blobIndex;
+		/**
+		 * The tree of each bucket, which may still be built.
+		 */
+		private final Map<String, CompletableFuture<CosKeyTree>> keyTrees;
+		/**
+		 * Child keys of directories (bucket name and prefix).
+		 */
+		private final CosExpiringMap<List<String>> childKeysCache;
+		/**
+		 * Directories (bucket name and prefix) which are known to exist from earlier listings, writes or checks.
+		 */
+		private final CosExpiringMap<Boolean> knownDirectories;
+		/**
+		 * Files (bucket name and blob key prefix) and directories (bucket name and prefix) which were confirmed to
+		 * be absent.
+		 */
+		private final CosExpiringMap<Boolean> absentPaths;
+		/**
+		 * Running listings and existence checks, keyed like the caches.
+		 */
+		private final CosSingleFlight<List<String>> childKeysFlights;
+		private final CosSingleFlight<List<S3ObjectSummary>> blobsFlights;
+		private final CosSingleFlight<Boolean> directoryExistsFlights;
+		private final CosFileLocks fileLocks = new CosFileLocks();
+		private final CosBlobCompactor compactor;
+		private final CosMemoryCache memoryCache;
+		private final CosReadAhead readAhead;
+		private final CosRangeReader reader;
+		private final CosWriteBehind writeBehind;
+		private final CosGroupCommit groupCommit;
 		
 		Default(
 			final AmazonS3 s3,
-			final boolean useCache
+			final boolean useCache,
+			final CosConnectorConfiguration configuration
 		)
 		{
 			super(
 				S3ObjectSummary::getKey,
 				S3ObjectSummary::getSize,
 				CosPathValidator.New(),
-				useCache
+				// Replaced by the configurable metadata cache
+				false
 			);
 			this.s3 = s3;
+			this.configuration = configuration;
+			this.ioExecutor = CosFutures.newBoundedExecutor("CosConnector-io", configuration.getIoThreads());
+			// Every hedged request runs on its own thread, so the caller can take whichever answers first
+			this.hedgingExecutor = configuration.isHedging()
+				? CosFutures.newBoundedExecutor("CosConnector-hedging", 2 * configuration.getIoThreads())
+				: null;
+			this.listingHedging = configuration.isHedging()
+				? new CosHedging(this.hedgingExecutor, configuration)
+				: null;
+			this.ioScheduler = configuration.isIoScheduler()
+				? new CosIoScheduler(configuration)
+				: CosIoScheduler.UNLIMITED;
+			this.multipartUpload = new CosMultipartUpload(
+				s3,
+				this.ioExecutor,
+				configuration.getMultipartUploadPartSize(),
+				configuration.getMultipartUploadPartRetries(),
+				this.ioScheduler
+			);
+			this.batchDelete = new CosBatchDelete(
+				s3,
+				this.ioExecutor,
+				configuration.getDeleteRetries(),
+				this.ioScheduler
+			);
+			this.serverSideCopy = new CosServerSideCopy(
+				s3,
+				this.ioExecutor,
+				configuration.getMultipartCopyPartSize(),
+				this.ioScheduler
+			);
+			final CosMetadataCacheMode cacheMode = useCache
+				? configuration.getMetadataCacheMode()
+				: CosMetadataCacheMode.DISABLED;
+			this.metadataTtlMillis = cacheMode == CosMetadataCacheMode.TTL
+				? configuration.getMetadataCacheTtlMillis()
+				: 0;
+			final boolean metadataCache = cacheMode != CosMetadataCacheMode.DISABLED;
+			final int maxEntries = configuration.getMetadataCacheMaxEntries();
+			this.blobIndex = metadataCache && configuration.isBlobIndex()
+				? new CosBlobIndex(this.metadataTtlMillis, maxEntries)
+				: null;
+			this.keyTrees = metadataCache && configuration.isMetadataTree()
+				? new ConcurrentHashMap<>()
+				: null;
+			this.childKeysCache = metadataCache
+				? new CosExpiringMap<>(this.metadataTtlMillis, maxEntries)
+				: null;
+			this.knownDirectories = metadataCache
+				? new CosExpiringMap<>(this.metadataTtlMillis, maxEntries)
+				: null;
+			this.absentPaths = metadataCache && configuration.getNegativeCacheTtlMillis() > 0
+				? new CosExpiringMap<>(configuration.getNegativeCacheTtlMillis(), maxEntries)
+				: null;
+			this.childKeysFlights = configuration.isSingleFlight()
+				? new CosSingleFlight<>()
+				: null;
+			this.blobsFlights = configuration.isSingleFlight()
+				? new CosSingleFlight<>()
+				: null;
+			this.directoryExistsFlights = configuration.isSingleFlight()
+				? new CosSingleFlight<>()
+				: null;
+			// Merging relies on the index seeing every change of the files
+			this.compactor = this.blobIndex != null
+				&& cacheMode == CosMetadataCacheMode.AUTHORITATIVE
+				&& configuration.isCompaction()
+				? new CosBlobCompactor(s3, new CompactedFiles(), configuration, this.ioScheduler)
+				: null;
+			final CosRangeReader baseReader = this.createBaseReader();
+			this.memoryCache = configuration.getMemoryCacheSize() > 0
+				? new CosMemoryCache(
+					baseReader,
+					configuration.getMemoryCacheSize(),
+					configuration.getMemoryCacheBlockSize()
+				)
+				: null;
+			final CosRangeReader cachedReader = this.memoryCache != null
+				? this.memoryCache
+				: baseReader;
+			this.readAhead = configuration.isReadAhead()
+				? new CosReadAhead(cachedReader, configuration)
+				: null;
+			this.reader = this.readAhead != null
+				? this.readAhead
+				: cachedReader;
+			this.writeBehind = configuration.isWriteBehind()
+				? new CosWriteBehind(
+					this::upload,
+					this::blobUploaded,
+					configuration.getWriteBehindBufferSize(),
+					configuration.getIoThreads(),
+					this.createSpool()
+				)
+				: null;
+			// Writes in the write-behind mode return right away, there is nothing to wait for together
+			this.groupCommit = configuration.getGroupCommitWindowMillis() > 0 && this.writeBehind == null
+				? new CosGroupCommit(
+					configuration.getGroupCommitWindowMillis(),
+					configuration.getGroupCommitMaxBytes()
+				)
+				: null;
+		}
+		
+		/**
+		 * Opens the spool of the write-behind mode if configured, which uploads the incomplete writes of the last
+		 * run first.
+		 */
+		private CosSpool createSpool()
+		{
+			if(this.configuration.getWriteBehindSpoolDirectory() == null)
+			{
+				return null;
+			}
+			return new CosSpool(
+				this.configuration.getWriteBehindSpoolDirectory(),
+				this.configuration.getWriteBehindSpoolSegmentSize(),
+				(bucketName, key, data) -> this.upload(bucketName, key, List.of(data), data.remaining())
+			);
+		}
+		
+		/**
+		 * Stacks the single-flight reads, the read coalescing and the disk cache, if configured, on top of the
+		 * requests to the COS.
+		 */
+		private CosRangeReader createBaseReader()
+		{
+			CosRangeReader reader = new CosObjectReader(
+				this.s3,
+				this.ioExecutor,
+				this.configuration,
+				this.compactor != null,
+				this.configuration.isHedging()
+					? new CosHedging(this.hedgingExecutor, this.configuration)
+					: null,
+				this.ioScheduler
+			);
+			if(this.configuration.isSingleFlight())
+			{
+				reader = new CosSingleFlightReader(reader);
+			}
+			if(this.configuration.getReadCoalescingWindowMillis() > 0)
+			{
+				reader = new CosReadCoalescer(reader, this.configuration);
+			}
+			if(this.configuration.getDiskCacheDirectory() != null)
+			{
+				reader = new CosDiskCache(
+					reader,
+					this.configuration.getDiskCacheDirectory(),
+					this.configuration.getDiskCacheSize()
+				);
+			}
+			return reader;
+		}
+		
+		private Executor listingPrefetchExecutor()
+		{
+			return this.configuration.isListingPrefetch()
+				? this.ioExecutor
+				: null;
+		}
+		
+		/**
+		 * Requests a page of a listing, hedged if configured.
+		 */
+		private ListObjectsV2Result listObjects(final ListObjectsV2Request request)
+		{
+			return this.listingHedging != null
+				? this.listingHedging.execute(cancellation -> this.listObjectsNow(request))
+				: this.listObjectsNow(request);
+		}
+		
+		private ListObjectsV2Result listObjectsNow(final ListObjectsV2Request request)
+		{
+			return this.ioScheduler.execute(CosIoClass.INTERACTIVE_READ, () -> this.s3.listObjectsV2(request));
+		}
+		
+		/**
+		 * @return the tree of the bucket if the metadata tree is used and covers the key, otherwise
+		 * <code>null</code>. The tree of a bucket is built on its first access and rebuilt once it has expired.
+		 */
+		private CosKeyTree keyTree(final String bucketName, final String keyOrPrefix)
+		{
+			if(this.keyTrees == null)
+			{
+				return null;
+			}
+			final CosKeyTree tree = CosFutures.join(this.currentKeyTree(bucketName));
+			return tree.covers(keyOrPrefix)
+				? tree
+				: null;
+		}
+		
+		/**
+		 * @return the tree of the bucket. The listing runs outside of the map, so it only holds up the callers which
+		 * need the tree of the same bucket.
+		 */
+		private CompletableFuture<CosKeyTree> currentKeyTree(final String bucketName)
+		{
+			while(true)
+			{
+				final CompletableFuture<CosKeyTree> tree = this.keyTrees.get(bucketName);
+				if(tree != null && !this.isExpired(tree))
+				{
+					return tree;
+				}
+				final CompletableFuture<CosKeyTree> newTree = new CompletableFuture<>();
+				final boolean building = tree == null
+					? this.keyTrees.putIfAbsent(bucketName, newTree) == null
+					: this.keyTrees.replace(bucketName, tree, newTree);
+				if(building)
+				{
+					this.buildKeyTree(bucketName, newTree);
+					return newTree;
+				}
+				// Another caller builds it already
+			}
+		}
+		
+		private boolean isExpired(final CompletableFuture<CosKeyTree> tree)
+		{
+			return tree.isDone()
+				&& !tree.isCompletedExceptionally()
+				&& tree.join().isExpired(this.metadataTtlMillis);
+		}
+		
+		private void buildKeyTree(final String bucketName, final CompletableFuture<CosKeyTree> tree)
+		{
+			final String rootPrefix = this.configuration.getMetadataTreePrefix();
+			try
+			{
+				tree.complete(CosKeyTree.build(
+					rootPrefix,
+					CosListing.objects(this::listObjects, this.listingPrefetchExecutor(), bucketName, rootPrefix)
+				));
+			}
+			catch(final RuntimeException | Error e)
+			{
+				// The next access tries again
+				this.keyTrees.remove(bucketName, tree);
+				tree.completeExceptionally(e);
+				throw e;
+			}
+		}
+		
+		private static String fileKey(final BlobStorePath file)
+		{
+			return CosBlobIndex.fileKey(file.container(), toBlobKeyPrefix(file));
+		}
+		
+		/**
+		 * @return the lock which guards the numbering of new blobs of the file and the replacement and removal of
+		 * its existing blobs
+		 */
+		private Lock fileLock(final BlobStorePath file)
+		{
+			return this.fileLocks.lock(fileKey(file));
+		}
+		
+		/**
+		 * Takes the locks of both files in a consistent order.
+		 *
+		 * @return the taken locks, see {@link #unlock(List)}
+		 */
+		private List<Lock> lockFiles(final BlobStorePath file, final BlobStorePath otherFile)
+		{
+			final List<Lock> locks = this.fileLocks.locks(fileKey(file), fileKey(otherFile));
+			locks.forEach(Lock::lock);
+			return locks;
+		}
+		
+		private static void unlock(final List<Lock> locks)
+		{
+			for(int i = locks.size() - 1; i >= 0; i--)
+			{
+				locks.get(i).unlock();
+			}
 		}
 		
 		@Override
 		protected Stream<S3ObjectSummary> blobs(final BlobStorePath file)
+		{
+			if(this.writeBehind == null)
+			{
+				return this.storedBlobs(file);
+			}
+			// Taken before the listing, so an upload completing in between is part of at least one of them
+			final List<S3ObjectSummary> pendingBlobs = this.writeBehind.pendingBlobs(fileKey(file));
+			if(pendingBlobs.isEmpty())
+			{
+				return this.storedBlobs(file);
+			}
+			final Map<String, S3ObjectSummary> blobs = new LinkedHashMap<>();
+			try(final Stream<S3ObjectSummary> storedBlobs = this.storedBlobs(file))
+			{
+				storedBlobs.forEach(blob -> blobs.put(blob.getKey(), blob));
+			}
+			pendingBlobs.forEach(blob -> blobs.putIfAbsent(blob.getKey(), blob));
+			return blobs.values().stream().sorted(this.blobComparator());
+		}
+		
+		/**
+		 * @return the blobs of the file which are stored in the COS, or known to the caches
+		 */
+		private Stream<S3ObjectSummary> storedBlobs(final BlobStorePath file)
+		{
+			if(this.blobIndex != null)
+			{
+				return this.blobIndex.blobs(fileKey(file), () -> this.listBlobs(file)).stream();
+			}
+			if(this.absentPaths == null && this.blobsFlights == null)
+			{
+				return this.listBlobs(file);
+			}
+			
+			final String fileKey = fileKey(file);
+			if(this.absentPaths != null && this.absentPaths.get(fileKey) != null)
+			{
+				return Stream.empty();
+			}
+			return singleFlight(this.blobsFlights, fileKey, () -> this.listAndRememberBlobs(file, fileKey)).stream();
+		}
+		
+		/**
+		 * Lists the file's blobs and remembers if there are none.
+		 */
+		private List<S3ObjectSummary> listAndRememberBlobs(final BlobStorePath file, final String fileKey)
+		{
+			// A write during the listing may not be part of it, so the absence must not be cached then
+			final long modifications = this.absentPaths != null
+				? this.absentPaths.modifications()
+				: 0;
+			// Checked after the counter, since a background upload was registered before its write counted
+			final boolean uploading = this.writeBehind != null && this.writeBehind.hasPendingBlobs(fileKey);
+			final List<S3ObjectSummary> blobs;
+			try(final Stream<S3ObjectSummary> listing = this.listBlobs(file))
+			{
+				blobs = listing.collect(Collectors.toList());
+			}
+			if(blobs.isEmpty() && !uploading && this.absentPaths != null)
+			{
+				this.absentPaths.putIfUnmodified(fileKey, Boolean.TRUE, modifications);
+			}
+			return blobs;
+		}
+		
+		/**
+		 * Lists all pages of the file's blobs. Only the final sorting has to see all blobs, the filtering already
+		 * happens while the pages arrive. The blobs which are left of an interrupted compaction are left out, see
+		 * {@link CosBlobCompactor}.
+		 */
+		private Stream<S3ObjectSummary> listBlobs(final BlobStorePath file)
+		{
+			final String markerKey = CosBlobCompactor.markerKey(toBlobKeyPrefix(file));
+			final List<S3ObjectSummary> objects = this.listBlobsAndMarker(file);
+			final List<S3ObjectSummary> blobs = this.sortedBlobs(objects, markerKey);
+			return blobs.size() == objects.size()
+				? blobs.stream()
+				: this.finishCompaction(file, blobs, markerKey).stream();
+		}
+		
+		/**
+		 * @return the blobs of the file and the marker of an interrupted compaction, if there is one
+		 */
+		private List<S3ObjectSummary> listBlobsAndMarker(final BlobStorePath file)
 		{
 			final String prefix = toBlobKeyPrefix(file);
-			final Pattern pattern = Pattern.compile(blobKeyRegex(prefix));
-			final ListObjectsV2Request request = new ListObjectsV2Request()
-				.withBucketName(file.container())
-				.withPrefix(prefix);
-			return this.s3.listObjectsV2(request)
-				.getObjectSummaries()
-				.stream()
-				.filter(obj -> pattern.matcher(obj.getKey()).matches())
-				.sorted(this.blobComparator());
+			final Pattern pattern = Pattern.compile(
+				blobKeyRegex(prefix) + "|" + Pattern.quote(CosBlobCompactor.markerKey(prefix))
+			);
+			final CosKeyTree tree = this.keyTree(file.container(), prefix);
+			if(tree != null)
+			{
+				// The tree only contains the markers which were left before it was built
+				return tree.blobs(prefix, pattern);
+			}
+			try(final Stream<S3ObjectSummary> listing = CosListing.objects(
+				this::listObjects,
+				this.listingPrefetchExecutor(),
+				file.container(),
+				prefix
+			))
+			{
+				return listing
+					.filter(obj -> pattern.matcher(obj.getKey()).matches())
+					.peek(obj -> this.directoriesExist(file.container(), obj.getKey(), false))
+					.collect(Collectors.toList());
+			}
+		}
+		
+		private List<S3ObjectSummary> sortedBlobs(final List<S3ObjectSummary> objects, final String markerKey)
+		{
+			return objects.stream()
+				.filter(obj -> !obj.getKey().equals(markerKey))
+				.sorted(this.blobComparator())
+				.collect(Collectors.toList());
+		}
+		
+		/**
+		 * Finishes a compaction which was interrupted before all of its compacted blobs were deleted.
+		 *
+		 * @return the blobs without the compacted ones
+		 */
+		private List<S3ObjectSummary> finishCompaction(
+			final BlobStorePath file,
+			final List<S3ObjectSummary> blobs,
+			final String markerKey
+		)
+		{
+			// A running compaction holds the lock while its marker exists. Waiting for it could deadlock with a
+			// writer which holds the lock and waits for this listing, so the listed blobs are only filtered then.
+			final Lock lock = this.fileLock(file);
+			if(!lock.tryLock())
+			{
+				return this.withoutCompactedBlobs(file, blobs, markerKey, false);
+			}
+			try
+			{
+				// No compaction can run now, but one may have run since the listing
+				final List<S3ObjectSummary> objects = this.listBlobsAndMarker(file);
+				final List<S3ObjectSummary> currentBlobs = this.sortedBlobs(objects, markerKey);
+				return currentBlobs.size() == objects.size()
+					? currentBlobs
+					: this.withoutCompactedBlobs(file, currentBlobs, markerKey, true);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * The marker names the merged blob, whose metadata names the compacted blobs. If the merged blob doesn't
+		 * exist, or was written by a later write after the compaction failed, no blob was compacted.
+		 *
+		 * @param delete if the compacted blobs and the marker should be deleted, which requires the file's lock
+		 * @return the blobs without the compacted ones
+		 */
+		private List<S3ObjectSummary> withoutCompactedBlobs(
+			final BlobStorePath file,
+			final List<S3ObjectSummary> blobs,
+			final String markerKey,
+			final boolean delete
+		)
+		{
+			final String bucketName = file.container();
+			final String mergedKey;
+			try
+			{
+				mergedKey = this.ioScheduler.execute(
+					CosIoClass.INTERACTIVE_READ,
+					() -> this.s3.getObjectAsString(bucketName, markerKey)
+				);
+			}
+			catch(final AmazonS3Exception e)
+			{
+				if(delete || e.getStatusCode() != HTTP_NOT_FOUND)
+				{
+					throw e;
+				}
+				// The compaction was finished since the listing
+				return this.listBlobs(file).collect(Collectors.toList());
+			}
+			final S3ObjectSummary mergedBlob = blobs.stream()
+				.filter(blob -> blob.getKey().equals(mergedKey))
+				.findAny()
+				.orElse(null);
+			final List<S3ObjectSummary> compactedBlobs = mergedBlob != null
+				? CosBlobCompactor.compactedBlobs(
+					blobs,
+					mergedBlob,
+					this.ioScheduler.execute(
+						CosIoClass.INTERACTIVE_READ,
+						() -> this.s3.getObjectMetadata(bucketName, mergedKey)
+					).getUserMetaDataOf(CosBlobCompactor.COMPACTED_BLOBS_METADATA)
+				)
+				: List.of();
+			if(delete)
+			{
+				this.deleteCompactedBlobs(file, compactedBlobs, markerKey);
+			}
+			final List<S3ObjectSummary> remainingBlobs = new ArrayList<>(blobs);
+			remainingBlobs.removeAll(compactedBlobs);
+			return remainingBlobs;
+		}
+		
+		private void deleteCompactedBlobs(
+			final BlobStorePath file,
+			final List<S3ObjectSummary> compactedBlobs,
+			final String markerKey
+		)
+		{
+			final String bucketName = file.container();
+			final List<String> compactedKeys = compactedBlobs.stream()
+				.map(S3ObjectSummary::getKey)
+				.collect(Collectors.toList());
+			final List<String> deletedKeys = this.batchDelete.delete(bucketName, compactedKeys);
+			this.reader.invalidate(bucketName, deletedKeys);
+			final CosKeyTree tree = this.keyTree(bucketName, markerKey);
+			if(tree != null)
+			{
+				deletedKeys.forEach(tree::removed);
+			}
+			if(deletedKeys.size() < compactedKeys.size())
+			{
+				throw new SdkClientException("Could not delete all compacted blobs of " + toBlobKeyPrefix(file));
+			}
+			
+			this.ioScheduler.run(CosIoClass.COMMIT_WRITE, () -> this.s3.deleteObject(bucketName, markerKey));
+			if(tree != null)
+			{
+				tree.removed(markerKey);
+			}
 		}
 		
 		@Override
@@ -132,14 +733,66 @@ public interface CosConnector extends BlobStoreConnector
 			final BlobStorePath directory
 		)
 		{
-			final ListObjectsV2Request request = new ListObjectsV2Request()
-				.withBucketName(directory.container())
-				.withPrefix(toChildKeysPrefix(directory))
-				.withDelimiter(BlobStorePath.SEPARATOR);
-			return this.s3.listObjectsV2(request)
-				.getObjectSummaries()
-				.stream()
-				.map(S3ObjectSummary::getKey);
+			final String prefix = toChildKeysPrefix(directory);
+			final CosKeyTree tree = this.keyTree(directory.container(), prefix);
+			if(tree != null)
+			{
+				return tree.childKeys(prefix).stream()
+					.filter(key -> !CosBlobCompactor.isMarkerKey(key));
+			}
+			if(this.childKeysCache == null && this.childKeysFlights == null)
+			{
+				return this.listChildKeys(directory.container(), prefix);
+			}
+			
+			final String directoryKey = directoryKey(directory.container(), prefix);
+			final List<String> cachedChildKeys = this.childKeysCache != null
+				? this.childKeysCache.get(directoryKey)
+				: null;
+			if(cachedChildKeys != null)
+			{
+				return cachedChildKeys.stream();
+			}
+			return singleFlight(
+				this.childKeysFlights,
+				directoryKey,
+				() -> this.listAndCacheChildKeys(directory.container(), prefix, directoryKey)
+			).stream();
+		}
+		
+		private List<String> listAndCacheChildKeys(
+			final String bucketName,
+			final String prefix,
+			final String directoryKey
+		)
+		{
+			// A mutation during the listing may not be part of it, so it must not be cached then
+			final long modifications = this.childKeysCache != null
+				? this.childKeysCache.modifications()
+				: 0;
+			final List<String> childKeys;
+			try(final Stream<String> listing = this.listChildKeys(bucketName, prefix))
+			{
+				childKeys = listing.collect(Collectors.toList());
+			}
+			if(this.childKeysCache != null)
+			{
+				this.childKeysCache.putIfUnmodified(directoryKey, childKeys, modifications);
+			}
+			return childKeys;
+		}
+		
+		private Stream<String> listChildKeys(final String bucketName, final String prefix)
+		{
+			return CosListing.childKeys(
+				this::listObjects,
+				this.listingPrefetchExecutor(),
+				bucketName,
+				prefix,
+				BlobStorePath.SEPARATOR
+			)
+				.filter(key -> !CosBlobCompactor.isMarkerKey(key))
+				.peek(key -> this.directoriesExist(bucketName, key, false));
 		}
 		
 		@Override
@@ -151,16 +804,42 @@ public interface CosConnector extends BlobStoreConnector
 			final long length
 		)
 		{
-			final GetObjectRequest request = new GetObjectRequest(file.container(), blob.getKey())
-				.withRange(offset, offset + length - 1);
-			final S3ObjectInputStream result = this.s3.getObject(request).getObjectContent();
-			try
+			if(this.writeBehind != null
+				&& this.writeBehind.read(fileKey(file), blob, targetBuffer, offset, length))
+			{
+				return;
+			}
+			if(this.compactor == null)
 			{
-				targetBuffer.put(result.readAllBytes());
+				if(!this.reader.read(file.container(), blob, targetBuffer, offset, length))
+				{
+					throw new SdkClientException("Blob " + blob.getKey() + " was modified or deleted");
+				}
+				return;
 			}
-			catch(final IOException e)
+			
+			// The blob may have been merged into another one since it was listed
+			final int position = targetBuffer.position();
+			CosBlobCompactor.Location location = this.compactor.locate(blob, offset);
+			while(!this.reader.read(file.container(), location.blob(), targetBuffer, location.offset(), length))
 			{
-				throw new SdkClientException(e);
+				targetBuffer.position(position);
+				final CosBlobCompactor.Location previousLocation = location;
+				// A running merge is completed under the lock, after that the new location is known
+				final Lock lock = this.fileLock(file);
+				lock.lock();
+				try
+				{
+					location = this.compactor.locate(blob, offset);
+				}
+				finally
+				{
+					lock.unlock();
+				}
+				if(location.equals(previousLocation))
+				{
+					throw new SdkClientException("Blob " + blob.getKey() + " was modified or deleted");
+				}
 			}
 		}
 		
@@ -169,8 +848,157 @@ public interface CosConnector extends BlobStoreConnector
 			final BlobStorePath directory
 		)
 		{
-			this.s3.doesObjectExist(directory.container(), toContainerKey(directory));
-			return true;
+			final String prefix = toChildKeysPrefix(directory);
+			final CosKeyTree tree = this.keyTree(directory.container(), prefix);
+			if(tree != null)
+			{
+				return tree.directoryExists(prefix);
+			}
+			final String directoryKey = directoryKey(directory.container(), prefix);
+			if(prefix.isEmpty()
+				|| this.knownDirectories != null && this.knownDirectories.get(directoryKey) != null)
+			{
+				return true;
+			}
+			if(this.absentPaths != null && this.absentPaths.get(directoryKey) != null)
+			{
+				return false;
+			}
+			return singleFlight(
+				this.directoryExistsFlights,
+				directoryKey,
+				() -> this.checkDirectoryExists(directory.container(), prefix, directoryKey)
+			);
+		}
+		
+		private boolean checkDirectoryExists(final String bucketName, final String prefix, final String directoryKey)
+		{
+			final long modifications = this.absentPaths != null
+				? this.absentPaths.modifications()
+				: 0;
+			// A directory exists if there is a marker or any other key with its prefix
+			final ListObjectsV2Request request = new ListObjectsV2Request()
+				.withBucketName(bucketName)
+				.withPrefix(prefix)
+				.withMaxKeys(1);
+			final boolean exists = this.listObjects(request).getKeyCount() > 0;
+			if(exists)
+			{
+				this.directoriesExist(bucketName, prefix, false);
+			}
+			else if(this.absentPaths != null)
+			{
+				this.absentPaths.putIfUnmodified(directoryKey, Boolean.TRUE, modifications);
+			}
+			return exists;
+		}
+		
+		private static String directoryKey(final String bucketName, final String directoryPrefix)
+		{
+			return bucketName + BlobStorePath.SEPARATOR + directoryPrefix;
+		}
+		
+		/**
+		 * Executes the request only once for concurrent callers of the key, if single-flight requests are enabled.
+		 */
+		private static <T> T singleFlight(
+			final CosSingleFlight<T> flights,
+			final String key,
+			final Supplier<T> request
+		)
+		{
+			return flights != null
+				? flights.execute(key, request)
+				: request.get();
+		}
+		
+		/**
+		 * Remembers that all parent directories of the key exist. If the key is a directory prefix itself, it is
+		 * included.
+		 *
+		 * @param created if the key was just created by the connector. The cached child keys of the parent of each
+		 *                directory which was not known yet are dropped then, since they can't contain it.
+		 *                Directories which are known now are no longer absent in any case.
+		 */
+		private void directoriesExist(final String bucketName, final String key, final boolean created)
+		{
+			if(created)
+			{
+				this.directoriesCreated(bucketName, key);
+			}
+			if(this.knownDirectories == null)
+			{
+				return;
+			}
+			int end = key.lastIndexOf(BlobStorePath.SEPARATOR);
+			while(end > 0)
+			{
+				final String directoryPrefix = key.substring(0, end + 1);
+				final String directoryKey = directoryKey(bucketName, directoryPrefix);
+				if(this.knownDirectories.get(directoryKey) != null)
+				{
+					// The parents were added together with this directory
+					return;
+				}
+				this.knownDirectories.put(directoryKey, Boolean.TRUE);
+				this.noLongerAbsent(directoryKey);
+				if(created)
+				{
+					this.childKeysChanged(bucketName, CosKeyTree.parentPrefix(directoryPrefix));
+				}
+				end = key.lastIndexOf(BlobStorePath.SEPARATOR, end - 1);
+			}
+		}
+		
+		/**
+		 * Lets later existence checks of all parent directories of the key see it, even if a check is still running.
+		 */
+		private void directoriesCreated(final String bucketName, final String key)
+		{
+			if(this.directoryExistsFlights == null)
+			{
+				return;
+			}
+			int end = key.lastIndexOf(BlobStorePath.SEPARATOR);
+			while(end > 0)
+			{
+				this.directoryExistsFlights.forget(directoryKey(bucketName, key.substring(0, end + 1)));
+				end = key.lastIndexOf(BlobStorePath.SEPARATOR, end - 1);
+			}
+		}
+		
+		private void noLongerAbsent(final String pathKey)
+		{
+			if(this.absentPaths != null)
+			{
+				this.absentPaths.remove(pathKey);
+			}
+		}
+		
+		/**
+		 * Drops the cached child keys of the directory after a key was added or removed below it.
+		 */
+		private void childKeysChanged(final String bucketName, final String directoryPrefix)
+		{
+			if(this.childKeysCache != null)
+			{
+				this.childKeysCache.remove(directoryKey(bucketName, directoryPrefix));
+			}
+			if(this.childKeysFlights != null)
+			{
+				this.childKeysFlights.forget(directoryKey(bucketName, directoryPrefix));
+			}
+		}
+		
+		/**
+		 * Lets later listings of the file's blobs see a change, even if a listing is still running.
+		 */
+		private void blobsChanged(final BlobStorePath file)
+		{
+			if(this.blobsFlights != null)
+			{
+				this.blobsFlights.forget(fileKey(file));
+			}
 		}
 		
 		@Override
@@ -178,7 +1006,16 @@ public interface CosConnector extends BlobStoreConnector
 			final BlobStorePath directory
 		)
 		{
-			this.s3.putObject(directory.container(), toContainerKey(directory), "");
+			this.ioScheduler.execute(
+				CosIoClass.COMMIT_WRITE,
+				() -> this.s3.putObject(directory.container(), toContainerKey(directory), "")
+			);
+			this.directoriesExist(directory.container(), toChildKeysPrefix(directory), true);
+			final CosKeyTree tree = this.keyTree(directory.container(), toChildKeysPrefix(directory));
+			if(tree != null)
+			{
+				tree.directoryCreated(toChildKeysPrefix(directory));
+			}
 			return true;
 		}
 		
@@ -188,13 +1025,25 @@ public interface CosConnector extends BlobStoreConnector
 			final List<? extends S3ObjectSummary> blobs
 		)
 		{
-			final String[] objects = blobs.stream()
-				.map(S3ObjectSummary::getKey)
-				.toArray(String[]::new);
-			final DeleteObjectsRequest request = new DeleteObjectsRequest(file.container())
-				.withKeys(objects);
-			final DeleteObjectsResult response = this.s3.deleteObjects(request);
-			return response.getDeletedObjects().size() == blobs.size();
+			// A pending upload must not recreate a deleted blob
+			this.flushPendingWrites(file);
+			final Lock lock = this.fileLock(file);
+			lock.lock();
+			try
+			{
+				final List<String> deletedKeys = this.batchDelete.delete(
+					file.container(),
+					blobs.stream()
+						.map(S3ObjectSummary::getKey)
+						.collect(Collectors.toList())
+				);
+				this.blobsDeleted(file, deletedKeys);
+				return deletedKeys.size() == blobs.size();
+			}
+			finally
+			{
+				lock.unlock();
+			}
 		}
 		
 		@Override
@@ -203,35 +1052,595 @@ public interface CosConnector extends BlobStoreConnector
 			final Iterable<? extends ByteBuffer> sourceBuffers
 		)
 		{
-			final long nextBlobNumber = this.nextBlobNumber(file);
 			final long totalSize = this.totalSize(sourceBuffers);
-			
-			try(final BufferedInputStream inputStream = new BufferedInputStream(
-				ByteBufferInputStream.New(sourceBuffers)
-			))
+			if(this.groupCommit != null && this.groupCommit.accepts(totalSize))
 			{
-				final int bufferSum = StreamSupport.stream(sourceBuffers.spliterator(), false)
-					.mapToInt(Buffer::limit)
-					.sum();
-				
-				final ObjectMetadata objectMetadata = new ObjectMetadata();
-				objectMetadata.setContentLength(bufferSum);
-				final PutObjectRequest putObjectRequest = new PutObjectRequest(
-					file.container(),
-					toBlobKey(file, nextBlobNumber),
-					inputStream,
-					objectMetadata
+				this.groupCommit.write(
+					fileKey(file),
+					sourceBuffers,
+					totalSize,
+					(buffers, size) -> this.writeBlob(file, buffers, size)
 				);
-				putObjectRequest.getRequestClientOptions().setReadLimit(READ_LIMIT);
-				
-				this.s3.putObject(putObjectRequest);
+				return totalSize;
 			}
-			catch(final IOException e)
+			this.writeBlob(file, sourceBuffers, totalSize);
+			return totalSize;
+		}
+		
+		/**
+		 * Writes the buffers as the next blob of the file. The number is taken and the blob is written or queued
+		 * under the file's lock, so a large write can't take the same number as a concurrent group commit.
+		 */
+		private void writeBlob(
+			final BlobStorePath file,
+			final Iterable<? extends ByteBuffer> sourceBuffers,
+			final long totalSize
+		)
+		{
+			final Lock lock = this.fileLock(file);
+			lock.lock();
+			try
+			{
+				this.appendBlob(file, sourceBuffers, totalSize);
+			}
+			finally
 			{
-				throw new IORuntimeException(e);
+				lock.unlock();
 			}
+		}
+		
+		private void appendBlob(
+			final BlobStorePath file,
+			final Iterable<? extends ByteBuffer> sourceBuffers,
+			final long totalSize
+		)
+		{
+			final String key = toBlobKey(file, this.nextBlobNumber(file));
 			
-			return totalSize;
+			if(this.writeBehind != null)
+			{
+				final boolean commitFile = this.isCommitFile(file);
+				if(this.writeBehind.accepts(totalSize))
+				{
+					final S3ObjectSummary blob = CosBlobIndex.summary(file.container(), key, totalSize, null);
+					this.writeBehind.write(fileKey(file), blob, sourceBuffers, commitFile);
+					this.blobWritten(file, blob);
+					return;
+				}
+				// Keeps the order of the file's blobs, and of all files before a commit
+				if(commitFile)
+				{
+					this.writeBehind.flush();
+				}
+				else
+				{
+					this.writeBehind.flush(fileKey(file));
+				}
+			}
+			
+			final String eTag = this.upload(file.container(), key, sourceBuffers, totalSize);
+			// Both uploads only read from views, consume the sources like a channel write does
+			sourceBuffers.forEach(buffer -> buffer.position(buffer.limit()));
+			
+			this.blobWritten(file, CosBlobIndex.summary(file.container(), key, totalSize, eTag));
+		}
+		
+		/**
+		 * @return if writes to the file complete a commit of the storage, see
+		 * {@link CosConnectorConfiguration#withWriteBehindCommitFileSuffix(String)}
+		 */
+		private boolean isCommitFile(final BlobStorePath file)
+		{
+			final String suffix = this.configuration.getWriteBehindCommitFileSuffix();
+			return !suffix.isEmpty() && file.fullQualifiedName().endsWith(suffix);
+		}
+		
+		/**
+		 * Replaces the cached summary of a blob, which was written in the background, by the one with its ETag.
+		 * Blobs which were removed in the meantime are not added again.
+		 */
+		private void blobUploaded(final String fileKey, final S3ObjectSummary blob)
+		{
+			if(this.blobIndex != null)
+			{
+				this.blobIndex.uploaded(fileKey, blob);
+			}
+			final CosKeyTree tree = this.keyTree(blob.getBucketName(), blob.getKey());
+			if(tree != null)
+			{
+				tree.updated(blob);
+			}
+		}
+		
+		/**
+		 * @return the ETag of the created object
+		 */
+		private String upload(
+			final String bucketName,
+			final String key,
+			final Iterable<? extends ByteBuffer> sourceBuffers,
+			final long totalSize
+		)
+		{
+			return totalSize >= this.configuration.getMultipartUploadThreshold()
+				? this.multipartUpload.upload(bucketName, key, sourceBuffers, totalSize)
+				: this.putObject(bucketName, key, sourceBuffers);
+		}
+		
+		/**
+		 * Waits for the pending background uploads of the file, so it can be changed in the COS directly.
+		 */
+		private void flushPendingWrites(final BlobStorePath file)
+		{
+			if(this.writeBehind != null)
+			{
+				this.writeBehind.flush(fileKey(file));
+			}
+		}
+		
+		/**
+		 * Uploads the buffers with a single request. The body is read directly from the buffers and can be reset
+		 * for retries without any additional copy, see {@link CosByteBufferInputStream}.
+		 *
+		 * @return the ETag of the created object
+		 */
+		private String putObject(
+			final String bucketName,
+			final String key,
+			final Iterable<? extends ByteBuffer> sourceBuffers
+		)
+		{
+			final CosByteBufferInputStream inputStream = CosByteBufferInputStream.New(sourceBuffers);
+			final ObjectMetadata objectMetadata = new ObjectMetadata();
+			objectMetadata.setContentLength(inputStream.length());
+			final PutObjectRequest putObjectRequest = new PutObjectRequest(
+				bucketName,
+				key,
+				inputStream,
+				objectMetadata
+			);
+			putObjectRequest.getRequestClientOptions().setReadLimit(READ_LIMIT);
+			
+			return this.ioScheduler.execute(CosIoClass.COMMIT_WRITE, () -> this.s3.putObject(putObjectRequest))
+				.getETag();
+		}
+		
+		/**
+		 * Copies the range inside the COS, the data is never transferred through the client. Every source blob which
+		 * overlaps the range becomes a new blob of the target file.
+		 */
+		@Override
+		protected long internalCopyFile(
+			final BlobStorePath sourceFile,
+			final BlobStorePath targetFile,
+			final long offset,
+			final long length
+		)
+		{
+			// Copies of pending blobs would fail and the target's blobs have to stay in order
+			this.flushPendingWrites(sourceFile);
+			this.flushPendingWrites(targetFile);
+			// The source blobs must not be replaced while they are copied, and the target's numbers not be taken
+			final List<Lock> locks = this.lockFiles(sourceFile, targetFile);
+			try
+			{
+				return this.copyRange(sourceFile, targetFile, offset, length);
+			}
+			finally
+			{
+				unlock(locks);
+			}
+		}
+		
+		private long copyRange(
+			final BlobStorePath sourceFile,
+			final BlobStorePath targetFile,
+			final long offset,
+			final long length
+		)
+		{
+			final List<? extends S3ObjectSummary> sourceBlobs = this.blobs(sourceFile).collect(Collectors.toList());
+			final long sourceSize = sourceBlobs.stream().mapToLong(S3ObjectSummary::getSize).sum();
+			final long end = length < 0
+				? sourceSize
+				: Math.min(offset + length, sourceSize);
+			
+			final List<CompletableFuture<S3ObjectSummary>> copies = new ArrayList<>();
+			long nextBlobNumber = this.nextBlobNumber(targetFile);
+			long blobStart = 0;
+			try
+			{
+				for(final S3ObjectSummary sourceBlob : sourceBlobs)
+				{
+					final long blobEnd = blobStart + sourceBlob.getSize();
+					final long copyStart = Math.max(offset, blobStart);
+					final long copyEnd = Math.min(end, blobEnd);
+					if(copyStart < copyEnd)
+					{
+						copies.add(this.copyBlob(
+							sourceBlob,
+							copyStart - blobStart,
+							copyEnd - copyStart,
+							targetFile,
+							toBlobKey(targetFile, nextBlobNumber++)
+						));
+					}
+					blobStart = blobEnd;
+				}
+				CosFutures.join(CompletableFuture.allOf(copies.toArray(CompletableFuture[]::new)));
+			}
+			catch(final RuntimeException e)
+			{
+				this.discardCopies(targetFile, copies, e);
+				throw e;
+			}
+			
+			copies.forEach(copy -> this.blobWritten(targetFile, copy.join()));
+			return Math.max(0, end - offset);
+		}
+		
+		/**
+		 * Single copy requests are executed concurrently on the IO threads. Multipart copies run on the calling
+		 * thread, because their parts are already distributed to the IO threads.
+		 */
+		private CompletableFuture<S3ObjectSummary> copyBlob(
+			final S3ObjectSummary sourceBlob,
+			final long offset,
+			final long length,
+			final BlobStorePath targetFile,
+			final String targetKey
+		)
+		{
+			final Supplier<S3ObjectSummary> copy = () -> CosBlobIndex.summary(
+				targetFile.container(),
+				targetKey,
+				length,
+				this.serverSideCopy.copy(
+					sourceBlob.getBucketName(),
+					sourceBlob.getKey(),
+					sourceBlob.getSize(),
+					offset,
+					length,
+					targetFile.container(),
+					targetKey
+				)
+			);
+			return CosServerSideCopy.isSingleCopy(sourceBlob.getSize(), offset, length)
+				? CompletableFuture.supplyAsync(copy, this.ioExecutor)
+				: CompletableFuture.completedFuture(copy.get());
+		}
+		
+		/**
+		 * Deletes the copied blobs of a failed copy, so the target file doesn't end up with gaps. Copies which are
+		 * still running can't be stopped, so their blobs are deleted after they have been created.
+		 */
+		private void discardCopies(
+			final BlobStorePath targetFile,
+			final List<CompletableFuture<S3ObjectSummary>> copies,
+			final RuntimeException failure
+		)
+		{
+			CompletableFuture.allOf(copies.toArray(CompletableFuture[]::new))
+				.handle((result, copyFailure) -> null)
+				.join();
+			final List<String> copiedKeys = copies.stream()
+				.filter(copy -> !copy.isCompletedExceptionally())
+				.map(copy -> copy.join().getKey())
+				.collect(Collectors.toList());
+			try
+			{
+				final List<String> deletedKeys = this.batchDelete.delete(targetFile.container(), copiedKeys);
+				if(deletedKeys.size() < copiedKeys.size())
+				{
+					failure.addSuppressed(new SdkClientException(
+						"Could not delete all copied blobs of " + toBlobKeyPrefix(targetFile)
+					));
+				}
+			}
+			catch(final RuntimeException deleteFailure)
+			{
+				failure.addSuppressed(deleteFailure);
+			}
+		}
+		
+		/**
+		 * Moves the file by copying all of its blobs inside the COS and deleting the source blobs afterwards. A
+		 * failed copy is rolled back, so the source stays the only complete file.
+		 */
+		@Override
+		protected void internalMoveFile(
+			final BlobStorePath sourceFile,
+			final BlobStorePath targetFile
+		)
+		{
+			// Both locks are taken before the copy does it, so they are taken in order
+			final List<Lock> locks = this.lockFiles(sourceFile, targetFile);
+			try
+			{
+				final List<? extends S3ObjectSummary> sourceBlobs = this.blobs(sourceFile)
+					.collect(Collectors.toList());
+				this.internalCopyFile(sourceFile, targetFile, 0, -1);
+				if(!this.internalDeleteBlobs(sourceFile, sourceBlobs))
+				{
+					// The target is complete, but the source can't be restored anymore
+					throw new SdkClientException(
+						"Could not delete all moved blobs of " + toBlobKeyPrefix(sourceFile)
+					);
+				}
+			}
+			finally
+			{
+				unlock(locks);
+			}
+		}
+		
+		/**
+		 * Truncates the file inside the COS. The blobs after the new end are deleted with batch requests, then the
+		 * blob containing the new end is replaced by a shortened copy. If not all blobs after the new end can be
+		 * deleted, the truncation fails before the last blob is touched.
+		 */
+		@Override
+		protected void internalTruncateFile(
+			final BlobStorePath file,
+			final long newLength
+		)
+		{
+			this.flushPendingWrites(file);
+			final Lock lock = this.fileLock(file);
+			lock.lock();
+			try
+			{
+				this.truncateBlobs(file, newLength);
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		
+		private void truncateBlobs(
+			final BlobStorePath file,
+			final long newLength
+		)
+		{
+			final List<? extends S3ObjectSummary> blobs = this.blobs(file).collect(Collectors.toList());
+			final List<S3ObjectSummary> trailingBlobs = new ArrayList<>();
+			S3ObjectSummary lastBlob = null;
+			long lastBlobLength = 0;
+			long blobStart = 0;
+			for(final S3ObjectSummary blob : blobs)
+			{
+				final long blobEnd = blobStart + blob.getSize();
+				if(blobStart >= newLength)
+				{
+					trailingBlobs.add(blob);
+				}
+				else if(blobEnd > newLength)
+				{
+					lastBlob = blob;
+					lastBlobLength = newLength - blobStart;
+				}
+				blobStart = blobEnd;
+			}
+			
+			// Keys which a batch couldn't delete were already retried one by one
+			if(!trailingBlobs.isEmpty() && !this.internalDeleteBlobs(file, trailingBlobs))
+			{
+				throw new SdkClientException("Could not delete all truncated blobs of " + file.fullQualifiedName());
+			}
+			if(lastBlob != null)
+			{
+				this.shortenLastBlob(file, lastBlob, lastBlobLength);
+			}
+		}
+		
+		/**
+		 * Replaces the last blob of the file by a shortened copy with the next number. If the original blob can't
+		 * be deleted, the copy is deleted again and the file keeps its previous content.
+		 */
+		private void shortenLastBlob(
+			final BlobStorePath file,
+			final S3ObjectSummary blob,
+			final long length
+		)
+		{
+			final String shortenedKey = toBlobKey(file, this.nextBlobNumber(file));
+			final boolean rewrite = length < Math.min(this.configuration.getMultipartCopyPartSize(), Integer.MAX_VALUE);
+			final S3ObjectSummary shortenedBlob = rewrite
+				? this.rewriteBlob(file, blob, length, shortenedKey)
+				: CosFutures.join(this.copyBlob(blob, 0, length, file, shortenedKey));
+			this.blobWritten(file, shortenedBlob);
+			
+			RuntimeException failure;
+			try
+			{
+				if(this.internalDeleteBlobs(file, List.of(blob)))
+				{
+					return;
+				}
+				failure = new SdkClientException("Could not delete truncated blob " + blob.getKey());
+			}
+			catch(final RuntimeException e)
+			{
+				failure = e;
+			}
+			try
+			{
+				if(!this.internalDeleteBlobs(file, List.of(shortenedBlob)))
+				{
+					failure.addSuppressed(new SdkClientException("Could not delete shortened blob " + shortenedKey));
+				}
+			}
+			catch(final RuntimeException deleteFailure)
+			{
+				failure.addSuppressed(deleteFailure);
+			}
+			throw failure;
+		}
+		
+		/**
+		 * Reads the start of the blob and uploads it as a new blob. A copy of a range always needs a multipart copy
+		 * with three requests, which doesn't pay off for less than a single part.
+		 */
+		private S3ObjectSummary rewriteBlob(
+			final BlobStorePath file,
+			final S3ObjectSummary blob,
+			final long length,
+			final String targetKey
+		)
+		{
+			final ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(length));
+			this.internalReadBlobData(file, blob, data, 0, length);
+			data.flip();
+			final String eTag = this.upload(file.container(), targetKey, List.of(data), length);
+			return CosBlobIndex.summary(file.container(), targetKey, length, eTag);
+		}
+		
+		/**
+		 * Updates the cached metadata after a new blob was written.
+		 */
+		private void blobWritten(final BlobStorePath file, final S3ObjectSummary blob)
+		{
+			this.directoriesExist(file.container(), blob.getKey(), true);
+			this.noLongerAbsent(fileKey(file));
+			this.blobsChanged(file);
+			this.childKeysChanged(file.container(), CosKeyTree.parentPrefix(blob.getKey()));
+			if(this.blobIndex != null)
+			{
+				this.blobIndex.added(fileKey(file), blob);
+			}
+			final CosKeyTree tree = this.keyTree(file.container(), blob.getKey());
+			if(tree != null)
+			{
+				tree.add(blob);
+			}
+			if(this.compactor != null)
+			{
+				this.compactor.fileWritten(fileKey(file), file);
+			}
+		}
+		
+		/**
+		 * Updates the cached metadata after blobs were deleted.
+		 */
+		private void blobsDeleted(final BlobStorePath file, final List<String> deletedKeys)
+		{
+			this.reader.invalidate(file.container(), deletedKeys);
+			this.blobsChanged(file);
+			this.childKeysChanged(file.container(), CosKeyTree.parentPrefix(toBlobKeyPrefix(file)));
+			if(this.blobIndex != null)
+			{
+				this.blobIndex.removed(fileKey(file), deletedKeys);
+			}
+			final CosKeyTree tree = this.keyTree(file.container(), toBlobKeyPrefix(file));
+			if(tree != null)
+			{
+				deletedKeys.forEach(tree::removed);
+			}
+		}
+		
+		@Override
+		public CosCacheStatistics memoryCacheStatistics()
+		{
+			return this.memoryCache != null
+				? this.memoryCache.statistics()
+				: null;
+		}
+		
+		@Override
+		public void flush()
+		{
+			if(this.writeBehind != null)
+			{
+				this.writeBehind.flush();
+			}
+		}
+		
+		@Override
+		public void close()
+		{
+			try
+			{
+				if(this.writeBehind != null)
+				{
+					this.writeBehind.close();
+				}
+			}
+			finally
+			{
+				super.close();
+				if(this.compactor != null)
+				{
+					this.compactor.close();
+				}
+				if(this.readAhead != null)
+				{
+					this.readAhead.close();
+				}
+				this.ioExecutor.shutdownNow();
+				if(this.hedgingExecutor != null)
+				{
+					this.hedgingExecutor.shutdownNow();
+				}
+			}
+		}
+		
+		/**
+		 * Gives the compactor access to the blobs and metadata of the files.
+		 */
+		private final class CompactedFiles implements CosBlobCompactor.Files
+		{
+			@Override
+			public List<S3ObjectSummary> blobs(final BlobStorePath file)
+			{
+				return Default.this.blobs(file).collect(Collectors.toList());
+			}
+			
+			@Override
+			public boolean hasPendingWrites(final BlobStorePath file)
+			{
+				return Default.this.writeBehind != null && Default.this.writeBehind.hasPendingBlobs(fileKey(file));
+			}
+			
+			@Override
+			public String nextBlobKey(final BlobStorePath file)
+			{
+				return toBlobKey(file, Default.this.nextBlobNumber(file));
+			}
+			
+			@Override
+			public Lock lock(final BlobStorePath file)
+			{
+				return Default.this.fileLock(file);
+			}
+			
+			@Override
+			public void replaced(
+				final BlobStorePath file,
+				final List<S3ObjectSummary> compactedBlobs,
+				final S3ObjectSummary mergedBlob
+			)
+			{
+				final List<String> compactedKeys = compactedBlobs.stream()
+					.map(S3ObjectSummary::getKey)
+					.collect(Collectors.toList());
+				Default.this.blobIndex.replaced(fileKey(file), compactedKeys, mergedBlob);
+				final CosKeyTree tree = Default.this.keyTree(file.container(), mergedBlob.getKey());
+				if(tree != null)
+				{
+					compactedKeys.forEach(tree::removed);
+					tree.add(mergedBlob);
+				}
+				Default.this.childKeysChanged(file.container(), CosKeyTree.parentPrefix(mergedBlob.getKey()));
+			}
+			
+			@Override
+			public List<String> delete(final String bucketName, final List<String> keys)
+			{
+				final List<String> deletedKeys = Default.this.batchDelete.delete(bucketName, keys);
+				Default.this.reader.invalidate(bucketName, deletedKeys);
+				return deletedKeys;
+			}
 		}
 	}
 }
@@ -0,0 +1,1089 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import static org.eclipse.serializer.util.X.notNull;
+
+import java.nio.file.Path;
+
+/**
+ * Holds the tuning options of a {@link CosConnector}.
+ * <p>
+ * All options have sensible defaults, so a new instance can be used as it is.
+ * </p>
+ */
+public class CosConnectorConfiguration
+{
+	public static final int DEFAULT_IO_THREADS = 8;
+	public static final boolean DEFAULT_LISTING_PREFETCH = true;
+	public static final CosMetadataCacheMode DEFAULT_METADATA_CACHE_MODE = CosMetadataCacheMode.AUTHORITATIVE;
+	public static final long DEFAULT_METADATA_CACHE_TTL_MILLIS = 60_000;
+	public static final int DEFAULT_METADATA_CACHE_MAX_ENTRIES = 100_000;
+	public static final long DEFAULT_NEGATIVE_CACHE_TTL_MILLIS = 10_000;
+	public static final boolean DEFAULT_BLOB_INDEX = true;
+	public static final boolean DEFAULT_METADATA_TREE = false;
+	public static final String DEFAULT_METADATA_TREE_PREFIX = "";
+	public static final boolean DEFAULT_PARALLEL_READS = false;
+	public static final long DEFAULT_PARALLEL_READ_CHUNK_SIZE = 8L * 1024 * 1024;
+	public static final long DEFAULT_MULTIPART_UPLOAD_THRESHOLD = 64L * 1024 * 1024;
+	public static final long DEFAULT_MULTIPART_UPLOAD_PART_SIZE = 16L * 1024 * 1024;
+	public static final int DEFAULT_MULTIPART_UPLOAD_PART_RETRIES = 3;
+	public static final int DEFAULT_DELETE_RETRIES = 3;
+	public static final long DEFAULT_MULTIPART_COPY_PART_SIZE = 64L * 1024 * 1024;
+	public static final boolean DEFAULT_COMPACTION = false;
+	public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 60_000;
+	public static final long DEFAULT_COMPACTION_SMALL_BLOB_SIZE = 16L * 1024 * 1024;
+	public static final int DEFAULT_COMPACTION_MIN_BLOBS = 8;
+	public static final long DEFAULT_COMPACTION_MAX_BLOB_SIZE = 256L * 1024 * 1024;
+	public static final int DEFAULT_COMPACTION_REQUESTS_PER_SECOND = 10;
+	public static final long DEFAULT_DISK_CACHE_SIZE = 1024L * 1024 * 1024;
+	public static final long DEFAULT_MEMORY_CACHE_SIZE = 0;
+	public static final int DEFAULT_MEMORY_CACHE_BLOCK_SIZE = 1024 * 1024;
+	public static final boolean DEFAULT_READ_AHEAD = false;
+	public static final long DEFAULT_READ_AHEAD_CHUNK_SIZE = 4L * 1024 * 1024;
+	public static final long DEFAULT_READ_AHEAD_MAX_WINDOW = 32L * 1024 * 1024;
+	public static final long DEFAULT_READ_AHEAD_BUFFER_SIZE = 128L * 1024 * 1024;
+	public static final boolean DEFAULT_WRITE_BEHIND = false;
+	public static final long DEFAULT_WRITE_BEHIND_BUFFER_SIZE = 64L * 1024 * 1024;
+	public static final long DEFAULT_WRITE_BEHIND_SPOOL_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final String DEFAULT_WRITE_BEHIND_COMMIT_FILE_SUFFIX = ".sft";
+	public static final long DEFAULT_GROUP_COMMIT_WINDOW_MILLIS = 0;
+	public static final long DEFAULT_GROUP_COMMIT_MAX_BYTES = 1024L * 1024;
+	public static final long DEFAULT_READ_COALESCING_WINDOW_MILLIS = 0;
+	public static final long DEFAULT_READ_COALESCING_MAX_GAP = 64L * 1024;
+	public static final long DEFAULT_READ_COALESCING_MAX_SIZE = 8L * 1024 * 1024;
+	public static final boolean DEFAULT_SINGLE_FLIGHT = true;
+	public static final boolean DEFAULT_HEDGING = false;
+	public static final double DEFAULT_HEDGING_PERCENTILE = 95;
+	public static final int DEFAULT_HEDGING_BUDGET_PERCENT = 5;
+	public static final long DEFAULT_HEDGING_MAX_RANGE_SIZE = 1024L * 1024;
+	public static final boolean DEFAULT_IO_SCHEDULER = false;
+	/**
+	 * The default connection pool size of the client, see {@code ClientConfiguration.DEFAULT_MAX_CONNECTIONS}.
+	 */
+	public static final int DEFAULT_IO_SCHEDULER_CONNECTIONS = 50;
+	public static final int DEFAULT_IO_SCHEDULER_INTERACTIVE_READS = 50;
+	public static final int DEFAULT_IO_SCHEDULER_COMMIT_WRITES = 32;
+	public static final int DEFAULT_IO_SCHEDULER_BACKGROUND_MAINTENANCE = 4;
+	
+	private int ioThreads = DEFAULT_IO_THREADS;
+	private boolean listingPrefetch = DEFAULT_LISTING_PREFETCH;
+	private CosMetadataCacheMode metadataCacheMode = DEFAULT_METADATA_CACHE_MODE;
+	private long metadataCacheTtlMillis = DEFAULT_METADATA_CACHE_TTL_MILLIS;
+	private int metadataCacheMaxEntries = DEFAULT_METADATA_CACHE_MAX_ENTRIES;
+	private long negativeCacheTtlMillis = DEFAULT_NEGATIVE_CACHE_TTL_MILLIS;
+	private boolean blobIndex = DEFAULT_BLOB_INDEX;
+	private boolean metadataTree = DEFAULT_METADATA_TREE;
+	private String metadataTreePrefix = DEFAULT_METADATA_TREE_PREFIX;
+	private boolean parallelReads = DEFAULT_PARALLEL_READS;
+	private long parallelReadChunkSize = DEFAULT_PARALLEL_READ_CHUNK_SIZE;
+	private long multipartUploadThreshold = DEFAULT_MULTIPART_UPLOAD_THRESHOLD;
+	private long multipartUploadPartSize = DEFAULT_MULTIPART_UPLOAD_PART_SIZE;
+	private int multipartUploadPartRetries = DEFAULT_MULTIPART_UPLOAD_PART_RETRIES;
+	private int deleteRetries = DEFAULT_DELETE_RETRIES;
+	private long multipartCopyPartSize = DEFAULT_MULTIPART_COPY_PART_SIZE;
+	private boolean compaction = DEFAULT_COMPACTION;
+	private long compactionIntervalMillis = DEFAULT_COMPACTION_INTERVAL_MILLIS;
+	private long compactionSmallBlobSize = DEFAULT_COMPACTION_SMALL_BLOB_SIZE;
+	private int compactionMinBlobs = DEFAULT_COMPACTION_MIN_BLOBS;
+	private long compactionMaxBlobSize = DEFAULT_COMPACTION_MAX_BLOB_SIZE;
+	private int compactionRequestsPerSecond = DEFAULT_COMPACTION_REQUESTS_PER_SECOND;
+	private Path diskCacheDirectory;
+	private long diskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+	private long memoryCacheSize = DEFAULT_MEMORY_CACHE_SIZE;
+	private int memoryCacheBlockSize = DEFAULT_MEMORY_CACHE_BLOCK_SIZE;
+	private boolean readAhead = DEFAULT_READ_AHEAD;
+	private long readAheadChunkSize = DEFAULT_READ_AHEAD_CHUNK_SIZE;
+	private long readAheadMaxWindow = DEFAULT_READ_AHEAD_MAX_WINDOW;
+	private long readAheadBufferSize = DEFAULT_READ_AHEAD_BUFFER_SIZE;
+	private boolean writeBehind = DEFAULT_WRITE_BEHIND;
+	private long writeBehindBufferSize = DEFAULT_WRITE_BEHIND_BUFFER_SIZE;
+	private Path writeBehindSpoolDirectory;
+	private long writeBehindSpoolSegmentSize = DEFAULT_WRITE_BEHIND_SPOOL_SEGMENT_SIZE;
+	private String writeBehindCommitFileSuffix = DEFAULT_WRITE_BEHIND_COMMIT_FILE_SUFFIX;
+	private long groupCommitWindowMillis = DEFAULT_GROUP_COMMIT_WINDOW_MILLIS;
+	private long groupCommitMaxBytes = DEFAULT_GROUP_COMMIT_MAX_BYTES;
+	private long readCoalescingWindowMillis = DEFAULT_READ_COALESCING_WINDOW_MILLIS;
+	private long readCoalescingMaxGap = DEFAULT_READ_COALESCING_MAX_GAP;
+	private long readCoalescingMaxSize = DEFAULT_READ_COALESCING_MAX_SIZE;
+	private boolean singleFlight = DEFAULT_SINGLE_FLIGHT;
+	private boolean hedging = DEFAULT_HEDGING;
+	private double hedgingPercentile = DEFAULT_HEDGING_PERCENTILE;
+	private int hedgingBudgetPercent = DEFAULT_HEDGING_BUDGET_PERCENT;
+	private long hedgingMaxRangeSize = DEFAULT_HEDGING_MAX_RANGE_SIZE;
+	private boolean ioScheduler = DEFAULT_IO_SCHEDULER;
+	private int ioSchedulerConnections = DEFAULT_IO_SCHEDULER_CONNECTIONS;
+	private int ioSchedulerInteractiveReads = DEFAULT_IO_SCHEDULER_INTERACTIVE_READS;
+	private int ioSchedulerCommitWrites = DEFAULT_IO_SCHEDULER_COMMIT_WRITES;
+	private int ioSchedulerBackgroundMaintenance = DEFAULT_IO_SCHEDULER_BACKGROUND_MAINTENANCE;
+	
+	/**
+	 * @param ioThreads maximum number of background threads the connector uses for requests to the COS.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoThreads(final int ioThreads)
+	{
+		if(ioThreads < 1)
+		{
+			throw new IllegalArgumentException("ioThreads must be at least 1");
+		}
+		this.ioThreads = ioThreads;
+		return this;
+	}
+	
+	/**
+	 * @param listingPrefetch if the next page of a listing should be fetched in the background while the current
+	 *                        page is consumed.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withListingPrefetch(final boolean listingPrefetch)
+	{
+		this.listingPrefetch = listingPrefetch;
+		return this;
+	}
+	
+	/**
+	 * @param metadataCacheMode how a {@link CosConnector#Caching(com.ibm.cloud.objectstorage.services.s3.AmazonS3)
+	 *                          caching} connector caches the blobs of files, child listings and existing directories.
+	 *                          A connector without cache caches nothing.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMetadataCacheMode(final CosMetadataCacheMode metadataCacheMode)
+	{
+		this.metadataCacheMode = notNull(metadataCacheMode);
+		return this;
+	}
+	
+	/**
+	 * @param metadataCacheTtlMillis time to live of cached metadata in the {@link CosMetadataCacheMode#TTL TTL}
+	 *                               mode.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMetadataCacheTtlMillis(final long metadataCacheTtlMillis)
+	{
+		if(metadataCacheTtlMillis < 1)
+		{
+			throw new IllegalArgumentException("metadataCacheTtlMillis must be positive");
+		}
+		this.metadataCacheTtlMillis = metadataCacheTtlMillis;
+		return this;
+	}
+	
+	/**
+	 * @param metadataCacheMaxEntries maximum number of cached files, listings and directories each. The least
+	 *                                recently used entries are dropped first.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMetadataCacheMaxEntries(final int metadataCacheMaxEntries)
+	{
+		if(metadataCacheMaxEntries < 1)
+		{
+			throw new IllegalArgumentException("metadataCacheMaxEntries must be positive");
+		}
+		this.metadataCacheMaxEntries = metadataCacheMaxEntries;
+		return this;
+	}
+	
+	/**
+	 * @param negativeCacheTtlMillis time for which a caching connector remembers that a file or directory does not
+	 *                               exist, which saves the requests of repeated probes. Creating something at the
+	 *                               path with the same connector ends it early. 0 disables the negative cache.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withNegativeCacheTtlMillis(final long negativeCacheTtlMillis)
+	{
+		if(negativeCacheTtlMillis < 0)
+		{
+			throw new IllegalArgumentException("negativeCacheTtlMillis must not be negative");
+		}
+		this.negativeCacheTtlMillis = negativeCacheTtlMillis;
+		return this;
+	}
+	
+	/**
+	 * @param blobIndex if a {@link CosConnector#Caching(com.ibm.cloud.objectstorage.services.s3.AmazonS3) caching}
+	 *                  connector should keep an in-memory index of the blobs of every file. The index is filled on
+	 *                  the first access of a file and updated by every write and delete, which saves the listing
+	 *                  before each write. It follows the {@link #withMetadataCacheMode(CosMetadataCacheMode) metadata
+	 *                  cache mode}.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withBlobIndex(final boolean blobIndex)
+	{
+		this.blobIndex = blobIndex;
+		return this;
+	}
+	
+	/**
+	 * @param metadataTree if a {@link CosConnector#Caching(com.ibm.cloud.objectstorage.services.s3.AmazonS3) caching}
+	 *                     connector should build an in-memory tree of all keys below the
+	 *                     {@link #withMetadataTreePrefix(String) prefix} with a single recursive listing on the first
+	 *                     access of a bucket. Existence checks, child listings and blob lookups are then answered
+	 *                     from the tree, which is kept current by the connector's own mutations. It requires the
+	 *                     connector to be the only writer of the bucket and follows the
+	 *                     {@link #withMetadataCacheMode(CosMetadataCacheMode) metadata cache mode}.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMetadataTree(final boolean metadataTree)
+	{
+		this.metadataTree = metadataTree;
+		return this;
+	}
+	
+	/**
+	 * @param metadataTreePrefix root of the keys covered by the metadata tree, e.g. the directory of the storage.
+	 *                           Must be empty (whole bucket) or end with a slash.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMetadataTreePrefix(final String metadataTreePrefix)
+	{
+		if(!metadataTreePrefix.isEmpty() && !metadataTreePrefix.endsWith("/"))
+		{
+			throw new IllegalArgumentException("metadataTreePrefix must be empty or end with a slash");
+		}
+		this.metadataTreePrefix = metadataTreePrefix;
+		return this;
+	}
+	
+	/**
+	 * @param parallelReads if reads larger than the {@link #withParallelReadChunkSize(long) chunk size} should be
+	 *                      split into ranged requests which are executed concurrently on the IO threads.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withParallelReads(final boolean parallelReads)
+	{
+		this.parallelReads = parallelReads;
+		return this;
+	}
+	
+	/**
+	 * @param parallelReadChunkSize size in bytes of a single ranged request when reading in parallel.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withParallelReadChunkSize(final long parallelReadChunkSize)
+	{
+		if(parallelReadChunkSize < 1)
+		{
+			throw new IllegalArgumentException("parallelReadChunkSize must be positive");
+		}
+		this.parallelReadChunkSize = parallelReadChunkSize;
+		return this;
+	}
+	
+	/**
+	 * @param multipartUploadThreshold writes of at least this many bytes are uploaded with a multipart upload.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMultipartUploadThreshold(final long multipartUploadThreshold)
+	{
+		if(multipartUploadThreshold < 1)
+		{
+			throw new IllegalArgumentException("multipartUploadThreshold must be positive");
+		}
+		this.multipartUploadThreshold = multipartUploadThreshold;
+		return this;
+	}
+	
+	/**
+	 * @param multipartUploadPartSize size in bytes of a single part of a multipart upload, at least 5 MiB.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMultipartUploadPartSize(final long multipartUploadPartSize)
+	{
+		if(multipartUploadPartSize < CosMultipartUpload.MIN_PART_SIZE)
+		{
+			throw new IllegalArgumentException("multipartUploadPartSize must be at least 5 MiB");
+		}
+		this.multipartUploadPartSize = multipartUploadPartSize;
+		return this;
+	}
+	
+	/**
+	 * @param multipartUploadPartRetries how often a single failed part is retried before the upload is aborted.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMultipartUploadPartRetries(final int multipartUploadPartRetries)
+	{
+		if(multipartUploadPartRetries < 0)
+		{
+			throw new IllegalArgumentException("multipartUploadPartRetries must not be negative");
+		}
+		this.multipartUploadPartRetries = multipartUploadPartRetries;
+		return this;
+	}
+	
+	/**
+	 * @param deleteRetries how often a key is deleted on its own if it could not be deleted by a batch request.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withDeleteRetries(final int deleteRetries)
+	{
+		if(deleteRetries < 1)
+		{
+			throw new IllegalArgumentException("deleteRetries must be at least 1");
+		}
+		this.deleteRetries = deleteRetries;
+		return this;
+	}
+	
+	/**
+	 * @param multipartCopyPartSize size in bytes of a single part when a file is copied inside the COS with a
+	 *                              multipart upload, at least 5 MiB. A truncated blob which keeps less than a part
+	 *                              is read and uploaded again instead.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMultipartCopyPartSize(final long multipartCopyPartSize)
+	{
+		if(multipartCopyPartSize < CosMultipartUpload.MIN_PART_SIZE)
+		{
+			throw new IllegalArgumentException("multipartCopyPartSize must be at least 5 MiB");
+		}
+		this.multipartCopyPartSize = multipartCopyPartSize;
+		return this;
+	}
+	
+	/**
+	 * @param compaction if a {@link CosConnector#Caching(com.ibm.cloud.objectstorage.services.s3.AmazonS3) caching}
+	 *                   connector with {@link #withBlobIndex(boolean) blob index} in the
+	 *                   {@link CosMetadataCacheMode#AUTHORITATIVE authoritative} mode should merge the small blobs
+	 *                   at the end of the written files in the background. The merged blob gets the next blob
+	 *                   number, the merged ones are deleted afterwards. If that is interrupted, the next listing of
+	 *                   the file by any connector deletes the blobs which are left.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompaction(final boolean compaction)
+	{
+		this.compaction = compaction;
+		return this;
+	}
+	
+	/**
+	 * @param compactionIntervalMillis pause in milliseconds between two compaction runs.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompactionIntervalMillis(final long compactionIntervalMillis)
+	{
+		if(compactionIntervalMillis < 1)
+		{
+			throw new IllegalArgumentException("compactionIntervalMillis must be positive");
+		}
+		this.compactionIntervalMillis = compactionIntervalMillis;
+		return this;
+	}
+	
+	/**
+	 * @param compactionSmallBlobSize blobs smaller than this are merged by the compaction.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompactionSmallBlobSize(final long compactionSmallBlobSize)
+	{
+		if(compactionSmallBlobSize < 1)
+		{
+			throw new IllegalArgumentException("compactionSmallBlobSize must be positive");
+		}
+		this.compactionSmallBlobSize = compactionSmallBlobSize;
+		return this;
+	}
+	
+	/**
+	 * @param compactionMinBlobs minimum number of consecutive small blobs which are merged.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompactionMinBlobs(final int compactionMinBlobs)
+	{
+		if(compactionMinBlobs < 2)
+		{
+			throw new IllegalArgumentException("compactionMinBlobs must be at least 2");
+		}
+		this.compactionMinBlobs = compactionMinBlobs;
+		return this;
+	}
+	
+	/**
+	 * @param compactionMaxBlobSize maximum size in bytes of a merged blob.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompactionMaxBlobSize(final long compactionMaxBlobSize)
+	{
+		if(compactionMaxBlobSize < 1)
+		{
+			throw new IllegalArgumentException("compactionMaxBlobSize must be positive");
+		}
+		this.compactionMaxBlobSize = compactionMaxBlobSize;
+		return this;
+	}
+	
+	/**
+	 * @param compactionRequestsPerSecond maximum number of requests per second made by the compaction.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withCompactionRequestsPerSecond(final int compactionRequestsPerSecond)
+	{
+		if(compactionRequestsPerSecond < 1)
+		{
+			throw new IllegalArgumentException("compactionRequestsPerSecond must be at least 1");
+		}
+		this.compactionRequestsPerSecond = compactionRequestsPerSecond;
+		return this;
+	}
+	
+	/**
+	 * @param diskCacheDirectory directory on a local disk in which read ranges of blobs are cached, or
+	 *                           <code>null</code> to disable the cache. The directory must not be shared with other
+	 *                           connectors.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withDiskCacheDirectory(final Path diskCacheDirectory)
+	{
+		this.diskCacheDirectory = diskCacheDirectory;
+		return this;
+	}
+	
+	/**
+	 * @param diskCacheSize maximum size in bytes of the disk cache.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withDiskCacheSize(final long diskCacheSize)
+	{
+		if(diskCacheSize < 1)
+		{
+			throw new IllegalArgumentException("diskCacheSize must be positive");
+		}
+		this.diskCacheSize = diskCacheSize;
+		return this;
+	}
+	
+	/**
+	 * @param memoryCacheSize maximum size in bytes of the cache which keeps blocks of the read blobs in direct
+	 *                        memory, outside of the heap. 0 disables the cache.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMemoryCacheSize(final long memoryCacheSize)
+	{
+		if(memoryCacheSize < 0)
+		{
+			throw new IllegalArgumentException("memoryCacheSize must not be negative");
+		}
+		this.memoryCacheSize = memoryCacheSize;
+		return this;
+	}
+	
+	/**
+	 * @param memoryCacheBlockSize size in bytes of the blocks in the memory cache.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withMemoryCacheBlockSize(final int memoryCacheBlockSize)
+	{
+		if(memoryCacheBlockSize < 1)
+		{
+			throw new IllegalArgumentException("memoryCacheBlockSize must be positive");
+		}
+		this.memoryCacheBlockSize = memoryCacheBlockSize;
+		return this;
+	}
+	
+	/**
+	 * @param readAhead if sequential reads of a blob should fetch the following chunks in the background, which
+	 *                  speeds up scans like the initialization of a storage.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadAhead(final boolean readAhead)
+	{
+		this.readAhead = readAhead;
+		return this;
+	}
+	
+	/**
+	 * @param readAheadChunkSize size in bytes of a single prefetched chunk.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadAheadChunkSize(final long readAheadChunkSize)
+	{
+		if(readAheadChunkSize < 1 || readAheadChunkSize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("readAheadChunkSize must be positive and fit into a buffer");
+		}
+		this.readAheadChunkSize = readAheadChunkSize;
+		return this;
+	}
+	
+	/**
+	 * @param readAheadMaxWindow maximum number of bytes which are prefetched ahead of a sequential read. The window
+	 *                           starts with a single chunk and doubles with every further sequential read.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadAheadMaxWindow(final long readAheadMaxWindow)
+	{
+		if(readAheadMaxWindow < 1)
+		{
+			throw new IllegalArgumentException("readAheadMaxWindow must be positive");
+		}
+		this.readAheadMaxWindow = readAheadMaxWindow;
+		return this;
+	}
+	
+	/**
+	 * @param readAheadBufferSize maximum number of prefetched bytes of all blobs together.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadAheadBufferSize(final long readAheadBufferSize)
+	{
+		if(readAheadBufferSize < 1)
+		{
+			throw new IllegalArgumentException("readAheadBufferSize must be positive");
+		}
+		this.readAheadBufferSize = readAheadBufferSize;
+		return this;
+	}
+	
+	/**
+	 * @param writeBehind if writes should return as soon as their data is copied into memory and be uploaded in the
+	 *                    background, in the order of their writes per file. Written data is only durable after
+	 *                    {@link CosConnector#flush()} returned, so a crash may lose the latest writes. Since the
+	 *                    {@link #withWriteBehindCommitFileSuffix(String) commit files} are uploaded last, it loses
+	 *                    whole commits of the storage then.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withWriteBehind(final boolean writeBehind)
+	{
+		this.writeBehind = writeBehind;
+		return this;
+	}
+	
+	/**
+	 * @param writeBehindBufferSize maximum number of bytes which wait for their upload in the write-behind mode.
+	 *                              Further writes wait until enough uploads are complete. Larger writes are
+	 *                              uploaded directly. Must fit into a buffer.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withWriteBehindBufferSize(final long writeBehindBufferSize)
+	{
+		if(writeBehindBufferSize < 1 || writeBehindBufferSize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("writeBehindBufferSize must be positive and fit into a buffer");
+		}
+		this.writeBehindBufferSize = writeBehindBufferSize;
+		return this;
+	}
+	
+	/**
+	 * @param writeBehindSpoolDirectory local directory in which the write-behind mode keeps the data of each write
+	 *                                  until its upload is complete. A write returns once its data is forced to the
+	 *                                  disk, and incomplete writes are uploaded on the next start. So writes are
+	 *                                  durable without waiting for the COS, as long as the disk survives.
+	 *                                  <code>null</code> (default) keeps the data only in memory.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withWriteBehindSpoolDirectory(final Path writeBehindSpoolDirectory)
+	{
+		this.writeBehindSpoolDirectory = writeBehindSpoolDirectory;
+		return this;
+	}
+	
+	/**
+	 * @param writeBehindSpoolSegmentSize size in bytes after which the spool continues in a new file. Files are
+	 *                                    deleted once all of their writes are uploaded.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withWriteBehindSpoolSegmentSize(final long writeBehindSpoolSegmentSize)
+	{
+		if(writeBehindSpoolSegmentSize < 1)
+		{
+			throw new IllegalArgumentException("writeBehindSpoolSegmentSize must be positive");
+		}
+		this.writeBehindSpoolSegmentSize = writeBehindSpoolSegmentSize;
+		return this;
+	}
+	
+	/**
+	 * @param writeBehindCommitFileSuffix end of the names of the files whose writes complete a commit of the storage,
+	 *                                    by default its transaction logs. In the write-behind mode, a write to such
+	 *                                    a file is uploaded only after all earlier writes to any file, so the COS
+	 *                                    never holds a commit without its data. Empty disables the ordering.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withWriteBehindCommitFileSuffix(final String writeBehindCommitFileSuffix)
+	{
+		this.writeBehindCommitFileSuffix = notNull(writeBehindCommitFileSuffix);
+		return this;
+	}
+	
+	/**
+	 * @param groupCommitWindowMillis time for which the first small write of a file waits for concurrent writes to
+	 *                                the same file, which are then written together as one blob. Only helps if
+	 *                                several threads write to the same file, every write takes at least this long
+	 *                                otherwise. 0 (default) disables the group commit. Not used in the
+	 *                                {@link #withWriteBehind(boolean) write-behind} mode.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withGroupCommitWindowMillis(final long groupCommitWindowMillis)
+	{
+		if(groupCommitWindowMillis < 0)
+		{
+			throw new IllegalArgumentException("groupCommitWindowMillis must not be negative");
+		}
+		this.groupCommitWindowMillis = groupCommitWindowMillis;
+		return this;
+	}
+	
+	/**
+	 * @param groupCommitMaxBytes size in bytes at which a group is written before its window has passed. Writes of
+	 *                            this size or larger are written on their own.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withGroupCommitMaxBytes(final long groupCommitMaxBytes)
+	{
+		if(groupCommitMaxBytes < 1)
+		{
+			throw new IllegalArgumentException("groupCommitMaxBytes must be positive");
+		}
+		this.groupCommitMaxBytes = groupCommitMaxBytes;
+		return this;
+	}
+	
+	/**
+	 * @param readCoalescingWindowMillis time for which the first read of an object waits for concurrent reads of
+	 *                                   nearby ranges, which are then read together with a single request. Every
+	 *                                   read which misses the caches takes at least this long. 0 (default) disables
+	 *                                   the read coalescing.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadCoalescingWindowMillis(final long readCoalescingWindowMillis)
+	{
+		if(readCoalescingWindowMillis < 0)
+		{
+			throw new IllegalArgumentException("readCoalescingWindowMillis must not be negative");
+		}
+		this.readCoalescingWindowMillis = readCoalescingWindowMillis;
+		return this;
+	}
+	
+	/**
+	 * @param readCoalescingMaxGap maximum number of unrequested bytes between two ranges which are read together.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadCoalescingMaxGap(final long readCoalescingMaxGap)
+	{
+		if(readCoalescingMaxGap < 0)
+		{
+			throw new IllegalArgumentException("readCoalescingMaxGap must not be negative");
+		}
+		this.readCoalescingMaxGap = readCoalescingMaxGap;
+		return this;
+	}
+	
+	/**
+	 * @param readCoalescingMaxSize maximum number of bytes read with a single coalesced request. Larger reads are
+	 *                              never delayed.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withReadCoalescingMaxSize(final long readCoalescingMaxSize)
+	{
+		if(readCoalescingMaxSize < 1 || readCoalescingMaxSize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("readCoalescingMaxSize must be positive and fit into a buffer");
+		}
+		this.readCoalescingMaxSize = readCoalescingMaxSize;
+		return this;
+	}
+	
+	/**
+	 * @param singleFlight if identical listings, existence checks and range reads which are requested concurrently
+	 *                     should be executed only once. The first caller makes the request, the others wait for its
+	 *                     result.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withSingleFlight(final boolean singleFlight)
+	{
+		this.singleFlight = singleFlight;
+		return this;
+	}
+	
+	/**
+	 * @param hedging if a duplicate of a read or listing request should be sent when it didn't answer within the
+	 *                {@link #withHedgingPercentile(double) percentile} of the recent latencies. The first response
+	 *                is used, the other request is cancelled.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withHedging(final boolean hedging)
+	{
+		this.hedging = hedging;
+		return this;
+	}
+	
+	/**
+	 * @param hedgingPercentile percentile of the recent latencies after which a request is duplicated.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withHedgingPercentile(final double hedgingPercentile)
+	{
+		if(!(hedgingPercentile > 0 && hedgingPercentile < 100))
+		{
+			throw new IllegalArgumentException("hedgingPercentile must be between 0 and 100");
+		}
+		this.hedgingPercentile = hedgingPercentile;
+		return this;
+	}
+	
+	/**
+	 * @param hedgingBudgetPercent maximum number of duplicated requests, in percent of all read or listing requests.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withHedgingBudgetPercent(final int hedgingBudgetPercent)
+	{
+		if(hedgingBudgetPercent < 1 || hedgingBudgetPercent > 100)
+		{
+			throw new IllegalArgumentException("hedgingBudgetPercent must be between 1 and 100");
+		}
+		this.hedgingBudgetPercent = hedgingBudgetPercent;
+		return this;
+	}
+	
+	/**
+	 * @param hedgingMaxRangeSize size in bytes up to which a read request is hedged. Every attempt needs a buffer of
+	 *                            this size, and larger reads are slow because of their transfer, not of a slow
+	 *                            first response. Must fit into a buffer.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withHedgingMaxRangeSize(final long hedgingMaxRangeSize)
+	{
+		if(hedgingMaxRangeSize < 1 || hedgingMaxRangeSize > Integer.MAX_VALUE)
+		{
+			throw new IllegalArgumentException("hedgingMaxRangeSize must be positive and fit into a buffer");
+		}
+		this.hedgingMaxRangeSize = hedgingMaxRangeSize;
+		return this;
+	}
+	
+	/**
+	 * @param ioScheduler if the requests should be admitted to the connection pool by their priority: interactive
+	 *                    reads and listings first, then uploads of stored data, then deletes, copies and the
+	 *                    compaction. Every class has its own concurrency limit.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoScheduler(final boolean ioScheduler)
+	{
+		this.ioScheduler = ioScheduler;
+		return this;
+	}
+	
+	/**
+	 * @param ioSchedulerConnections maximum number of concurrent requests of all classes. Should match the
+	 *                               {@code maxConnections} of the client's {@code ClientConfiguration}.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoSchedulerConnections(final int ioSchedulerConnections)
+	{
+		if(ioSchedulerConnections < 1)
+		{
+			throw new IllegalArgumentException("ioSchedulerConnections must be positive");
+		}
+		this.ioSchedulerConnections = ioSchedulerConnections;
+		return this;
+	}
+	
+	/**
+	 * @param ioSchedulerInteractiveReads maximum number of concurrent reads and listings.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoSchedulerInteractiveReads(final int ioSchedulerInteractiveReads)
+	{
+		if(ioSchedulerInteractiveReads < 1)
+		{
+			throw new IllegalArgumentException("ioSchedulerInteractiveReads must be positive");
+		}
+		this.ioSchedulerInteractiveReads = ioSchedulerInteractiveReads;
+		return this;
+	}
+	
+	/**
+	 * @param ioSchedulerCommitWrites maximum number of concurrent upload requests.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoSchedulerCommitWrites(final int ioSchedulerCommitWrites)
+	{
+		if(ioSchedulerCommitWrites < 1)
+		{
+			throw new IllegalArgumentException("ioSchedulerCommitWrites must be positive");
+		}
+		this.ioSchedulerCommitWrites = ioSchedulerCommitWrites;
+		return this;
+	}
+	
+	/**
+	 * @param ioSchedulerBackgroundMaintenance maximum number of concurrent delete, copy and compaction requests.
+	 * @return this configuration
+	 */
+	public CosConnectorConfiguration withIoSchedulerBackgroundMaintenance(final int ioSchedulerBackgroundMaintenance)
+	{
+		if(ioSchedulerBackgroundMaintenance < 1)
+		{
+			throw new IllegalArgumentException("ioSchedulerBackgroundMaintenance must be positive");
+		}
+		this.ioSchedulerBackgroundMaintenance = ioSchedulerBackgroundMaintenance;
+		return this;
+	}
+	
+	public int getIoThreads()
+	{
+		return this.ioThreads;
+	}
+	
+	public boolean isListingPrefetch()
+	{
+		return this.listingPrefetch;
+	}
+	
+	public CosMetadataCacheMode getMetadataCacheMode()
+	{
+		return this.metadataCacheMode;
+	}
+	
+	public long getMetadataCacheTtlMillis()
+	{
+		return this.metadataCacheTtlMillis;
+	}
+	
+	public int getMetadataCacheMaxEntries()
+	{
+		return this.metadataCacheMaxEntries;
+	}
+	
+	public long getNegativeCacheTtlMillis()
+	{
+		return this.negativeCacheTtlMillis;
+	}
+	
+	public boolean isBlobIndex()
+	{
+		return this.blobIndex;
+	}
+	
+	public boolean isMetadataTree()
+	{
+		return this.metadataTree;
+	}
+	
+	public String getMetadataTreePrefix()
+	{
+		return this.metadataTreePrefix;
+	}
+	
+	public boolean isParallelReads()
+	{
+		return this.parallelReads;
+	}
+	
+	public long getParallelReadChunkSize()
+	{
+		return this.parallelReadChunkSize;
+	}
+	
+	public long getMultipartUploadThreshold()
+	{
+		return this.multipartUploadThreshold;
+	}
+	
+	public long getMultipartUploadPartSize()
+	{
+		return this.multipartUploadPartSize;
+	}
+	
+	public int getMultipartUploadPartRetries()
+	{
+		return this.multipartUploadPartRetries;
+	}
+	
+	public int getDeleteRetries()
+	{
+		return this.deleteRetries;
+	}
+	
+	public long getMultipartCopyPartSize()
+	{
+		return this.multipartCopyPartSize;
+	}
+	
+	public boolean isCompaction()
+	{
+		return this.compaction;
+	}
+	
+	public long getCompactionIntervalMillis()
+	{
+		return this.compactionIntervalMillis;
+	}
+	
+	public long getCompactionSmallBlobSize()
+	{
+		return this.compactionSmallBlobSize;
+	}
+	
+	public int getCompactionMinBlobs()
+	{
+		return this.compactionMinBlobs;
+	}
+	
+	public long getCompactionMaxBlobSize()
+	{
+		return this.compactionMaxBlobSize;
+	}
+	
+	public int getCompactionRequestsPerSecond()
+	{
+		return this.compactionRequestsPerSecond;
+	}
+	
+	public Path getDiskCacheDirectory()
+	{
+		return this.diskCacheDirectory;
+	}
+	
+	public long getDiskCacheSize()
+	{
+		return this.diskCacheSize;
+	}
+	
+	public long getMemoryCacheSize()
+	{
+		return this.memoryCacheSize;
+	}
+	
+	public int getMemoryCacheBlockSize()
+	{
+		return this.memoryCacheBlockSize;
+	}
+	
+	public boolean isReadAhead()
+	{
+		return this.readAhead;
+	}
+	
+	public long getReadAheadChunkSize()
+	{
+		return this.readAheadChunkSize;
+	}
+	
+	public long getReadAheadMaxWindow()
+	{
+		return this.readAheadMaxWindow;
+	}
+	
+	public long getReadAheadBufferSize()
+	{
+		return this.readAheadBufferSize;
+	}
+	
+	public boolean isWriteBehind()
+	{
+		return this.writeBehind;
+	}
+	
+	public long getWriteBehindBufferSize()
+	{
+		return this.writeBehindBufferSize;
+	}
+	
+	public Path getWriteBehindSpoolDirectory()
+	{
+		return this.writeBehindSpoolDirectory;
+	}
+	
+	public long getWriteBehindSpoolSegmentSize()
+	{
+		return this.writeBehindSpoolSegmentSize;
+	}
+	
+	public String getWriteBehindCommitFileSuffix()
+	{
+		return this.writeBehindCommitFileSuffix;
+	}
+	
+	public long getGroupCommitWindowMillis()
+	{
+		return this.groupCommitWindowMillis;
+	}
+	
+	public long getGroupCommitMaxBytes()
+	{
+		return this.groupCommitMaxBytes;
+	}
+	
+	public long getReadCoalescingWindowMillis()
+	{
+		return this.readCoalescingWindowMillis;
+	}
+	
+	public long getReadCoalescingMaxGap()
+	{
+		return this.readCoalescingMaxGap;
+	}
+	
+	public long getReadCoalescingMaxSize()
+	{
+		return this.readCoalescingMaxSize;
+	}
+	
+	public boolean isSingleFlight()
+	{
+		return this.singleFlight;
+	}
+	
+	public boolean isHedging()
+	{
+		return this.hedging;
+	}
+	
+	public double getHedgingPercentile()
+	{
+		return this.hedgingPercentile;
+	}
+	
+	public int getHedgingBudgetPercent()
+	{
+		return this.hedgingBudgetPercent;
+	}
+	
+	public long getHedgingMaxRangeSize()
+	{
+		return this.hedgingMaxRangeSize;
+	}
+	
+	public boolean isIoScheduler()
+	{
+		return this.ioScheduler;
+	}
+	
+	public int getIoSchedulerConnections()
+	{
+		return this.ioSchedulerConnections;
+	}
+	
+	public int getIoSchedulerInteractiveReads()
+	{
+		return this.ioSchedulerInteractiveReads;
+	}
+	
+	public int getIoSchedulerCommitWrites()
+	{
+		return this.ioSchedulerCommitWrites;
+	}
+	
+	public int getIoSchedulerBackgroundMaintenance()
+	{
+		return this.ioSchedulerBackgroundMaintenance;
+	}
+}
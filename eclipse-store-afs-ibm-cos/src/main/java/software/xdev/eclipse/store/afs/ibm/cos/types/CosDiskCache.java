@@ -0,0 +1,441 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.slf4j.Logger;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Caches read ranges of objects in files on the local disk.
+ * <p>
+ * The blobs of the connector are never modified after they were written, so a range identified by the key, the ETag,
+ * the offset and the length of the object never gets stale. Cached ranges are read with positional reads straight
+ * into the target buffer and survive restarts. The least recently used ranges are evicted when the cache exceeds
+ * its size, the ranges of deleted objects are dropped immediately.
+ * </p>
+ * <p>
+ * Each object has its own directory, named by the hash of its bucket and key. It contains a file per cached range,
+ * named by the ETag, the offset and the length of the range.
+ * </p>
+ */
+final class CosDiskCache implements CosRangeReader
+{
+	private static final Logger LOGGER = Logging.getLogger(CosDiskCache.class);
+	
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+	private static final char NAME_SEPARATOR = '_';
+	/**
+	 * Ranges larger than this fraction of the cache size are not cached, so a single read can't evict everything.
+	 */
+	private static final int MAX_RANGE_FRACTION = 8;
+	
+	private static final class Entry
+	{
+		final String objectHash;
+		final String eTag;
+		final long offset;
+		final long length;
+		final Path path;
+		
+		Entry(final String objectHash, final String eTag, final long offset, final long length, final Path path)
+		{
+			this.objectHash = objectHash;
+			this.eTag = eTag;
+			this.offset = offset;
+			this.length = length;
+			this.path = path;
+		}
+		
+		boolean covers(final long offset, final long length)
+		{
+			return this.offset <= offset && offset + length <= this.offset + this.length;
+		}
+	}
+	
+	private final CosRangeReader delegate;
+	private final Path directory;
+	private final long maxBytes;
+	/**
+	 * All entries, the least recently used first.
+	 */
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	/**
+	 * The entries of each object by its hash, its ETag and their offset.
+	 */
+	private final Map<String, Map<String, NavigableMap<Long, Entry>>> objects = new HashMap<>();
+	private long usedBytes;
+	
+	CosDiskCache(
+		final CosRangeReader delegate,
+		final Path directory,
+		final long maxBytes
+	)
+	{
+		this.delegate = delegate;
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		try
+		{
+			Files.createDirectories(directory);
+			this.load();
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Registers the ranges cached by an earlier run, in the order they were written.
+	 */
+	private void load() throws IOException
+	{
+		final Map<Path, FileTime> files;
+		try(final Stream<Path> walk = Files.walk(this.directory, 2))
+		{
+			files = walk
+				.filter(path -> path.getNameCount() == this.directory.getNameCount() + 2)
+				.filter(Files::isRegularFile)
+				.collect(Collectors.toMap(path -> path, CosDiskCache::lastModified));
+		}
+		final List<Path> paths = files.keySet().stream()
+			.sorted(Comparator.comparing(files::get))
+			.collect(Collectors.toList());
+		for(final Path path : paths)
+		{
+			final Entry entry = parse(path);
+			if(entry == null)
+			{
+				// Leftovers of an interrupted write
+				deleteQuietly(path);
+			}
+			else
+			{
+				this.register(entry);
+			}
+		}
+		this.evict();
+	}
+	
+	private static FileTime lastModified(final Path path)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(path);
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static Entry parse(final Path path)
+	{
+		final String[] parts = path.getFileName().toString().split(String.valueOf(NAME_SEPARATOR));
+		if(parts.length != 3 || path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX))
+		{
+			return null;
+		}
+		try
+		{
+			return new Entry(
+				path.getParent().getFileName().toString(),
+				parts[0],
+				Long.parseLong(parts[1]),
+				Long.parseLong(parts[2]),
+				path
+			);
+		}
+		catch(final NumberFormatException e)
+		{
+			return null;
+		}
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		if(object.getETag() == null || length <= 0 || length > this.maxBytes / MAX_RANGE_FRACTION)
+		{
+			return this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		
+		final String objectHash = objectHash(bucketName, object.getKey());
+		final String cacheETag = toFileName(object.getETag());
+		final Entry entry = this.lookup(objectHash, cacheETag, offset, length);
+		if(entry != null && this.readEntry(entry, targetBuffer, offset, length))
+		{
+			return true;
+		}
+		
+		final int position = targetBuffer.position();
+		if(!this.delegate.read(bucketName, object, targetBuffer, offset, length))
+		{
+			return false;
+		}
+		this.store(objectHash, cacheETag, offset, CosBuffers.slice(targetBuffer, position, (int)length));
+		return true;
+	}
+	
+	private synchronized Entry lookup(
+		final String objectHash,
+		final String eTag,
+		final long offset,
+		final long length
+	)
+	{
+		final Map<String, NavigableMap<Long, Entry>> versions = this.objects.get(objectHash);
+		final NavigableMap<Long, Entry> ranges = versions == null
+			? null
+			: versions.get(eTag);
+		final Map.Entry<Long, Entry> candidate = ranges == null
+			? null
+			: ranges.floorEntry(offset);
+		if(candidate == null || !candidate.getValue().covers(offset, length))
+		{
+			return null;
+		}
+		// Marks the entry as recently used
+		return this.entries.get(candidate.getValue().path);
+	}
+	
+	private boolean readEntry(
+		final Entry entry,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final int position = targetBuffer.position();
+		final int limit = targetBuffer.limit();
+		// Mapping the file would cost more than it saves for a single read
+		try(final FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ))
+		{
+			targetBuffer.limit(position + Math.toIntExact(length));
+			long filePosition = offset - entry.offset;
+			while(targetBuffer.hasRemaining())
+			{
+				final int read = channel.read(targetBuffer, filePosition);
+				if(read < 0)
+				{
+					throw new EOFException("Cached range " + entry.path + " is shorter than expected");
+				}
+				filePosition += read;
+			}
+			return true;
+		}
+		catch(final IOException e)
+		{
+			// Probably evicted in the meantime
+			LOGGER.debug("Could not read cached range {}", entry.path, e);
+			targetBuffer.position(position);
+			this.remove(entry);
+			return false;
+		}
+		finally
+		{
+			targetBuffer.limit(limit);
+		}
+	}
+	
+	private void store(
+		final String objectHash,
+		final String eTag,
+		final long offset,
+		final ByteBuffer data
+	)
+	{
+		final Path objectDirectory = this.directory.resolve(objectHash);
+		final Path path = objectDirectory.resolve(eTag + NAME_SEPARATOR + offset + NAME_SEPARATOR + data.remaining());
+		final Entry entry = new Entry(objectHash, eTag, offset, data.remaining(), path);
+		Path tempFile = null;
+		try
+		{
+			Files.createDirectories(objectDirectory);
+			tempFile = Files.createTempFile(objectDirectory, null, TEMP_FILE_SUFFIX);
+			try(final FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE))
+			{
+				while(data.hasRemaining())
+				{
+					channel.write(data);
+				}
+			}
+			// Readers never see a partially written range
+			Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(final IOException e)
+		{
+			LOGGER.debug("Could not cache range {}", path, e);
+			if(tempFile != null)
+			{
+				deleteQuietly(tempFile);
+			}
+			return;
+		}
+		
+		synchronized(this)
+		{
+			this.register(entry);
+			this.evict();
+		}
+	}
+	
+	private synchronized void register(final Entry entry)
+	{
+		if(this.entries.containsKey(entry.path))
+		{
+			return;
+		}
+		final Entry replaced = this.objects
+			.computeIfAbsent(entry.objectHash, h -> new HashMap<>())
+			.computeIfAbsent(entry.eTag, e -> new TreeMap<>())
+			.put(entry.offset, entry);
+		if(replaced != null)
+		{
+			// Only the latest range at an offset is kept
+			this.entries.remove(replaced.path);
+			this.usedBytes -= replaced.length;
+			deleteQuietly(replaced.path);
+		}
+		this.entries.put(entry.path, entry);
+		this.usedBytes += entry.length;
+	}
+	
+	private synchronized void evict()
+	{
+		while(this.usedBytes > this.maxBytes && !this.entries.isEmpty())
+		{
+			this.remove(this.entries.values().iterator().next());
+		}
+	}
+	
+	private synchronized void remove(final Entry entry)
+	{
+		if(this.entries.remove(entry.path) == null)
+		{
+			return;
+		}
+		this.usedBytes -= entry.length;
+		final Map<String, NavigableMap<Long, Entry>> versions = this.objects.get(entry.objectHash);
+		final NavigableMap<Long, Entry> ranges = versions.get(entry.eTag);
+		ranges.remove(entry.offset, entry);
+		if(ranges.isEmpty())
+		{
+			versions.remove(entry.eTag);
+			if(versions.isEmpty())
+			{
+				this.objects.remove(entry.objectHash);
+			}
+		}
+		deleteQuietly(entry.path);
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		for(final String key : keys)
+		{
+			final String objectHash = objectHash(bucketName, key);
+			synchronized(this)
+			{
+				final Map<String, NavigableMap<Long, Entry>> versions = this.objects.get(objectHash);
+				if(versions != null)
+				{
+					versions.values().stream()
+						.flatMap(ranges -> ranges.values().stream())
+						.collect(Collectors.toList())
+						.forEach(this::remove);
+				}
+			}
+			// Only succeeds if no range of the object is written at the moment
+			deleteQuietly(this.directory.resolve(objectHash));
+		}
+		this.delegate.invalidate(bucketName, keys);
+	}
+	
+	private static String objectHash(final String bucketName, final String key)
+	{
+		try
+		{
+			final byte[] hash = MessageDigest.getInstance("SHA-256")
+				.digest((bucketName + '/' + key).getBytes(StandardCharsets.UTF_8));
+			final StringBuilder hex = new StringBuilder(hash.length * 2);
+			for(final byte b : hash)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+		catch(final NoSuchAlgorithmException e)
+		{
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * ETags are hex digests with an optional part count, anything else is replaced to get a safe file name.
+	 */
+	private static String toFileName(final String eTag)
+	{
+		return eTag.replaceAll("[^A-Za-z0-9-]", "-");
+	}
+	
+	private static void deleteQuietly(final Path path)
+	{
+		try
+		{
+			Files.deleteIfExists(path);
+		}
+		catch(final IOException e)
+		{
+			LOGGER.debug("Could not delete {}", path, e);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Bounded map whose entries expire after a fixed time to live. If the maximum number of entries is reached, the least
+ * recently used entry is evicted.
+ *
+ * @param <V> type of the cached values
+ */
+final class CosExpiringMap<V>
+{
+	private final long ttlMillis;
+	private final LongSupplier clock;
+	private final Map<String, CachedValue<V>> entries;
+	private long modifications;
+	
+	/**
+	 * @param ttlMillis  time to live of an entry, 0 if entries never expire
+	 * @param maxEntries maximum number of entries
+	 */
+	CosExpiringMap(final long ttlMillis, final int maxEntries)
+	{
+		this(ttlMillis, maxEntries, System::currentTimeMillis);
+	}
+	
+	CosExpiringMap(final long ttlMillis, final int maxEntries, final LongSupplier clock)
+	{
+		this.ttlMillis = ttlMillis;
+		this.clock = clock;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CachedValue<V>> eldest)
+			{
+				return this.size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * @return the value, or <code>null</code> if there is none or it has expired
+	 */
+	synchronized V get(final String key)
+	{
+		final CachedValue<V> entry = this.entries.get(key);
+		if(entry == null)
+		{
+			return null;
+		}
+		if(entry.expiresAt < this.clock.getAsLong())
+		{
+			this.entries.remove(key);
+			return null;
+		}
+		return entry.value;
+	}
+	
+	/**
+	 * @return a counter of the removals, see {@link #putIfUnmodified(String, Object, long)}
+	 */
+	synchronized long modifications()
+	{
+		return this.modifications;
+	}
+	
+	/**
+	 * Puts a value which was loaded after {@link #modifications()} returned the given counter. If anything was removed
+	 * in the meantime, the value may be outdated already and is not put.
+	 */
+	synchronized void putIfUnmodified(final String key, final V value, final long modifications)
+	{
+		if(this.modifications == modifications)
+		{
+			this.put(key, value);
+		}
+	}
+	
+	synchronized void put(final String key, final V value)
+	{
+		final long expiresAt = this.ttlMillis > 0
+			? this.clock.getAsLong() + this.ttlMillis
+			: Long.MAX_VALUE;
+		this.entries.put(key, new CachedValue<>(value, expiresAt));
+	}
+	
+	synchronized void remove(final String key)
+	{
+		this.entries.remove(key);
+		this.modifications++;
+	}
+	
+	private static final class CachedValue<V>
+	{
+		final V value;
+		final long expiresAt;
+		
+		CachedValue(final V value, final long expiresAt)
+		{
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
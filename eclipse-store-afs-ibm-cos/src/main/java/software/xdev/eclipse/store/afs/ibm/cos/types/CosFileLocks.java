@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Striped locks for operations which take new blob numbers of a file, or replace or remove its existing blobs, so
+ * they don't interleave with each other.
+ */
+final class CosFileLocks
+{
+	private static final int STRIPES = 64;
+	
+	private final Lock[] locks = new Lock[STRIPES];
+	
+	CosFileLocks()
+	{
+		for(int i = 0; i < STRIPES; i++)
+		{
+			this.locks[i] = new ReentrantLock();
+		}
+	}
+	
+	/**
+	 * @param fileKey identifies the file, see {@link CosBlobIndex#fileKey(String, String)}
+	 * @return the lock of the file, which may be shared with other files
+	 */
+	Lock lock(final String fileKey)
+	{
+		return this.locks[stripe(fileKey)];
+	}
+	
+	/**
+	 * @return the locks of both files in the order in which they have to be taken, so two operations which lock
+	 * the same files can't deadlock
+	 */
+	List<Lock> locks(final String fileKey, final String otherFileKey)
+	{
+		final int stripe = stripe(fileKey);
+		final int otherStripe = stripe(otherFileKey);
+		return stripe == otherStripe
+			? List.of(this.locks[stripe])
+			: List.of(this.locks[Math.min(stripe, otherStripe)], this.locks[Math.max(stripe, otherStripe)]);
+	}
+	
+	private static int stripe(final String fileKey)
+	{
+		return Math.floorMod(fileKey.hashCode(), STRIPES);
+	}
+}
@@ -15,6 +15,9 @@
  */
 package software.xdev.eclipse.store.afs.ibm.cos.types;
 
+import java.nio.file.Paths;
+import java.util.Locale;
+
 import org.eclipse.serializer.afs.types.AFileSystem;
 import org.eclipse.serializer.configuration.types.Configuration;
 import org.eclipse.serializer.configuration.types.ConfigurationBasedCreator;
@@ -39,9 +42,109 @@ public class CosFileSystemCreator extends ConfigurationBasedCreator.Abstract<AFi
 	{
 		final AmazonS3 client = CosClientCreator.createClient(configuration);
 		final boolean cache = configuration.optBoolean("cache").orElse(true);
+		final CosConnectorConfiguration connectorConfiguration = createConnectorConfiguration(configuration);
 		final CosConnector connector = cache
-			? CosConnector.Caching(client)
-			: CosConnector.New(client);
+			? CosConnector.Caching(client, connectorConfiguration)
+			: CosConnector.New(client, connectorConfiguration);
 		return BlobStoreFileSystem.New(connector);
 	}
+	
+	private static CosConnectorConfiguration createConnectorConfiguration(
+		final Configuration configuration
+	)
+	{
+		final CosConnectorConfiguration connectorConfiguration = new CosConnectorConfiguration();
+		final Configuration cosConfiguration = configuration.child("ibm.cos");
+		if(cosConfiguration == null)
+		{
+			return connectorConfiguration;
+		}
+		
+		cosConfiguration.optInteger("io-threads").ifPresent(connectorConfiguration::withIoThreads);
+		cosConfiguration.optBoolean("listing-prefetch").ifPresent(connectorConfiguration::withListingPrefetch);
+		final Configuration cacheConfiguration = cosConfiguration.child("cache");
+		if(cacheConfiguration != null)
+		{
+			cacheConfiguration.opt("mode")
+				.map(mode -> CosMetadataCacheMode.valueOf(mode.trim().toUpperCase(Locale.ROOT)))
+				.ifPresent(connectorConfiguration::withMetadataCacheMode);
+			cacheConfiguration.optLong("ttl-millis").ifPresent(connectorConfiguration::withMetadataCacheTtlMillis);
+			cacheConfiguration.optInteger("max-entries")
+				.ifPresent(connectorConfiguration::withMetadataCacheMaxEntries);
+			cacheConfiguration.optLong("negative-ttl-millis")
+				.ifPresent(connectorConfiguration::withNegativeCacheTtlMillis);
+		}
+		cosConfiguration.optBoolean("blob-index").ifPresent(connectorConfiguration::withBlobIndex);
+		cosConfiguration.optBoolean("metadata-tree").ifPresent(connectorConfiguration::withMetadataTree);
+		cosConfiguration.opt("metadata-tree-prefix").ifPresent(connectorConfiguration::withMetadataTreePrefix);
+		cosConfiguration.optBoolean("parallel-reads").ifPresent(connectorConfiguration::withParallelReads);
+		cosConfiguration.optLong("parallel-read-chunk-size")
+			.ifPresent(connectorConfiguration::withParallelReadChunkSize);
+		cosConfiguration.optLong("multipart-upload-threshold")
+			.ifPresent(connectorConfiguration::withMultipartUploadThreshold);
+		cosConfiguration.optLong("multipart-upload-part-size")
+			.ifPresent(connectorConfiguration::withMultipartUploadPartSize);
+		cosConfiguration.optInteger("multipart-upload-part-retries")
+			.ifPresent(connectorConfiguration::withMultipartUploadPartRetries);
+		cosConfiguration.optInteger("delete-retries").ifPresent(connectorConfiguration::withDeleteRetries);
+		cosConfiguration.optLong("multipart-copy-part-size")
+			.ifPresent(connectorConfiguration::withMultipartCopyPartSize);
+		cosConfiguration.optBoolean("compaction").ifPresent(connectorConfiguration::withCompaction);
+		cosConfiguration.optLong("compaction-interval-millis")
+			.ifPresent(connectorConfiguration::withCompactionIntervalMillis);
+		cosConfiguration.optLong("compaction-small-blob-size")
+			.ifPresent(connectorConfiguration::withCompactionSmallBlobSize);
+		cosConfiguration.optInteger("compaction-min-blobs").ifPresent(connectorConfiguration::withCompactionMinBlobs);
+		cosConfiguration.optLong("compaction-max-blob-size")
+			.ifPresent(connectorConfiguration::withCompactionMaxBlobSize);
+		cosConfiguration.optInteger("compaction-requests-per-second")
+			.ifPresent(connectorConfiguration::withCompactionRequestsPerSecond);
+		cosConfiguration.opt("disk-cache-directory")
+			.map(Paths::get)
+			.ifPresent(connectorConfiguration::withDiskCacheDirectory);
+		cosConfiguration.optLong("disk-cache-size").ifPresent(connectorConfiguration::withDiskCacheSize);
+		cosConfiguration.optLong("memory-cache-size").ifPresent(connectorConfiguration::withMemoryCacheSize);
+		cosConfiguration.optInteger("memory-cache-block-size")
+			.ifPresent(connectorConfiguration::withMemoryCacheBlockSize);
+		cosConfiguration.optBoolean("read-ahead").ifPresent(connectorConfiguration::withReadAhead);
+		cosConfiguration.optLong("read-ahead-chunk-size").ifPresent(connectorConfiguration::withReadAheadChunkSize);
+		cosConfiguration.optLong("read-ahead-max-window").ifPresent(connectorConfiguration::withReadAheadMaxWindow);
+		cosConfiguration.optLong("read-ahead-buffer-size")
+			.ifPresent(connectorConfiguration::withReadAheadBufferSize);
+		cosConfiguration.optBoolean("write-behind").ifPresent(connectorConfiguration::withWriteBehind);
+		cosConfiguration.optLong("write-behind-buffer-size")
+			.ifPresent(connectorConfiguration::withWriteBehindBufferSize);
+		cosConfiguration.opt("write-behind-spool-directory")
+			.map(Paths::get)
+			.ifPresent(connectorConfiguration::withWriteBehindSpoolDirectory);
+		cosConfiguration.optLong("write-behind-spool-segment-size")
+			.ifPresent(connectorConfiguration::withWriteBehindSpoolSegmentSize);
+		cosConfiguration.opt("write-behind-commit-file-suffix")
+			.ifPresent(connectorConfiguration::withWriteBehindCommitFileSuffix);
+		cosConfiguration.optLong("group-commit-window-millis")
+			.ifPresent(connectorConfiguration::withGroupCommitWindowMillis);
+		cosConfiguration.optLong("group-commit-max-bytes").ifPresent(connectorConfiguration::withGroupCommitMaxBytes);
+		cosConfiguration.optLong("read-coalescing-window-millis")
+			.ifPresent(connectorConfiguration::withReadCoalescingWindowMillis);
+		cosConfiguration.optLong("read-coalescing-max-gap")
+			.ifPresent(connectorConfiguration::withReadCoalescingMaxGap);
+		cosConfiguration.optLong("read-coalescing-max-size")
+			.ifPresent(connectorConfiguration::withReadCoalescingMaxSize);
+		cosConfiguration.optBoolean("single-flight").ifPresent(connectorConfiguration::withSingleFlight);
+		cosConfiguration.optBoolean("hedging").ifPresent(connectorConfiguration::withHedging);
+		cosConfiguration.optDouble("hedging-percentile").ifPresent(connectorConfiguration::withHedgingPercentile);
+		cosConfiguration.optInteger("hedging-budget-percent")
+			.ifPresent(connectorConfiguration::withHedgingBudgetPercent);
+		cosConfiguration.optLong("hedging-max-range-size").ifPresent(connectorConfiguration::withHedgingMaxRangeSize);
+		cosConfiguration.optBoolean("io-scheduler").ifPresent(connectorConfiguration::withIoScheduler);
+		cosConfiguration.optInteger("io-scheduler-connections")
+			.ifPresent(connectorConfiguration::withIoSchedulerConnections);
+		cosConfiguration.optInteger("io-scheduler-interactive-reads")
+			.ifPresent(connectorConfiguration::withIoSchedulerInteractiveReads);
+		cosConfiguration.optInteger("io-scheduler-commit-writes")
+			.ifPresent(connectorConfiguration::withIoSchedulerCommitWrites);
+		cosConfiguration.optInteger("io-scheduler-background-maintenance")
+			.ifPresent(connectorConfiguration::withIoSchedulerBackgroundMaintenance);
+		return connectorConfiguration;
+	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+
+
+/**
+ * Helpers for the background work of the {@link CosConnector}.
+ */
+final class CosFutures
+{
+	private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+	
+	/**
+	 * Waits for the given future and rethrows its failure unwrapped, so callers see the same exceptions as if the
+	 * request was executed on their own thread.
+	 */
+	static <T> T join(final CompletableFuture<T> future)
+	{
+		try
+		{
+			return future.join();
+		}
+		catch(final CompletionException e)
+		{
+			throw unwrap(e);
+		}
+	}
+	
+	static RuntimeException unwrap(final Throwable throwable)
+	{
+		final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+			? throwable.getCause()
+			: throwable;
+		if(cause instanceof RuntimeException)
+		{
+			return (RuntimeException)cause;
+		}
+		if(cause instanceof Error)
+		{
+			throw (Error)cause;
+		}
+		return new SdkClientException(cause);
+	}
+	
+	/**
+	 * Creates a bounded executor with daemon threads, which are released again when idle. Work which is submitted
+	 * by background work stays background work, see {@link CosRequestContext#runInBackground(Runnable)}.
+	 */
+	static ExecutorService newBoundedExecutor(final String name, final int threads)
+	{
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			threads,
+			threads,
+			IDLE_THREAD_TIMEOUT_SECONDS,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(),
+			daemonThreadFactory(name)
+		)
+		{
+			@Override
+			public void execute(final Runnable command)
+			{
+				super.execute(CosRequestContext.withCurrentPriority(command));
+			}
+		};
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Creates a single daemon thread for periodic background work.
+	 */
+	static ScheduledExecutorService newBackgroundScheduler(final String name)
+	{
+		return Executors.newSingleThreadScheduledExecutor(daemonThreadFactory(name));
+	}
+	
+	private static ThreadFactory daemonThreadFactory(final String name)
+	{
+		final AtomicInteger counter = new AtomicInteger();
+		return runnable ->
+		{
+			final Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+	
+	private CosFutures()
+	{
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Coalesces concurrent small writes to the same file into a single blob.
+ * <p>
+ * The first write of a file opens a group and becomes its leader. Further writes to the file join the group until
+ * the window has passed or the group has reached its size, then the leader commits the data of all members in the
+ * order they joined as one blob. All members return together once the commit is done, or fail together. The
+ * committer has to serialize the commits of a file with its other writes, since each one takes the next blob number.
+ * </p>
+ */
+final class CosGroupCommit
+{
+	/**
+	 * Writes the data of a group as one blob of the file.
+	 */
+	@FunctionalInterface
+	interface Committer
+	{
+		void commit(List<ByteBuffer> buffers, long size);
+	}
+	
+	private final long windowNanos;
+	private final long maxBytes;
+	/**
+	 * The group of each file which can still be joined. Guarded by this.
+	 */
+	private final Map<String, Group> openGroups = new HashMap<>();
+	
+	CosGroupCommit(final long windowMillis, final long maxBytes)
+	{
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxBytes = maxBytes;
+	}
+	
+	/**
+	 * @return if a write of the given size may join a group, larger writes are written directly
+	 */
+	boolean accepts(final long size)
+	{
+		return size < this.maxBytes;
+	}
+	
+	/**
+	 * Adds the write to the open group of the file and waits until the group is committed. The source buffers are
+	 * read by the committer of the group, they must not be changed until this method returns.
+	 *
+	 * @param fileKey identifies the file, see {@link CosBlobIndex#fileKey(String, String)}
+	 */
+	void write(
+		final String fileKey,
+		final Iterable<? extends ByteBuffer> sourceBuffers,
+		final long size,
+		final Committer committer
+	)
+	{
+		final Group group;
+		final boolean leader;
+		synchronized(this)
+		{
+			final Group openGroup = this.openGroups.get(fileKey);
+			leader = openGroup == null;
+			group = leader
+				? new Group(System.nanoTime() + this.windowNanos)
+				: openGroup;
+			if(leader)
+			{
+				this.openGroups.put(fileKey, group);
+			}
+			group.add(sourceBuffers, size);
+			if(group.size >= this.maxBytes)
+			{
+				this.close(fileKey, group);
+			}
+		}
+		
+		if(leader)
+		{
+			this.awaitClosing(fileKey, group);
+			this.commit(group, committer);
+		}
+		else
+		{
+			CosFutures.join(group.committed);
+		}
+	}
+	
+	private synchronized void awaitClosing(final String fileKey, final Group group)
+	{
+		long remainingNanos = group.closesAt - System.nanoTime();
+		while(!group.closed && remainingNanos > 0)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+			}
+			catch(final InterruptedException e)
+			{
+				// Commits right away, the members are waiting for it
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remainingNanos = group.closesAt - System.nanoTime();
+		}
+		this.close(fileKey, group);
+	}
+	
+	private void close(final String fileKey, final Group group)
+	{
+		if(!group.closed)
+		{
+			group.closed = true;
+			this.openGroups.remove(fileKey, group);
+			this.notifyAll();
+		}
+	}
+	
+	private void commit(final Group group, final Committer committer)
+	{
+		try
+		{
+			committer.commit(group.buffers, group.size);
+			group.committed.complete(null);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			group.committed.completeExceptionally(e);
+			throw e;
+		}
+	}
+	
+	private static final class Group
+	{
+		final long closesAt;
+		final List<ByteBuffer> buffers = new ArrayList<>();
+		final CompletableFuture<Void> committed = new CompletableFuture<>();
+		long size;
+		boolean closed;
+		
+		Group(final long closesAt)
+		{
+			this.closesAt = closesAt;
+		}
+		
+		void add(final Iterable<? extends ByteBuffer> sourceBuffers, final long size)
+		{
+			sourceBuffers.forEach(this.buffers::add);
+			this.size += size;
+		}
+	}
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+
+
+/**
+ * Sends a duplicate of a request if it didn't answer within a percentile of the recently observed latencies. The
+ * first response wins, the other request is cancelled.
+ * <p>
+ * Every request earns a fraction of a credit, every duplicate costs a whole one. This caps the additional requests
+ * to the configured percentage, also when the COS is slow as a whole. Until enough latencies are known, nothing is
+ * duplicated and the requests are executed by the caller.
+ * </p>
+ */
+final class CosHedging
+{
+	private static final int SAMPLES = 512;
+	private static final int MIN_SAMPLES = 32;
+	private static final int UPDATE_INTERVAL = 32;
+	private static final double MAX_CREDITS = 10;
+	
+	/**
+	 * A single execution of the request.
+	 */
+	@FunctionalInterface
+	interface Attempt<T>
+	{
+		T execute(CosCancellation cancellation);
+	}
+	
+	private final Executor executor;
+	private final double percentile;
+	private final double creditPerRequest;
+	
+	// Guarded by this
+	private final long[] latencies = new long[SAMPLES];
+	private int sampleCount;
+	private int nextSample;
+	private int samplesSinceUpdate;
+	private long delayNanos = Long.MAX_VALUE;
+	private double credits;
+	private long hedgedRequests;
+	
+	/**
+	 * @param executor executes the attempts once a delay is known, so the caller can return as soon as one of them
+	 *                 answered
+	 */
+	CosHedging(final Executor executor, final CosConnectorConfiguration configuration)
+	{
+		this.executor = executor;
+		this.percentile = configuration.getHedgingPercentile();
+		this.creditPerRequest = configuration.getHedgingBudgetPercent() / 100.0;
+	}
+	
+	<T> T execute(final Attempt<T> attempt)
+	{
+		final long delayNanos = this.earnCredit();
+		if(delayNanos == Long.MAX_VALUE)
+		{
+			return this.attempt(attempt, new CosCancellation());
+		}
+		final CosCancellation primaryCancellation = new CosCancellation();
+		final long start = System.nanoTime();
+		final CompletableFuture<T> primary = this.submit(attempt, primaryCancellation);
+		try
+		{
+			return primary.get(delayNanos, TimeUnit.NANOSECONDS);
+		}
+		catch(final TimeoutException e)
+		{
+			// Hedged below
+		}
+		catch(final ExecutionException e)
+		{
+			throw CosFutures.unwrap(e.getCause());
+		}
+		catch(final InterruptedException e)
+		{
+			primaryCancellation.cancel();
+			Thread.currentThread().interrupt();
+			throw new SdkClientException("Interrupted while waiting for a response", e);
+		}
+		if(!this.spendCredit())
+		{
+			return CosFutures.join(primary);
+		}
+		
+		final CosCancellation hedgeCancellation = new CosCancellation();
+		final CompletableFuture<T> hedge = this.submit(attempt, hedgeCancellation);
+		final CompletableFuture<T> winner = new CompletableFuture<>();
+		final AtomicInteger failures = new AtomicInteger();
+		final BiConsumer<T, Throwable> completion = (result, failure) ->
+		{
+			if(failure == null)
+			{
+				winner.complete(result);
+			}
+			else if(failures.incrementAndGet() == 2)
+			{
+				winner.completeExceptionally(failure);
+			}
+		};
+		primary.whenComplete(completion);
+		hedge.whenComplete(completion);
+		try
+		{
+			return CosFutures.join(winner);
+		}
+		finally
+		{
+			if(!primary.isDone())
+			{
+				// The cancelled request took at least that long, which keeps slow periods in the latencies
+				this.record(System.nanoTime() - start);
+			}
+			primaryCancellation.cancel();
+			hedgeCancellation.cancel();
+		}
+	}
+	
+	private <T> CompletableFuture<T> submit(final Attempt<T> attempt, final CosCancellation cancellation)
+	{
+		return CompletableFuture.supplyAsync(() -> this.attempt(attempt, cancellation), this.executor);
+	}
+	
+	private <T> T attempt(final Attempt<T> attempt, final CosCancellation cancellation)
+	{
+		final long start = System.nanoTime();
+		try
+		{
+			final T result = attempt.execute(cancellation);
+			if(!cancellation.isCancelled())
+			{
+				this.record(System.nanoTime() - start);
+			}
+			return result;
+		}
+		finally
+		{
+			cancellation.finish();
+		}
+	}
+	
+	/**
+	 * @return the current delay after which a request is duplicated
+	 */
+	private synchronized long earnCredit()
+	{
+		this.credits = Math.min(MAX_CREDITS, this.credits + this.creditPerRequest);
+		return this.delayNanos;
+	}
+	
+	private synchronized boolean spendCredit()
+	{
+		if(this.credits < 1)
+		{
+			return false;
+		}
+		this.credits--;
+		this.hedgedRequests++;
+		return true;
+	}
+	
+	private synchronized void record(final long latencyNanos)
+	{
+		this.latencies[this.nextSample] = latencyNanos;
+		this.nextSample = (this.nextSample + 1) % SAMPLES;
+		this.sampleCount = Math.min(this.sampleCount + 1, SAMPLES);
+		if(this.sampleCount < MIN_SAMPLES || ++this.samplesSinceUpdate < UPDATE_INTERVAL)
+		{
+			return;
+		}
+		this.samplesSinceUpdate = 0;
+		final long[] sorted = Arrays.copyOf(this.latencies, this.sampleCount);
+		Arrays.sort(sorted);
+		final int index = (int)Math.ceil(this.sampleCount * this.percentile / 100) - 1;
+		this.delayNanos = sorted[Math.max(0, Math.min(index, this.sampleCount - 1))];
+	}
+	
+	synchronized long delayNanos()
+	{
+		return this.delayNanos;
+	}
+	
+	/**
+	 * @return the number of requests which were duplicated so far
+	 */
+	synchronized long hedgedRequests()
+	{
+		return this.hedgedRequests;
+	}
+}
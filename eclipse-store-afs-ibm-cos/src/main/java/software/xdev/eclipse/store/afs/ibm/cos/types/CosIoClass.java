@@ -0,0 +1,36 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+/**
+ * Priority classes of the requests of a {@link CosConnector}, see {@link CosIoScheduler}. They are declared from the
+ * most to the least urgent one.
+ */
+enum CosIoClass
+{
+	/**
+	 * Reads and listings, which a user usually waits for.
+	 */
+	INTERACTIVE_READ,
+	/**
+	 * Uploads of stored data.
+	 */
+	COMMIT_WRITE,
+	/**
+	 * Deletes, copies and the compaction, which mostly serve the housekeeping.
+	 */
+	BACKGROUND_MAINTENANCE
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.function.Supplier;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+
+
+/**
+ * Admits the requests of a {@link CosConnector} to the connection pool of its client by their {@link CosIoClass}.
+ * <p>
+ * A request runs on the calling thread, but only once its class is below its concurrency limit and a connection of
+ * the pool is free. A free connection goes to the most urgent class which is waiting for one and is allowed to
+ * start, so housekeeping can't crowd out the reads a user is waiting for.
+ * </p>
+ * <p>
+ * Every request holds its slot only while it runs, nobody waits for a slot while holding one. This keeps requests
+ * which are split over several threads, like multipart uploads, free of deadlocks. A request which has to wait
+ * while it runs, e.g. for a rate limit, gives its slot back in the meantime, see
+ * {@link CosRequestContext#awaitWithoutSlot(CosRequestContext.Wait)}.
+ * </p>
+ */
+final class CosIoScheduler
+{
+	/**
+	 * Lets every request start right away.
+	 */
+	static final CosIoScheduler UNLIMITED = new CosIoScheduler(Integer.MAX_VALUE, new int[0]);
+	/**
+	 * The slot of the request which the current thread executes.
+	 */
+	private static final ThreadLocal<Slot> CURRENT_SLOT = new ThreadLocal<>();
+	
+	private final int connections;
+	private final int[] limits;
+	
+	// Guarded by this
+	private final int[] running = new int[CosIoClass.values().length];
+	private final int[] waiting = new int[CosIoClass.values().length];
+	private int totalRunning;
+	
+	CosIoScheduler(final CosConnectorConfiguration configuration)
+	{
+		this(
+			configuration.getIoSchedulerConnections(),
+			new int[]{
+				configuration.getIoSchedulerInteractiveReads(),
+				configuration.getIoSchedulerCommitWrites(),
+				configuration.getIoSchedulerBackgroundMaintenance()
+			}
+		);
+	}
+	
+	/**
+	 * @param limits concurrency limit of each class by its ordinal, empty if there are no limits
+	 */
+	private CosIoScheduler(final int connections, final int[] limits)
+	{
+		this.connections = connections;
+		this.limits = limits;
+	}
+	
+	<T> T execute(final CosIoClass ioClass, final Supplier<T> request)
+	{
+		if(this.limits.length == 0)
+		{
+			return request.get();
+		}
+		final Slot slot = new Slot(ioClass.ordinal());
+		slot.acquire();
+		final Slot outerSlot = CURRENT_SLOT.get();
+		CURRENT_SLOT.set(slot);
+		try
+		{
+			return request.get();
+		}
+		finally
+		{
+			CURRENT_SLOT.set(outerSlot);
+			slot.release();
+		}
+	}
+	
+	void run(final CosIoClass ioClass, final Runnable request)
+	{
+		this.execute(ioClass, () ->
+		{
+			request.run();
+			return null;
+		});
+	}
+	
+	/**
+	 * Gives the slot of the current request back while waiting and takes it again afterwards.
+	 */
+	static void awaitWithoutSlot(final CosRequestContext.Wait wait) throws InterruptedException
+	{
+		final Slot slot = CURRENT_SLOT.get();
+		if(slot == null)
+		{
+			wait.await();
+			return;
+		}
+		slot.release();
+		try
+		{
+			wait.await();
+		}
+		finally
+		{
+			slot.acquire();
+		}
+	}
+	
+	private synchronized void acquire(final int ioClass)
+	{
+		this.waiting[ioClass]++;
+		try
+		{
+			while(!this.canStart(ioClass))
+			{
+				this.wait();
+			}
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SdkClientException("Interrupted while waiting for a connection", e);
+		}
+		finally
+		{
+			this.waiting[ioClass]--;
+			// Less urgent classes may start now that this one is not waiting anymore
+			this.notifyAll();
+		}
+		this.running[ioClass]++;
+		this.totalRunning++;
+	}
+	
+	private boolean canStart(final int ioClass)
+	{
+		if(this.running[ioClass] >= this.limits[ioClass] || this.totalRunning >= this.connections)
+		{
+			return false;
+		}
+		for(int moreUrgentClass = 0; moreUrgentClass < ioClass; moreUrgentClass++)
+		{
+			if(this.waiting[moreUrgentClass] > 0 && this.running[moreUrgentClass] < this.limits[moreUrgentClass])
+			{
+				// That class gets the connection
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private synchronized void release(final int ioClass)
+	{
+		this.running[ioClass]--;
+		this.totalRunning--;
+		this.notifyAll();
+	}
+	
+	/**
+	 * The slot of a single request, which is only used by the thread which executes it.
+	 */
+	private final class Slot
+	{
+		private final int ioClass;
+		private boolean held;
+		
+		Slot(final int ioClass)
+		{
+			this.ioClass = ioClass;
+		}
+		
+		void acquire()
+		{
+			CosIoScheduler.this.acquire(this.ioClass);
+			this.held = true;
+		}
+		
+		void release()
+		{
+			// Not held if taking it back after a wait failed
+			if(this.held)
+			{
+				this.held = false;
+				CosIoScheduler.this.release(this.ioClass);
+			}
+		}
+	}
+	
+	synchronized int running(final CosIoClass ioClass)
+	{
+		return this.running[ioClass.ordinal()];
+	}
+	
+	synchronized int waiting(final CosIoClass ioClass)
+	{
+		return this.waiting[ioClass.ordinal()];
+	}
+}
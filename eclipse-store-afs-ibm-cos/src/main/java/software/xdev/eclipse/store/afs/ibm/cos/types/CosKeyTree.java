@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * In-memory tree of all keys of a bucket below a root prefix, built from a single recursive listing.
+ * <p>
+ * As long as the connector is the only writer of the bucket, existence checks, child listings and blob lookups can
+ * be answered without any request. The tree is kept current by the mutations of the connector.
+ * </p>
+ */
+final class CosKeyTree
+{
+	private static final char SEPARATOR = '/';
+	
+	/**
+	 * Lists all keys below the root prefix and builds the tree from them.
+	 *
+	 * @param rootPrefix prefix of all keys covered by the tree, empty for the whole bucket
+	 * @param listing    all objects of the bucket which start with the root prefix
+	 */
+	static CosKeyTree build(final String rootPrefix, final Stream<S3ObjectSummary> listing)
+	{
+		final CosKeyTree tree = new CosKeyTree(rootPrefix);
+		try(listing)
+		{
+			listing.forEach(tree::add);
+		}
+		return tree;
+	}
+	
+	private final String rootPrefix;
+	private final long builtAt = System.currentTimeMillis();
+	/**
+	 * Directory prefixes (ending with the separator, the bucket root is the empty string) mapped to their content.
+	 */
+	private final Map<String, Directory> directories = new HashMap<>();
+	
+	private CosKeyTree(final String rootPrefix)
+	{
+		this.rootPrefix = rootPrefix;
+		this.directory(rootPrefix);
+	}
+	
+	/**
+	 * @return if the key or prefix lies below the root prefix and can therefore be answered by this tree
+	 */
+	boolean covers(final String keyOrPrefix)
+	{
+		return keyOrPrefix.startsWith(this.rootPrefix);
+	}
+	
+	/**
+	 * @param ttlMillis time to live of the tree, 0 if it never expires
+	 * @return if the tree was built longer than the time to live ago
+	 */
+	boolean isExpired(final long ttlMillis)
+	{
+		return ttlMillis > 0 && System.currentTimeMillis() - this.builtAt > ttlMillis;
+	}
+	
+	synchronized boolean directoryExists(final String directoryPrefix)
+	{
+		return this.directories.containsKey(directoryPrefix);
+	}
+	
+	/**
+	 * @return the keys of all sub directories and objects directly inside the directory
+	 */
+	synchronized List<String> childKeys(final String directoryPrefix)
+	{
+		final Directory directory = this.directories.get(directoryPrefix);
+		if(directory == null)
+		{
+			return List.of();
+		}
+		final List<String> childKeys = new ArrayList<>(directory.subDirectories);
+		childKeys.addAll(directory.objects.keySet());
+		return childKeys;
+	}
+	
+	/**
+	 * @return all blobs of a file, ordered by their number
+	 */
+	synchronized List<S3ObjectSummary> blobs(final String blobKeyPrefix, final Pattern blobKeyPattern)
+	{
+		final Directory directory = this.directories.get(parentPrefix(blobKeyPrefix));
+		if(directory == null)
+		{
+			return List.of();
+		}
+		return directory.objects.subMap(blobKeyPrefix, true, blobKeyPrefix + Character.MAX_VALUE, false)
+			.values()
+			.stream()
+			.filter(blob -> blobKeyPattern.matcher(blob.getKey()).matches())
+			.sorted(Comparator.comparingLong(blob -> CosBlobIndex.blobNumber(blob.getKey())))
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * Registers a new object, including all its parent directories.
+	 */
+	synchronized void add(final S3ObjectSummary object)
+	{
+		final String key = object.getKey();
+		if(!this.covers(key))
+		{
+			return;
+		}
+		if(key.endsWith(String.valueOf(SEPARATOR)))
+		{
+			// Directory marker
+			this.directory(key);
+		}
+		else
+		{
+			this.directory(parentPrefix(key)).objects.put(key, object);
+		}
+	}
+	
+	/**
+	 * Replaces the summary of an object which is still registered, e.g. after its upload in the background.
+	 */
+	synchronized void updated(final S3ObjectSummary object)
+	{
+		final Directory directory = this.directories.get(parentPrefix(object.getKey()));
+		if(directory != null)
+		{
+			directory.objects.replace(object.getKey(), object);
+		}
+	}
+	
+	synchronized void directoryCreated(final String directoryPrefix)
+	{
+		if(this.covers(directoryPrefix))
+		{
+			this.directory(directoryPrefix);
+		}
+	}
+	
+	/**
+	 * Removes a deleted object. Its directories are kept, like in a file system.
+	 */
+	synchronized void removed(final String key)
+	{
+		final Directory directory = this.directories.get(parentPrefix(key));
+		if(directory != null)
+		{
+			directory.objects.remove(key);
+		}
+	}
+	
+	private Directory directory(final String directoryPrefix)
+	{
+		Directory directory = this.directories.get(directoryPrefix);
+		if(directory == null)
+		{
+			directory = new Directory();
+			this.directories.put(directoryPrefix, directory);
+			if(directoryPrefix.length() > this.rootPrefix.length())
+			{
+				this.directory(parentPrefix(directoryPrefix)).subDirectories.add(directoryPrefix);
+			}
+		}
+		return directory;
+	}
+	
+	/**
+	 * @return the prefix of the directory containing the key, e.g. {@code a/b/} for {@code a/b/c} and {@code a/b/c/}
+	 */
+	static String parentPrefix(final String key)
+	{
+		final int end = key.endsWith(String.valueOf(SEPARATOR))
+			? key.length() - 1
+			: key.length();
+		return key.substring(0, key.lastIndexOf(SEPARATOR, end - 1) + 1);
+	}
+	
+	private static final class Directory
+	{
+		private final TreeSet<String> subDirectories = new TreeSet<>();
+		private final TreeMap<String, S3ObjectSummary> objects = new TreeMap<>();
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Result;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Lazy listing of a bucket which follows the continuation tokens of {@code listObjectsV2} page by page.
+ * <p>
+ * If an {@link Executor} is given, the next page is already fetched in the background while the current page is
+ * consumed.
+ * </p>
+ * <p>
+ * The pages are requested with the given function, usually {@code AmazonS3::listObjectsV2}.
+ * </p>
+ *
+ * @param <T> type of the listed elements
+ */
+final class CosListing<T> implements Spliterator<T>
+{
+	/**
+	 * @return all object summaries with the given prefix
+	 */
+	static Stream<S3ObjectSummary> objects(
+		final Function<ListObjectsV2Request, ListObjectsV2Result> listObjects,
+		final Executor prefetchExecutor,
+		final String bucketName,
+		final String prefix
+	)
+	{
+		return stream(new CosListing<>(
+			listObjects,
+			prefetchExecutor,
+			token -> new ListObjectsV2Request()
+				.withBucketName(bucketName)
+				.withPrefix(prefix)
+				.withContinuationToken(token),
+			ListObjectsV2Result::getObjectSummaries
+		));
+	}
+	
+	/**
+	 * @return the keys of all direct children (objects and common prefixes) of the given prefix
+	 */
+	static Stream<String> childKeys(
+		final Function<ListObjectsV2Request, ListObjectsV2Result> listObjects,
+		final Executor prefetchExecutor,
+		final String bucketName,
+		final String prefix,
+		final String delimiter
+	)
+	{
+		return stream(new CosListing<>(
+			listObjects,
+			prefetchExecutor,
+			token -> new ListObjectsV2Request()
+				.withBucketName(bucketName)
+				.withPrefix(prefix)
+				.withDelimiter(delimiter)
+				.withContinuationToken(token),
+			CosListing::keysOf
+		));
+	}
+	
+	private static <T> Stream<T> stream(final CosListing<T> listing)
+	{
+		return StreamSupport.stream(listing, false).onClose(listing::cancel);
+	}
+	
+	private static List<String> keysOf(final ListObjectsV2Result page)
+	{
+		final List<String> commonPrefixes = page.getCommonPrefixes();
+		final List<S3ObjectSummary> summaries = page.getObjectSummaries();
+		return Stream.concat(
+				commonPrefixes.stream(),
+				summaries.stream().map(S3ObjectSummary::getKey))
+			.collect(Collectors.toList());
+	}
+	
+	private final Function<ListObjectsV2Request, ListObjectsV2Result> listObjects;
+	private final Executor prefetchExecutor;
+	private final Function<String, ListObjectsV2Request> requestFactory;
+	private final Function<ListObjectsV2Result, List<T>> elements;
+	
+	private Iterator<T> current = Collections.emptyIterator();
+	private String nextContinuationToken;
+	private CompletableFuture<ListObjectsV2Result> prefetchedPage;
+	private boolean lastPageReached;
+	
+	private CosListing(
+		final Function<ListObjectsV2Request, ListObjectsV2Result> listObjects,
+		final Executor prefetchExecutor,
+		final Function<String, ListObjectsV2Request> requestFactory,
+		final Function<ListObjectsV2Result, List<T>> elements
+	)
+	{
+		this.listObjects = listObjects;
+		this.prefetchExecutor = prefetchExecutor;
+		this.requestFactory = requestFactory;
+		this.elements = elements;
+	}
+	
+	@Override
+	public boolean tryAdvance(final Consumer<? super T> action)
+	{
+		while(!this.current.hasNext())
+		{
+			if(this.lastPageReached)
+			{
+				return false;
+			}
+			this.current = this.elements.apply(this.nextPage()).iterator();
+		}
+		action.accept(this.current.next());
+		return true;
+	}
+	
+	private ListObjectsV2Result nextPage()
+	{
+		final ListObjectsV2Result page = this.prefetchedPage != null
+			? CosFutures.join(this.prefetchedPage)
+			: this.listObjects.apply(this.requestFactory.apply(this.nextContinuationToken));
+		this.prefetchedPage = null;
+		
+		if(page.isTruncated())
+		{
+			this.nextContinuationToken = page.getNextContinuationToken();
+			if(this.prefetchExecutor != null)
+			{
+				final ListObjectsV2Request request = this.requestFactory.apply(this.nextContinuationToken);
+				this.prefetchedPage = CompletableFuture.supplyAsync(
+					() -> this.listObjects.apply(request),
+					this.prefetchExecutor
+				);
+			}
+		}
+		else
+		{
+			this.lastPageReached = true;
+		}
+		return page;
+	}
+	
+	private void cancel()
+	{
+		if(this.prefetchedPage != null)
+		{
+			this.prefetchedPage.cancel(false);
+			this.prefetchedPage = null;
+		}
+	}
+	
+	@Override
+	public Spliterator<T> trySplit()
+	{
+		return null;
+	}
+	
+	@Override
+	public long estimateSize()
+	{
+		return Long.MAX_VALUE;
+	}
+	
+	@Override
+	public int characteristics()
+	{
+		return ORDERED | NONNULL;
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Caches fixed-size blocks of objects in direct memory.
+ * <p>
+ * Requested ranges are assembled from the cached blocks, consecutive missing blocks are fetched with a single
+ * request. The blocks live outside of the heap and their buffers are reused after an eviction, so a full cache
+ * doesn't cause any garbage collection work.
+ * </p>
+ * <p>
+ * The cache is split into shards by block, each one a segmented LRU: new blocks start in the probationary segment
+ * and are promoted to the protected segment on their second access. So blocks which were read only once, e.g. during
+ * a scan, are evicted before the ones which are read over and over.
+ * </p>
+ */
+final class CosMemoryCache implements CosRangeReader
+{
+	private static final int MAX_SHARDS = 16;
+	/**
+	 * Small caches are not split, so their blocks are not spread too thinly.
+	 */
+	private static final int MIN_BLOCKS_PER_SHARD = 64;
+	/**
+	 * Share of the blocks of a shard which are reserved for blocks that were accessed more than once.
+	 */
+	private static final double PROTECTED_SHARE = 0.8;
+	/**
+	 * Ranges larger than this fraction of the cache size are not cached, so a single read can't evict everything.
+	 */
+	private static final int MAX_RANGE_FRACTION = 8;
+	
+	private static final class BlockKey
+	{
+		final String bucketName;
+		final String key;
+		final String eTag;
+		final long index;
+		
+		BlockKey(final String bucketName, final String key, final String eTag, final long index)
+		{
+			this.bucketName = bucketName;
+			this.key = key;
+			this.eTag = eTag;
+			this.index = index;
+		}
+		
+		@Override
+		public boolean equals(final Object o)
+		{
+			if(this == o)
+			{
+				return true;
+			}
+			if(!(o instanceof BlockKey))
+			{
+				return false;
+			}
+			final BlockKey other = (BlockKey)o;
+			return this.index == other.index
+				&& this.key.equals(other.key)
+				&& this.eTag.equals(other.eTag)
+				&& this.bucketName.equals(other.bucketName);
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(this.bucketName, this.key, this.eTag, this.index);
+		}
+	}
+	
+	private final class Shard
+	{
+		private final int capacity;
+		private final int protectedCapacity;
+		private final LinkedHashMap<BlockKey, ByteBuffer> probation = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<BlockKey, ByteBuffer> protectedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+		
+		Shard(final int capacity)
+		{
+			this.capacity = capacity;
+			this.protectedCapacity = (int)(capacity * PROTECTED_SHARE);
+		}
+		
+		synchronized boolean contains(final BlockKey key)
+		{
+			return this.protectedBlocks.containsKey(key) || this.probation.containsKey(key);
+		}
+		
+		/**
+		 * Copies a part of the block into the target buffer. The copy happens under the lock of the shard, so the
+		 * buffer of the block can't be reused in the meantime.
+		 */
+		synchronized boolean copy(final BlockKey key, final ByteBuffer targetBuffer, final int from, final int length)
+		{
+			ByteBuffer block = this.protectedBlocks.get(key);
+			if(block == null)
+			{
+				block = this.probation.remove(key);
+				if(block == null)
+				{
+					return false;
+				}
+				this.protectedBlocks.put(key, block);
+				if(this.protectedBlocks.size() > this.protectedCapacity)
+				{
+					final Map.Entry<BlockKey, ByteBuffer> demoted = removeEldest(this.protectedBlocks);
+					this.probation.put(demoted.getKey(), demoted.getValue());
+				}
+			}
+			targetBuffer.put(CosBuffers.slice(block, from, length));
+			return true;
+		}
+		
+		synchronized void put(final BlockKey key, final ByteBuffer data)
+		{
+			if(this.contains(key))
+			{
+				return;
+			}
+			ByteBuffer block;
+			if(this.probation.size() + this.protectedBlocks.size() < this.capacity)
+			{
+				block = CosMemoryCache.this.freeBlocks.poll();
+				if(block == null)
+				{
+					block = ByteBuffer.allocateDirect(CosMemoryCache.this.blockSize);
+				}
+			}
+			else
+			{
+				block = removeEldest(this.probation.isEmpty() ? this.protectedBlocks : this.probation).getValue();
+				CosMemoryCache.this.usedBytes.addAndGet(-block.limit());
+				CosMemoryCache.this.evictions.increment();
+			}
+			block.clear();
+			block.put(data.duplicate());
+			block.flip();
+			CosMemoryCache.this.usedBytes.addAndGet(block.limit());
+			this.probation.put(key, block);
+		}
+		
+		synchronized void invalidate(final String bucketName, final Set<String> keys)
+		{
+			this.invalidate(this.probation, bucketName, keys);
+			this.invalidate(this.protectedBlocks, bucketName, keys);
+		}
+		
+		private void invalidate(
+			final Map<BlockKey, ByteBuffer> blocks,
+			final String bucketName,
+			final Set<String> keys
+		)
+		{
+			final Iterator<Map.Entry<BlockKey, ByteBuffer>> iterator = blocks.entrySet().iterator();
+			while(iterator.hasNext())
+			{
+				final Map.Entry<BlockKey, ByteBuffer> entry = iterator.next();
+				if(keys.contains(entry.getKey().key) && entry.getKey().bucketName.equals(bucketName))
+				{
+					iterator.remove();
+					CosMemoryCache.this.usedBytes.addAndGet(-entry.getValue().limit());
+					CosMemoryCache.this.freeBlocks.offer(entry.getValue());
+				}
+			}
+		}
+	}
+	
+	private static Map.Entry<BlockKey, ByteBuffer> removeEldest(final Map<BlockKey, ByteBuffer> blocks)
+	{
+		final Iterator<Map.Entry<BlockKey, ByteBuffer>> iterator = blocks.entrySet().iterator();
+		final Map.Entry<BlockKey, ByteBuffer> eldest = iterator.next();
+		iterator.remove();
+		return eldest;
+	}
+	
+	private final CosRangeReader delegate;
+	private final int blockSize;
+	private final long maxRangeLength;
+	private final Shard[] shards;
+	/**
+	 * Buffers of invalidated blocks, which are reused before new ones are allocated.
+	 */
+	private final Queue<ByteBuffer> freeBlocks = new ConcurrentLinkedQueue<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final AtomicLong usedBytes = new AtomicLong();
+	
+	CosMemoryCache(
+		final CosRangeReader delegate,
+		final long maxBytes,
+		final int blockSize
+	)
+	{
+		this.delegate = delegate;
+		this.blockSize = blockSize;
+		this.maxRangeLength = maxBytes / MAX_RANGE_FRACTION;
+		
+		final long blocks = Math.max(1, maxBytes / blockSize);
+		final int shardCount = (int)Math.max(1, Math.min(MAX_SHARDS, blocks / MIN_BLOCKS_PER_SHARD));
+		this.shards = new Shard[shardCount];
+		for(int i = 0; i < shardCount; i++)
+		{
+			this.shards[i] = new Shard((int)(blocks / shardCount));
+		}
+	}
+	
+	private Shard shard(final BlockKey key)
+	{
+		return this.shards[Math.floorMod(key.hashCode(), this.shards.length)];
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final long end = offset + length;
+		if(object.getETag() == null || length > this.maxRangeLength || end > object.getSize())
+		{
+			return this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		
+		long position = offset;
+		while(position < end)
+		{
+			final long blockIndex = position / this.blockSize;
+			final int from = (int)(position - blockIndex * this.blockSize);
+			final int count = (int)Math.min(end - position, this.blockSize - from);
+			final BlockKey blockKey = this.blockKey(bucketName, object, blockIndex);
+			if(this.shard(blockKey).copy(blockKey, targetBuffer, from, count))
+			{
+				this.hits.increment();
+				position += count;
+				continue;
+			}
+			
+			// Fetch all consecutive missing blocks of the range at once
+			long missingEnd = blockIndex + 1;
+			while(missingEnd * this.blockSize < end && !this.contains(this.blockKey(bucketName, object, missingEnd)))
+			{
+				missingEnd++;
+			}
+			this.misses.add(missingEnd - blockIndex);
+			final long fetchStart = blockIndex * this.blockSize;
+			final long fetchEnd = Math.min(missingEnd * this.blockSize, object.getSize());
+			final ByteBuffer fetched = ByteBuffer.allocate((int)(fetchEnd - fetchStart));
+			if(!this.delegate.read(bucketName, object, fetched, fetchStart, fetched.capacity()))
+			{
+				return false;
+			}
+			for(long index = blockIndex; index < missingEnd; index++)
+			{
+				final int blockStart = (int)((index - blockIndex) * this.blockSize);
+				final BlockKey fetchedKey = this.blockKey(bucketName, object, index);
+				this.shard(fetchedKey).put(
+					fetchedKey,
+					CosBuffers.slice(fetched, blockStart, Math.min(this.blockSize, fetched.capacity() - blockStart))
+				);
+			}
+			
+			final int copyLength = (int)(Math.min(end, fetchEnd) - position);
+			targetBuffer.put(CosBuffers.slice(fetched, (int)(position - fetchStart), copyLength));
+			position += copyLength;
+		}
+		return true;
+	}
+	
+	private boolean contains(final BlockKey key)
+	{
+		return this.shard(key).contains(key);
+	}
+	
+	private BlockKey blockKey(final String bucketName, final S3ObjectSummary object, final long index)
+	{
+		return new BlockKey(bucketName, object.getKey(), object.getETag(), index);
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		final Set<String> keySet = new HashSet<>(keys);
+		for(final Shard shard : this.shards)
+		{
+			shard.invalidate(bucketName, keySet);
+		}
+		this.delegate.invalidate(bucketName, keys);
+	}
+	
+	CosCacheStatistics statistics()
+	{
+		return new CosCacheStatistics(
+			this.hits.sum(),
+			this.misses.sum(),
+			this.evictions.sum(),
+			this.usedBytes.get()
+		);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+/**
+ * Defines how long a caching {@link CosConnector} trusts the metadata (blobs of files, child listings and existing
+ * directories) it has seen.
+ */
+public enum CosMetadataCacheMode
+{
+	/**
+	 * Nothing is cached, every lookup is a request to the COS.
+	 */
+	DISABLED,
+	/**
+	 * Entries expire after the {@link CosConnectorConfiguration#withMetadataCacheTtlMillis(long) TTL}, so changes of
+	 * other writers become visible after that time at the latest. Suited for read-only replicas.
+	 */
+	TTL,
+	/**
+	 * Entries never expire. The connector keeps them current with its own mutations, which requires it to be the only
+	 * writer of the bucket.
+	 */
+	AUTHORITATIVE
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.slf4j.Logger;
+
+import com.ibm.cloud.objectstorage.AmazonServiceException;
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.PartETag;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartRequest;
+
+
+/**
+ * Uploads a single object from a list of {@link ByteBuffer}s with the multipart API of the COS.
+ * <p>
+ * The parts are slices of the source buffers and are uploaded concurrently. A failed part is retried on its own,
+ * unless the COS rejected the request itself. If it still fails, the parts which have not started yet are skipped
+ * and the whole upload is aborted once the running ones are done, so no incomplete upload is left behind in the
+ * bucket.
+ * </p>
+ */
+final class CosMultipartUpload
+{
+	private static final Logger LOGGER = Logging.getLogger(CosMultipartUpload.class);
+	
+	/**
+	 * The COS allows at most 10.000 parts per upload.
+	 */
+	static final int MAX_PARTS = 10_000;
+	/**
+	 * The COS requires all parts but the last to be at least 5 MiB.
+	 */
+	static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	
+	private final AmazonS3 s3;
+	private final Executor executor;
+	private final long partSize;
+	private final int partRetries;
+	private final CosIoScheduler scheduler;
+	
+	CosMultipartUpload(
+		final AmazonS3 s3,
+		final Executor executor,
+		final long partSize,
+		final int partRetries,
+		final CosIoScheduler scheduler
+	)
+	{
+		this.s3 = s3;
+		this.executor = executor;
+		this.partSize = partSize;
+		this.partRetries = partRetries;
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Uploads the remaining bytes of the source buffers as one object. The buffers themselves are not modified.
+	 *
+	 * @return the ETag of the created object
+	 */
+	String upload(
+		final String bucketName,
+		final String key,
+		final Iterable<? extends ByteBuffer> sourceBuffers,
+		final long totalSize
+	)
+	{
+		final List<List<ByteBuffer>> parts = split(sourceBuffers, this.effectivePartSize(totalSize));
+		final String uploadId = this.scheduler.execute(
+			CosIoClass.COMMIT_WRITE,
+			() -> this.s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key))
+		).getUploadId();
+		
+		final List<CompletableFuture<PartETag>> uploads = new ArrayList<>(parts.size());
+		final AtomicBoolean failed = new AtomicBoolean();
+		try
+		{
+			for(int i = 0; i < parts.size(); i++)
+			{
+				final int partNumber = i + 1;
+				final List<ByteBuffer> part = parts.get(i);
+				uploads.add(
+					CompletableFuture.supplyAsync(
+						() -> failed.get()
+							? null
+							: this.uploadPart(bucketName, key, uploadId, partNumber, part),
+						this.executor
+					)
+					.whenComplete((partETag, partFailure) ->
+					{
+						if(partFailure != null)
+						{
+							failed.set(true);
+						}
+					})
+				);
+			}
+			CosFutures.join(CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)));
+			
+			final List<PartETag> partETags = uploads.stream()
+				.map(CompletableFuture::join)
+				.collect(Collectors.toList());
+			return this.scheduler.execute(
+				CosIoClass.COMMIT_WRITE,
+				() -> this.s3.completeMultipartUpload(
+					new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags)
+				)
+			).getETag();
+		}
+		catch(final RuntimeException e)
+		{
+			failed.set(true);
+			// Running parts can't be stopped, the abort must not overtake them
+			CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new))
+				.handle((result, partFailure) -> null)
+				.join();
+			this.abort(bucketName, key, uploadId, e);
+			throw e;
+		}
+	}
+	
+	private long effectivePartSize(final long totalSize)
+	{
+		final long minimumForMaxParts = (totalSize + MAX_PARTS - 1) / MAX_PARTS;
+		return Math.max(Math.max(this.partSize, MIN_PART_SIZE), minimumForMaxParts);
+	}
+	
+	private PartETag uploadPart(
+		final String bucketName,
+		final String key,
+		final String uploadId,
+		final int partNumber,
+		final List<ByteBuffer> part
+	)
+	{
+		final long size = part.stream().mapToLong(ByteBuffer::remaining).sum();
+		for(int attempt = 0; ; attempt++)
+		{
+			try
+			{
+				final UploadPartRequest request = new UploadPartRequest()
+					.withBucketName(bucketName)
+					.withKey(key)
+					.withUploadId(uploadId)
+					.withPartNumber(partNumber)
+					.withPartSize(size)
+					// Every attempt starts at the beginning of the part
+					.withInputStream(CosByteBufferInputStream.New(part));
+				return this.scheduler.execute(CosIoClass.COMMIT_WRITE, () -> this.s3.uploadPart(request))
+					.getPartETag();
+			}
+			catch(final SdkClientException e)
+			{
+				if(attempt >= this.partRetries || isRejected(e))
+				{
+					throw e;
+				}
+				LOGGER.debug("Retrying part {} of upload {} for {}", partNumber, uploadId, key, e);
+			}
+		}
+	}
+	
+	/**
+	 * @return if the COS rejected the request itself, e.g. because the upload doesn't exist anymore, so a retry
+	 * would fail the same way
+	 */
+	private static boolean isRejected(final SdkClientException exception)
+	{
+		if(!(exception instanceof AmazonServiceException))
+		{
+			return false;
+		}
+		final int statusCode = ((AmazonServiceException)exception).getStatusCode();
+		return statusCode >= 400 && statusCode < 500;
+	}
+	
+	private void abort(
+		final String bucketName,
+		final String key,
+		final String uploadId,
+		final RuntimeException cause
+	)
+	{
+		try
+		{
+			this.scheduler.run(
+				CosIoClass.COMMIT_WRITE,
+				() -> this.s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId))
+			);
+		}
+		catch(final RuntimeException e)
+		{
+			cause.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * Splits the remaining bytes of the buffers into parts of the given size. Parts may span multiple buffers.
+	 */
+	static List<List<ByteBuffer>> split(
+		final Iterable<? extends ByteBuffer> sourceBuffers,
+		final long partSize
+	)
+	{
+		final List<List<ByteBuffer>> parts = new ArrayList<>();
+		List<ByteBuffer> currentPart = new ArrayList<>();
+		long currentPartSize = 0;
+		for(final ByteBuffer buffer : sourceBuffers)
+		{
+			int index = buffer.position();
+			while(index < buffer.limit())
+			{
+				final int length = (int)Math.min(buffer.limit() - index, partSize - currentPartSize);
+				currentPart.add(CosBuffers.slice(buffer, index, length));
+				currentPartSize += length;
+				index += length;
+				if(currentPartSize == partSize)
+				{
+					parts.add(currentPart);
+					currentPart = new ArrayList<>();
+					currentPartSize = 0;
+				}
+			}
+		}
+		if(!currentPart.isEmpty())
+		{
+			parts.add(currentPart);
+		}
+		return parts;
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AmazonS3Exception;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.S3Object;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectInputStream;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Reads ranges of objects with ranged {@code GET} requests. Large ranges can optionally be split into chunks which
+ * are fetched concurrently, slow requests can optionally be {@link CosHedging hedged}.
+ */
+final class CosObjectReader implements CosRangeReader
+{
+	private static final int HTTP_NOT_FOUND = 404;
+	
+	private final AmazonS3 s3;
+	private final Executor executor;
+	private final boolean parallelReads;
+	private final long parallelReadChunkSize;
+	private final boolean matchETags;
+	private final CosHedging hedging;
+	private final long hedgingMaxRangeSize;
+	private final CosIoScheduler scheduler;
+	
+	/**
+	 * @param matchETags if objects are only read if they still have the expected ETag, which is needed when
+	 *                   objects can be replaced under the same key
+	 * @param hedging    duplicates slow requests, or <code>null</code>
+	 * @param scheduler  admits the requests as interactive reads
+	 */
+	CosObjectReader(
+		final AmazonS3 s3,
+		final Executor executor,
+		final CosConnectorConfiguration configuration,
+		final boolean matchETags,
+		final CosHedging hedging,
+		final CosIoScheduler scheduler
+	)
+	{
+		this.s3 = s3;
+		this.executor = executor;
+		this.parallelReads = configuration.isParallelReads();
+		this.parallelReadChunkSize = configuration.getParallelReadChunkSize();
+		this.matchETags = matchETags;
+		this.hedging = hedging;
+		this.hedgingMaxRangeSize = configuration.getHedgingMaxRangeSize();
+		this.scheduler = scheduler;
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final String key = object.getKey();
+		final String requiredETag = this.matchETags
+			? object.getETag()
+			: null;
+		if(this.parallelReads && length > this.parallelReadChunkSize)
+		{
+			return this.readRangeInParallel(bucketName, key, requiredETag, targetBuffer, offset, length);
+		}
+		return this.readRange(bucketName, key, requiredETag, targetBuffer, offset, length, null);
+	}
+	
+	/**
+	 * Splits the range into chunks, which are fetched concurrently. Every chunk is written directly into its own
+	 * slice of the target buffer.
+	 * <p>
+	 * If a chunk fails, the responses of the other chunks are aborted and the chunks which didn't start yet are
+	 * skipped. The failure is only reported once no chunk is running anymore, so nothing is written into the target
+	 * buffer after this method returned.
+	 * </p>
+	 */
+	private boolean readRangeInParallel(
+		final String bucketName,
+		final String key,
+		final String eTag,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final long chunkSize = this.parallelReadChunkSize;
+		final int position = targetBuffer.position();
+		final List<CosCancellation> cancellations = Stream.generate(CosCancellation::new)
+			.limit((length + chunkSize - 1) / chunkSize)
+			.collect(Collectors.toList());
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final List<CompletableFuture<Boolean>> chunks = new ArrayList<>();
+		for(int chunk = 0; chunk < cancellations.size(); chunk++)
+		{
+			final long chunkOffset = chunk * chunkSize;
+			final long chunkLength = Math.min(chunkSize, length - chunkOffset);
+			final ByteBuffer chunkBuffer = CosBuffers.slice(
+				targetBuffer,
+				position + (int)chunkOffset,
+				(int)chunkLength
+			);
+			final long chunkStart = offset + chunkOffset;
+			final CosCancellation cancellation = cancellations.get(chunk);
+			chunks.add(CompletableFuture.supplyAsync(
+				() -> this.readChunk(bucketName, key, eTag, chunkBuffer, chunkStart, chunkLength, cancellation),
+				this.executor
+			).whenComplete((result, chunkFailure) ->
+			{
+				if(chunkFailure != null && failure.compareAndSet(null, chunkFailure))
+				{
+					cancellations.forEach(CosCancellation::cancel);
+				}
+			}));
+		}
+		// Waits for all chunks, also for the ones which are still running after a failure
+		CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new))
+			.handle((result, chunkFailure) -> null)
+			.join();
+		if(failure.get() != null)
+		{
+			throw CosFutures.unwrap(failure.get());
+		}
+		if(!chunks.stream().allMatch(CompletableFuture::join))
+		{
+			return false;
+		}
+		targetBuffer.position(position + (int)length);
+		return true;
+	}
+	
+	private boolean readChunk(
+		final String bucketName,
+		final String key,
+		final String eTag,
+		final ByteBuffer chunkBuffer,
+		final long offset,
+		final long length,
+		final CosCancellation cancellation
+	)
+	{
+		try
+		{
+			// Another chunk may have failed before this one started
+			if(cancellation.isCancelled())
+			{
+				throw new SdkClientException("Read of " + key + " was cancelled");
+			}
+			return this.readRange(bucketName, key, eTag, chunkBuffer, offset, length, cancellation);
+		}
+		finally
+		{
+			cancellation.finish();
+		}
+	}
+	
+	/**
+	 * @param eTag         if not <code>null</code>, the object is only read if it still has this ETag
+	 * @param cancellation aborts the response when cancelled, or <code>null</code>
+	 */
+	private boolean readRange(
+		final String bucketName,
+		final String key,
+		final String eTag,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length,
+		final CosCancellation cancellation
+	)
+	{
+		if(this.hedging == null || length > this.hedgingMaxRangeSize)
+		{
+			return this.getRange(bucketName, key, eTag, targetBuffer, offset, length, cancellation);
+		}
+		// Every request needs its own buffer, since the cancelled one may still be writing
+		final ByteBuffer data = this.hedging.execute(attemptCancellation ->
+		{
+			final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+			return this.getRange(bucketName, key, eTag, buffer, offset, length, attemptCancellation)
+				? buffer.flip()
+				: null;
+		});
+		if(data == null)
+		{
+			return false;
+		}
+		targetBuffer.put(data);
+		return true;
+	}
+	
+	/**
+	 * @param cancellation aborts the response when cancelled, or <code>null</code>
+	 */
+	private boolean getRange(
+		final String bucketName,
+		final String key,
+		final String eTag,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length,
+		final CosCancellation cancellation
+	)
+	{
+		// The connection is held until the content is read, not only until the response arrives
+		return this.scheduler.execute(
+			CosIoClass.INTERACTIVE_READ,
+			() -> this.fetchRange(bucketName, key, eTag, targetBuffer, offset, length, cancellation)
+		);
+	}
+	
+	private boolean fetchRange(
+		final String bucketName,
+		final String key,
+		final String eTag,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length,
+		final CosCancellation cancellation
+	)
+	{
+		final GetObjectRequest request = new GetObjectRequest(bucketName, key)
+			.withRange(offset, offset + length - 1);
+		if(eTag != null)
+		{
+			request.withMatchingETagConstraint(eTag);
+		}
+		try(final S3Object object = this.s3.getObject(request))
+		{
+			if(object == null)
+			{
+				// The ETag didn't match
+				return false;
+			}
+			final S3ObjectInputStream content = object.getObjectContent();
+			if(cancellation != null)
+			{
+				cancellation.onCancel(content::abort);
+			}
+			try
+			{
+				CosBuffers.readFully(content, targetBuffer, length);
+			}
+			catch(final IOException | RuntimeException e)
+			{
+				// Don't drain the rest of the response when closing
+				content.abort();
+				throw e;
+			}
+			return true;
+		}
+		catch(final AmazonS3Exception e)
+		{
+			if(eTag != null && e.getStatusCode() == HTTP_NOT_FOUND)
+			{
+				return false;
+			}
+			throw e;
+		}
+		catch(final IOException e)
+		{
+			throw new SdkClientException(e);
+		}
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		// Nothing is cached
+	}
+}
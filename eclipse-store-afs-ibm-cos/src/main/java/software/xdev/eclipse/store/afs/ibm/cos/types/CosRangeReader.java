@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Reads byte ranges of objects. Caches and other optimizations are stacked as decorators on top of the
+ * {@link CosObjectReader}, which makes the actual requests.
+ */
+interface CosRangeReader
+{
+	/**
+	 * Reads {@code length} bytes at {@code offset} of the object into the target buffer, starting at its position.
+	 * The position is advanced by the read bytes.
+	 *
+	 * @param object the object as it was listed or written, with its key, ETag and size
+	 * @return if the object was read, <code>false</code> if it doesn't exist anymore or has another ETag. The
+	 * content of the target buffer is undefined in this case.
+	 */
+	boolean read(String bucketName, S3ObjectSummary object, ByteBuffer targetBuffer, long offset, long length);
+	
+	/**
+	 * Is called after objects were deleted or replaced, so no data of them is served anymore.
+	 */
+	void invalidate(String bucketName, Collection<String> keys);
+}
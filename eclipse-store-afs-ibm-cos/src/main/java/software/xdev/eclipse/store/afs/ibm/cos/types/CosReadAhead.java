@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.slf4j.Logger;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Detects sequential reads of an object and fetches the following chunks in the background, so a scan doesn't wait
+ * for a full round-trip per read.
+ * <p>
+ * The read-ahead window of an object starts with the second consecutive read and doubles with every further one up
+ * to a maximum. A read at any other offset drops the prefetched chunks and starts over. All prefetched chunks share a
+ * bounded buffer, chunks which don't fit are simply not prefetched.
+ * </p>
+ */
+final class CosReadAhead implements CosRangeReader, AutoCloseable
+{
+	private static final Logger LOGGER = Logging.getLogger(CosReadAhead.class);
+	
+	/**
+	 * Number of objects whose access pattern is tracked, the least recently read ones are forgotten.
+	 */
+	private static final int MAX_STREAMS = 256;
+	
+	/**
+	 * Access pattern and prefetched chunks of a single object.
+	 */
+	private static final class Stream
+	{
+		final String bucketName;
+		final String key;
+		long nextOffset = -1;
+		long window;
+		long prefetchedEnd;
+		/**
+		 * Prefetched chunks by their offset. They never overlap.
+		 */
+		final NavigableMap<Long, Chunk> chunks = new TreeMap<>();
+		
+		Stream(final String bucketName, final String key)
+		{
+			this.bucketName = bucketName;
+			this.key = key;
+		}
+	}
+	
+	private static final class Chunk
+	{
+		final int length;
+		/**
+		 * The content, or <code>null</code> if the object was modified.
+		 */
+		final CompletableFuture<ByteBuffer> data;
+		
+		Chunk(final int length, final CompletableFuture<ByteBuffer> data)
+		{
+			this.length = length;
+			this.data = data;
+		}
+	}
+	
+	private final CosRangeReader delegate;
+	private final ExecutorService executor;
+	private final long chunkSize;
+	private final long maxWindow;
+	private final long maxBytes;
+	private final AtomicLong reservedBytes = new AtomicLong();
+	private final Map<String, Stream> streams = new LinkedHashMap<>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Stream> eldest)
+		{
+			if(this.size() > MAX_STREAMS)
+			{
+				synchronized(eldest.getValue())
+				{
+					CosReadAhead.this.dropChunks(eldest.getValue());
+				}
+				return true;
+			}
+			return false;
+		}
+	};
+	
+	CosReadAhead(
+		final CosRangeReader delegate,
+		final CosConnectorConfiguration configuration
+	)
+	{
+		this.delegate = delegate;
+		this.executor = CosFutures.newBoundedExecutor("CosConnector-read-ahead", configuration.getIoThreads());
+		this.chunkSize = configuration.getReadAheadChunkSize();
+		this.maxWindow = configuration.getReadAheadMaxWindow();
+		this.maxBytes = configuration.getReadAheadBufferSize();
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final long end = offset + length;
+		if(object.getETag() == null || end > object.getSize())
+		{
+			return this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		
+		final Stream stream = this.stream(bucketName, object);
+		final NavigableMap<Long, Chunk> usedChunks;
+		final List<Chunk> consumedChunks = new ArrayList<>();
+		synchronized(stream)
+		{
+			if(offset == stream.nextOffset)
+			{
+				stream.window = Math.min(Math.max(stream.window * 2, this.chunkSize), this.maxWindow);
+			}
+			else
+			{
+				this.dropChunks(stream);
+				stream.window = 0;
+				stream.prefetchedEnd = end;
+			}
+			stream.nextOffset = end;
+			
+			final Long first = stream.chunks.floorKey(offset);
+			usedChunks = new TreeMap<>(stream.chunks.subMap(first != null ? first : offset, true, end, false));
+			for(final Map.Entry<Long, Chunk> chunk : usedChunks.entrySet())
+			{
+				if(chunk.getKey() + chunk.getValue().length <= end)
+				{
+					stream.chunks.remove(chunk.getKey());
+					consumedChunks.add(chunk.getValue());
+				}
+			}
+			this.prefetch(bucketName, object, stream, end);
+		}
+		
+		try
+		{
+			return this.serve(bucketName, object, targetBuffer, offset, end, usedChunks);
+		}
+		finally
+		{
+			consumedChunks.forEach(this::release);
+		}
+	}
+	
+	private synchronized Stream stream(final String bucketName, final S3ObjectSummary object)
+	{
+		return this.streams.computeIfAbsent(
+			bucketName + '/' + object.getKey() + '\n' + object.getETag(),
+			k -> new Stream(bucketName, object.getKey())
+		);
+	}
+	
+	/**
+	 * Schedules the chunks after the end of the current read until the window is filled.
+	 */
+	private void prefetch(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final Stream stream,
+		final long end
+	)
+	{
+		stream.prefetchedEnd = Math.max(stream.prefetchedEnd, end);
+		final long windowEnd = Math.min(end + stream.window, object.getSize());
+		while(stream.prefetchedEnd < windowEnd)
+		{
+			final long chunkOffset = stream.prefetchedEnd;
+			final int chunkLength = (int)Math.min(this.chunkSize, object.getSize() - chunkOffset);
+			if(this.reservedBytes.addAndGet(chunkLength) > this.maxBytes)
+			{
+				this.reservedBytes.addAndGet(-chunkLength);
+				return;
+			}
+			stream.chunks.put(chunkOffset, new Chunk(chunkLength, CompletableFuture.supplyAsync(
+				() ->
+				{
+					final ByteBuffer data = ByteBuffer.allocate(chunkLength);
+					return this.delegate.read(bucketName, object, data, chunkOffset, chunkLength)
+						? data.flip()
+						: null;
+				},
+				this.executor
+			)));
+			stream.prefetchedEnd += chunkLength;
+		}
+	}
+	
+	/**
+	 * Copies the range from the prefetched chunks, the parts which weren't prefetched are read directly.
+	 */
+	private boolean serve(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long end,
+		final NavigableMap<Long, Chunk> usedChunks
+	)
+	{
+		long position = offset;
+		for(final Map.Entry<Long, Chunk> chunk : usedChunks.entrySet())
+		{
+			final long chunkOffset = chunk.getKey();
+			if(chunkOffset > position)
+			{
+				if(!this.delegate.read(bucketName, object, targetBuffer, position, chunkOffset - position))
+				{
+					return false;
+				}
+				position = chunkOffset;
+			}
+			
+			final ByteBuffer data;
+			try
+			{
+				data = CosFutures.join(chunk.getValue().data);
+			}
+			catch(final RuntimeException e)
+			{
+				// Read the range directly, so the failure shows up there if it persists
+				LOGGER.debug("Prefetching {} at {} failed", object.getKey(), chunkOffset, e);
+				continue;
+			}
+			if(data == null)
+			{
+				return false;
+			}
+			final long copyEnd = Math.min(end, chunkOffset + data.limit());
+			targetBuffer.put(CosBuffers.slice(data, (int)(position - chunkOffset), (int)(copyEnd - position)));
+			position = copyEnd;
+		}
+		return position >= end || this.delegate.read(bucketName, object, targetBuffer, position, end - position);
+	}
+	
+	private void dropChunks(final Stream stream)
+	{
+		stream.chunks.values().forEach(chunk ->
+		{
+			chunk.data.cancel(false);
+			this.release(chunk);
+		});
+		stream.chunks.clear();
+	}
+	
+	/**
+	 * Releases the reservation of the chunk, once it left its stream and was used.
+	 */
+	private void release(final Chunk chunk)
+	{
+		this.reservedBytes.addAndGet(-chunk.length);
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		final Set<String> keySet = new HashSet<>(keys);
+		synchronized(this)
+		{
+			this.streams.values().removeIf(stream ->
+			{
+				if(stream.bucketName.equals(bucketName) && keySet.contains(stream.key))
+				{
+					synchronized(stream)
+					{
+						this.dropChunks(stream);
+					}
+					return true;
+				}
+				return false;
+			});
+		}
+		this.delegate.invalidate(bucketName, keys);
+	}
+	
+	@Override
+	public void close()
+	{
+		this.executor.shutdownNow();
+	}
+}
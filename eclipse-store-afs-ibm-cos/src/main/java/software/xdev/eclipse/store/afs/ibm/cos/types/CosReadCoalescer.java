@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Merges concurrent reads of nearby ranges of the same object into a single ranged request.
+ * <p>
+ * The first read of an object opens a batch and waits for the window. Reads of the same object which overlap the
+ * batch or are at most the maximum gap away from it join the batch, as long as it doesn't exceed its maximum size.
+ * The leader then reads the whole span, every member copies its own range out of it. Reads which can't join are
+ * executed directly.
+ * </p>
+ */
+final class CosReadCoalescer implements CosRangeReader
+{
+	private final CosRangeReader delegate;
+	private final long windowNanos;
+	private final long maxGap;
+	private final long maxSize;
+	/**
+	 * The batch of each object which can still be joined. Guarded by this.
+	 */
+	private final Map<String, Batch> openBatches = new HashMap<>();
+	
+	CosReadCoalescer(final CosRangeReader delegate, final CosConnectorConfiguration configuration)
+	{
+		this.delegate = delegate;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getReadCoalescingWindowMillis());
+		this.maxGap = configuration.getReadCoalescingMaxGap();
+		this.maxSize = configuration.getReadCoalescingMaxSize();
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		if(length >= this.maxSize)
+		{
+			return this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		
+		final String objectKey = objectKey(bucketName, object);
+		final Batch batch;
+		final boolean leader;
+		synchronized(this)
+		{
+			final Batch openBatch = this.openBatches.get(objectKey);
+			if(openBatch == null)
+			{
+				batch = new Batch(System.nanoTime() + this.windowNanos, offset, offset + length);
+				this.openBatches.put(objectKey, batch);
+				leader = true;
+			}
+			else if(this.join(openBatch, offset, length))
+			{
+				batch = openBatch;
+				leader = false;
+			}
+			else
+			{
+				batch = null;
+				leader = false;
+			}
+		}
+		if(batch == null)
+		{
+			return this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		
+		if(leader)
+		{
+			this.awaitClosing(objectKey, batch);
+			if(batch.members == 1)
+			{
+				// Nobody joined, no need for a copy
+				final boolean read = this.delegate.read(bucketName, object, targetBuffer, offset, length);
+				batch.data.complete(null);
+				return read;
+			}
+			this.readSpan(bucketName, object, batch);
+		}
+		
+		final ByteBuffer data = CosFutures.join(batch.data);
+		if(data == null)
+		{
+			return false;
+		}
+		final ByteBuffer range = data.duplicate();
+		range.position(Math.toIntExact(offset - batch.start));
+		range.limit(Math.toIntExact(offset - batch.start + length));
+		targetBuffer.put(range);
+		return true;
+	}
+	
+	private static String objectKey(final String bucketName, final S3ObjectSummary object)
+	{
+		return bucketName + '/' + object.getKey() + '\n' + object.getETag();
+	}
+	
+	/**
+	 * Extends the batch by the range if it is near enough and the batch doesn't get too large.
+	 */
+	private boolean join(final Batch batch, final long offset, final long length)
+	{
+		final long end = offset + length;
+		if(offset > batch.end + this.maxGap || end < batch.start - this.maxGap)
+		{
+			return false;
+		}
+		final long start = Math.min(batch.start, offset);
+		final long newEnd = Math.max(batch.end, end);
+		if(newEnd - start > this.maxSize)
+		{
+			return false;
+		}
+		batch.start = start;
+		batch.end = newEnd;
+		batch.members++;
+		return true;
+	}
+	
+	private synchronized void awaitClosing(final String objectKey, final Batch batch)
+	{
+		long remainingNanos = batch.closesAt - System.nanoTime();
+		while(remainingNanos > 0)
+		{
+			try
+			{
+				TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+			}
+			catch(final InterruptedException e)
+			{
+				// Reads right away, the members are waiting for it
+				Thread.currentThread().interrupt();
+				break;
+			}
+			remainingNanos = batch.closesAt - System.nanoTime();
+		}
+		this.openBatches.remove(objectKey, batch);
+	}
+	
+	private void readSpan(final String bucketName, final S3ObjectSummary object, final Batch batch)
+	{
+		try
+		{
+			final ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(batch.end - batch.start));
+			final boolean read = this.delegate.read(bucketName, object, data, batch.start, data.capacity());
+			batch.data.complete(read ? data.flip() : null);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			batch.data.completeExceptionally(e);
+		}
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		this.delegate.invalidate(bucketName, keys);
+	}
+	
+	private static final class Batch
+	{
+		final long closesAt;
+		/**
+		 * The whole span, or <code>null</code> if the object was not read.
+		 */
+		final CompletableFuture<ByteBuffer> data = new CompletableFuture<>();
+		long start;
+		long end;
+		int members = 1;
+		
+		Batch(final long closesAt, final long start, final long end)
+		{
+			this.closesAt = closesAt;
+			this.start = start;
+			this.end = end;
+		}
+	}
+}
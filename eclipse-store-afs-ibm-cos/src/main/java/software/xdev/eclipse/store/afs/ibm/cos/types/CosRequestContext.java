@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+/**
+ * Holds the priority of the requests which the current thread sends.
+ * <p>
+ * Requests are foreground requests by default. Requests within {@link #runInBackground(Runnable)} are background
+ * requests, which e.g. a rate limit only lets through if enough is left for the foreground. Work which background
+ * work hands to the executors of the {@link CosConnector} stays background work.
+ * </p>
+ */
+public final class CosRequestContext
+{
+	/**
+	 * Blocks the current thread, e.g. until a rate limit lets the request through.
+	 */
+	@FunctionalInterface
+	public interface Wait
+	{
+		void await() throws InterruptedException;
+	}
+	
+	private static final ThreadLocal<Boolean> BACKGROUND = ThreadLocal.withInitial(() -> Boolean.FALSE);
+	
+	/**
+	 * Executes the work with the priority of background requests.
+	 */
+	public static void runInBackground(final Runnable work)
+	{
+		final Boolean background = BACKGROUND.get();
+		BACKGROUND.set(Boolean.TRUE);
+		try
+		{
+			work.run();
+		}
+		finally
+		{
+			BACKGROUND.set(background);
+		}
+	}
+	
+	/**
+	 * @return if the requests of the current thread are background requests
+	 */
+	public static boolean isBackground()
+	{
+		return BACKGROUND.get();
+	}
+	
+	/**
+	 * @return the task, which keeps the priority of the current thread when it is executed by another thread
+	 */
+	static Runnable withCurrentPriority(final Runnable task)
+	{
+		return isBackground()
+			? () -> runInBackground(task)
+			: task;
+	}
+	
+	/**
+	 * Waits while the current request is sent. The request gives its connection slot back in the meantime, so
+	 * other requests can use the connection.
+	 */
+	public static void awaitWithoutSlot(final Wait wait) throws InterruptedException
+	{
+		CosIoScheduler.awaitWithoutSlot(wait);
+	}
+	
+	private CosRequestContext()
+	{
+	}
+}
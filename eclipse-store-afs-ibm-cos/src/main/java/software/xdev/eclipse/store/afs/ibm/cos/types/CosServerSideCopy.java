@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.PartETag;
+
+
+/**
+ * Copies objects or ranges of objects inside the COS, without transferring the data through the client.
+ * <p>
+ * Whole objects up to 5 GiB are copied with a single {@code copyObject} request. Larger objects and ranges are
+ * copied with a multipart upload whose parts are {@code UploadPartCopy} requests, executed concurrently. If a part
+ * fails, the parts which have not started yet are skipped and the upload is aborted once the running ones are done.
+ * </p>
+ */
+final class CosServerSideCopy
+{
+	/**
+	 * The COS copies objects of at most 5 GiB with a single request.
+	 */
+	static final long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+	
+	private final AmazonS3 s3;
+	private final Executor executor;
+	private final long partSize;
+	private final CosIoScheduler scheduler;
+	
+	CosServerSideCopy(
+		final AmazonS3 s3,
+		final Executor executor,
+		final long partSize,
+		final CosIoScheduler scheduler
+	)
+	{
+		this.s3 = s3;
+		this.executor = executor;
+		this.partSize = partSize;
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * @return if the range can be copied with a single request, which doesn't need any other thread
+	 */
+	static boolean isSingleCopy(final long sourceSize, final long offset, final long length)
+	{
+		return offset == 0 && length == sourceSize && length <= MAX_SINGLE_COPY_SIZE;
+	}
+	
+	/**
+	 * Copies {@code length} bytes starting at {@code offset} of the source object into a new target object.
+	 *
+	 * @return the ETag of the target object
+	 */
+	String copy(
+		final String sourceBucketName,
+		final String sourceKey,
+		final long sourceSize,
+		final long offset,
+		final long length,
+		final String targetBucketName,
+		final String targetKey
+	)
+	{
+		if(isSingleCopy(sourceSize, offset, length))
+		{
+			return this.scheduler.execute(
+				CosIoClass.BACKGROUND_MAINTENANCE,
+				() -> this.s3.copyObject(
+					new CopyObjectRequest(sourceBucketName, sourceKey, targetBucketName, targetKey)
+				)
+			).getETag();
+		}
+		
+		final String uploadId = this.scheduler.execute(
+			CosIoClass.BACKGROUND_MAINTENANCE,
+			() -> this.s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(targetBucketName, targetKey))
+		).getUploadId();
+		final List<CompletableFuture<PartETag>> parts = new ArrayList<>();
+		final AtomicBoolean failed = new AtomicBoolean();
+		try
+		{
+			int partNumber = 1;
+			for(long partOffset = 0; partOffset < length; partOffset += this.partSize)
+			{
+				final CopyPartRequest request = new CopyPartRequest()
+					.withSourceBucketName(sourceBucketName)
+					.withSourceKey(sourceKey)
+					.withDestinationBucketName(targetBucketName)
+					.withDestinationKey(targetKey)
+					.withUploadId(uploadId)
+					.withPartNumber(partNumber++)
+					.withFirstByte(offset + partOffset)
+					.withLastByte(offset + Math.min(partOffset + this.partSize, length) - 1);
+				parts.add(
+					CompletableFuture.supplyAsync(
+						() -> failed.get()
+							? null
+							: this.scheduler.execute(
+								CosIoClass.BACKGROUND_MAINTENANCE,
+								() -> this.s3.copyPart(request)
+							).getPartETag(),
+						this.executor
+					)
+					.whenComplete((partETag, partFailure) ->
+					{
+						if(partFailure != null)
+						{
+							failed.set(true);
+						}
+					})
+				);
+			}
+			CosFutures.join(CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)));
+			
+			final CompleteMultipartUploadRequest request = new CompleteMultipartUploadRequest(
+				targetBucketName,
+				targetKey,
+				uploadId,
+				parts.stream().map(CompletableFuture::join).collect(Collectors.toList())
+			);
+			return this.scheduler.execute(
+				CosIoClass.BACKGROUND_MAINTENANCE,
+				() -> this.s3.completeMultipartUpload(request)
+			).getETag();
+		}
+		catch(final RuntimeException e)
+		{
+			failed.set(true);
+			// Running parts can't be stopped, the abort must not overtake them
+			CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+				.handle((result, partFailure) -> null)
+				.join();
+			try
+			{
+				this.scheduler.run(
+					CosIoClass.BACKGROUND_MAINTENANCE,
+					() -> this.s3.abortMultipartUpload(
+						new AbortMultipartUploadRequest(targetBucketName, targetKey, uploadId)
+					)
+				);
+			}
+			catch(final RuntimeException abortFailure)
+			{
+				e.addSuppressed(abortFailure);
+			}
+			throw e;
+		}
+	}
+}
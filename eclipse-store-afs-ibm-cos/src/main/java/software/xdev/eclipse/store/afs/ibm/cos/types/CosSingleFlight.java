@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+
+/**
+ * Executes identical requests which run at the same time only once. The first caller of a key executes the request,
+ * callers which arrive while it is running wait for its result instead of making their own request.
+ * <p>
+ * After a mutation, the request of the affected key has to be {@link #forget(String) forgotten}, so later callers
+ * don't get a result from before the mutation.
+ * </p>
+ *
+ * @param <T> type of the results
+ */
+final class CosSingleFlight<T>
+{
+	private final ConcurrentMap<String, CompletableFuture<T>> flights = new ConcurrentHashMap<>();
+	
+	T execute(final String key, final Supplier<T> request)
+	{
+		final CompletableFuture<T> flight = new CompletableFuture<>();
+		final CompletableFuture<T> runningFlight = this.flights.putIfAbsent(key, flight);
+		if(runningFlight != null)
+		{
+			return CosFutures.join(runningFlight);
+		}
+		
+		try
+		{
+			final T result = request.get();
+			this.flights.remove(key, flight);
+			flight.complete(result);
+			return result;
+		}
+		catch(final RuntimeException | Error e)
+		{
+			this.flights.remove(key, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Lets later callers of the key make a new request, even if the current one is still running.
+	 */
+	void forget(final String key)
+	{
+		this.flights.remove(key);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Executes identical reads which run at the same time only once.
+ * <p>
+ * The first read of a range reads directly into its own target buffer. Reads of the same range of the same object
+ * version which arrive in the meantime wait for it and copy the data out of that buffer. The leader only returns
+ * after all of them have copied, since its caller may reuse the buffer then.
+ * </p>
+ */
+final class CosSingleFlightReader implements CosRangeReader
+{
+	private final CosRangeReader delegate;
+	/**
+	 * The running read of each range. Guarded by this.
+	 */
+	private final Map<String, Flight> flights = new HashMap<>();
+	
+	CosSingleFlightReader(final CosRangeReader delegate)
+	{
+		this.delegate = delegate;
+	}
+	
+	@Override
+	public boolean read(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final String rangeKey = rangeKey(bucketName, object, offset, length);
+		final Flight runningFlight;
+		final Flight flight = new Flight();
+		synchronized(this)
+		{
+			runningFlight = this.flights.putIfAbsent(rangeKey, flight);
+			if(runningFlight != null)
+			{
+				runningFlight.follow();
+			}
+		}
+		if(runningFlight != null)
+		{
+			return runningFlight.copyTo(targetBuffer);
+		}
+		
+		final int position = targetBuffer.position();
+		final boolean read;
+		try
+		{
+			read = this.delegate.read(bucketName, object, targetBuffer, offset, length);
+		}
+		catch(final RuntimeException | Error e)
+		{
+			this.land(rangeKey, flight);
+			flight.fail(e);
+			throw e;
+		}
+		this.land(rangeKey, flight);
+		final ByteBuffer data = targetBuffer.duplicate();
+		data.limit(targetBuffer.position()).position(position);
+		flight.complete(read ? data : null);
+		return read;
+	}
+	
+	private static String rangeKey(
+		final String bucketName,
+		final S3ObjectSummary object,
+		final long offset,
+		final long length
+	)
+	{
+		return bucketName + '/' + object.getKey() + '\n' + object.getETag() + '\n' + offset + '+' + length;
+	}
+	
+	/**
+	 * Removes the flight, so no more reads can follow it.
+	 */
+	private synchronized void land(final String rangeKey, final Flight flight)
+	{
+		this.flights.remove(rangeKey, flight);
+	}
+	
+	@Override
+	public void invalidate(final String bucketName, final Collection<String> keys)
+	{
+		this.delegate.invalidate(bucketName, keys);
+	}
+	
+	private static final class Flight
+	{
+		private boolean landed;
+		/**
+		 * The read range in the leader's buffer, or <code>null</code> if the object was not read.
+		 */
+		private ByteBuffer data;
+		private Throwable failure;
+		private int followers;
+		
+		synchronized void follow()
+		{
+			this.followers++;
+		}
+		
+		synchronized void complete(final ByteBuffer data)
+		{
+			this.data = data;
+			this.landed = true;
+			this.notifyAll();
+			boolean interrupted = false;
+			while(this.followers > 0)
+			{
+				try
+				{
+					this.wait();
+				}
+				catch(final InterruptedException e)
+				{
+					// The followers are copying out of the buffer, it must not be handed back before
+					interrupted = true;
+				}
+			}
+			this.data = null;
+			if(interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		synchronized void fail(final Throwable failure)
+		{
+			this.failure = failure;
+			this.landed = true;
+			this.notifyAll();
+		}
+		
+		boolean copyTo(final ByteBuffer targetBuffer)
+		{
+			final ByteBuffer range;
+			synchronized(this)
+			{
+				boolean interrupted = false;
+				while(!this.landed)
+				{
+					try
+					{
+						this.wait();
+					}
+					catch(final InterruptedException e)
+					{
+						// The leader waits for this follower, so it must not give up
+						interrupted = true;
+					}
+				}
+				if(interrupted)
+				{
+					Thread.currentThread().interrupt();
+				}
+				if(this.failure != null)
+				{
+					this.followers--;
+					throw CosFutures.unwrap(this.failure);
+				}
+				range = this.data == null
+					? null
+					: this.data.duplicate();
+			}
+			try
+			{
+				if(range != null)
+				{
+					targetBuffer.put(range);
+				}
+				return range != null;
+			}
+			finally
+			{
+				synchronized(this)
+				{
+					this.followers--;
+					this.notifyAll();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.eclipse.serializer.util.logging.Logging;
+import org.slf4j.Logger;
+
+
+/**
+ * Append-only log on the local disk which keeps the data of background uploads until they are complete.
+ * <p>
+ * A write is appended and forced to the disk before it is acknowledged, its completion is appended as a separate
+ * record once the upload is done. The log is split into segments, a segment is deleted as soon as it and all older
+ * segments contain no incomplete writes anymore. Each record ends with a checksum, so a record which was torn by a
+ * crash is detected and ends the segment.
+ * </p>
+ * <p>
+ * On startup, all writes without a completion record are uploaded again in their original order. This is idempotent,
+ * since a write always creates a new blob with its own key.
+ * </p>
+ */
+final class CosSpool implements AutoCloseable
+{
+	private static final Logger LOGGER = Logging.getLogger(CosSpool.class);
+	
+	private static final String SEGMENT_SUFFIX = ".spool";
+	private static final byte WRITE = 1;
+	private static final byte DONE = 2;
+	/**
+	 * Bucket names and keys are much shorter, a larger length can only come from a torn record.
+	 */
+	private static final int MAX_STRING_LENGTH = 64 * 1024;
+	
+	/**
+	 * Uploads a write which was not complete before the restart.
+	 */
+	@FunctionalInterface
+	interface Replay
+	{
+		void upload(String bucketName, String key, ByteBuffer data);
+	}
+	
+	/**
+	 * A write in the spool.
+	 */
+	static final class Record
+	{
+		final long id;
+		final long segment;
+		
+		Record(final long id, final long segment)
+		{
+			this.id = id;
+			this.segment = segment;
+		}
+	}
+	
+	private final Path directory;
+	private final long segmentSize;
+	/**
+	 * Number of incomplete writes of each existing segment.
+	 */
+	private final NavigableMap<Long, Integer> incompleteWrites = new TreeMap<>();
+	private long nextId;
+	private long currentSegment;
+	private FileChannel channel;
+	
+	/**
+	 * Replays the incomplete writes of an earlier run and opens a new segment.
+	 */
+	CosSpool(final Path directory, final long segmentSize, final Replay replay)
+	{
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		try
+		{
+			Files.createDirectories(directory);
+			final List<Path> segments = this.segments();
+			this.recover(segments, replay);
+			for(final Path segment : segments)
+			{
+				Files.delete(segment);
+			}
+			this.openSegment(segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1);
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private List<Path> segments() throws IOException
+	{
+		try(final Stream<Path> files = Files.list(this.directory))
+		{
+			return files
+				.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+				.sorted((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)))
+				.collect(Collectors.toList());
+		}
+	}
+	
+	private Path segmentPath(final long segment)
+	{
+		return this.directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+	}
+	
+	private static long segmentNumber(final Path segment)
+	{
+		final String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+	
+	private void recover(final List<Path> segments, final Replay replay) throws IOException
+	{
+		final List<SpooledWrite> writes = new ArrayList<>();
+		final Set<Long> doneIds = new HashSet<>();
+		for(final Path segment : segments)
+		{
+			scan(segment, writes, doneIds);
+		}
+		
+		final List<SpooledWrite> incomplete = writes.stream()
+			.filter(write -> !doneIds.contains(write.id))
+			.collect(Collectors.toList());
+		if(!incomplete.isEmpty())
+		{
+			LOGGER.info("Uploading {} incomplete writes from the spool {}", incomplete.size(), this.directory);
+		}
+		for(final SpooledWrite write : incomplete)
+		{
+			replay.upload(write.bucketName, write.key, write.readData());
+		}
+		this.nextId = writes.stream().mapToLong(write -> write.id + 1).max().orElse(0);
+	}
+	
+	/**
+	 * Reads the records of a segment up to its end or the first torn record.
+	 */
+	private static void scan(final Path segment, final List<SpooledWrite> writes, final Set<Long> doneIds)
+		throws IOException
+	{
+		long position = 0;
+		try(final InputStream input = new BufferedInputStream(Files.newInputStream(segment)))
+		{
+			while(true)
+			{
+				final CRC32 checksum = new CRC32();
+				final CountingDataInput record = new CountingDataInput(new CheckedInputStream(input, checksum));
+				final byte type;
+				try
+				{
+					type = record.readByte();
+					final long id = record.readLong();
+					SpooledWrite write = null;
+					if(type == WRITE)
+					{
+						final String bucketName = record.readString();
+						final String key = record.readString();
+						final int length = record.readInt();
+						if(length < 0)
+						{
+							throw new IOException("Invalid data length " + length);
+						}
+						write = new SpooledWrite(id, bucketName, key, segment, position + record.count, length);
+						record.skipFully(length);
+					}
+					else if(type != DONE)
+					{
+						throw new IOException("Unknown record type " + type);
+					}
+					final int expectedChecksum = (int)checksum.getValue();
+					if(new DataInputStream(input).readInt() != expectedChecksum)
+					{
+						throw new IOException("Checksum mismatch");
+					}
+					position += record.count + Integer.BYTES;
+					if(write != null)
+					{
+						writes.add(write);
+					}
+					else
+					{
+						doneIds.add(id);
+					}
+				}
+				catch(final EOFException e)
+				{
+					if(record.count > 0)
+					{
+						LOGGER.warn("Ignoring the torn end of the spool segment {} at {}", segment, position);
+					}
+					return;
+				}
+				catch(final IOException e)
+				{
+					LOGGER.warn("Ignoring the spool segment {} from {}: {}", segment, position, e.getMessage());
+					return;
+				}
+			}
+		}
+	}
+	
+	private void openSegment(final long segment) throws IOException
+	{
+		this.currentSegment = segment;
+		this.channel = FileChannel.open(
+			this.segmentPath(segment),
+			StandardOpenOption.CREATE_NEW,
+			StandardOpenOption.WRITE
+		);
+		this.incompleteWrites.put(segment, 0);
+	}
+	
+	/**
+	 * Appends the data of a write and forces it to the disk.
+	 *
+	 * @return the record, which has to be {@link #done(Record) completed} after the upload
+	 */
+	synchronized Record append(final String bucketName, final String key, final ByteBuffer data)
+	{
+		try
+		{
+			if(this.channel.size() >= this.segmentSize)
+			{
+				this.channel.close();
+				this.openSegment(this.currentSegment + 1);
+				this.deleteCompleteSegments();
+			}
+			
+			final byte[] bucketBytes = bucketName.getBytes(StandardCharsets.UTF_8);
+			final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+			final Record record = new Record(this.nextId++, this.currentSegment);
+			final ByteBuffer header = ByteBuffer.allocate(
+				Byte.BYTES + Long.BYTES + 3 * Integer.BYTES + bucketBytes.length + keyBytes.length
+			);
+			header.put(WRITE)
+				.putLong(record.id)
+				.putInt(bucketBytes.length)
+				.put(bucketBytes)
+				.putInt(keyBytes.length)
+				.put(keyBytes)
+				.putInt(data.remaining())
+				.flip();
+			this.appendRecord(header, data.duplicate());
+			this.incompleteWrites.merge(record.segment, 1, Integer::sum);
+			return record;
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Marks the write as uploaded and deletes the segments which are not needed anymore.
+	 */
+	synchronized void done(final Record record)
+	{
+		try
+		{
+			final ByteBuffer done = ByteBuffer.allocate(Byte.BYTES + Long.BYTES);
+			done.put(DONE).putLong(record.id).flip();
+			// Must be durable before the blob may be deleted, a replay would recreate it otherwise
+			this.appendRecord(done, ByteBuffer.allocate(0));
+			this.incompleteWrites.merge(record.segment, -1, Integer::sum);
+			this.deleteCompleteSegments();
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private void appendRecord(final ByteBuffer header, final ByteBuffer data) throws IOException
+	{
+		final CRC32 checksum = new CRC32();
+		checksum.update(header.duplicate());
+		checksum.update(data.duplicate());
+		final ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+		trailer.putInt((int)checksum.getValue()).flip();
+		
+		final ByteBuffer[] buffers = {header, data, trailer};
+		while(trailer.hasRemaining())
+		{
+			this.channel.write(buffers);
+		}
+		this.channel.force(false);
+	}
+	
+	/**
+	 * Deletes the oldest segments as long as they contain no incomplete writes. Younger segments are kept even if
+	 * they are complete, since they may contain the completion records of writes in the older ones.
+	 */
+	private void deleteCompleteSegments() throws IOException
+	{
+		while(this.incompleteWrites.size() > 1)
+		{
+			final Map.Entry<Long, Integer> oldest = this.incompleteWrites.firstEntry();
+			if(oldest.getValue() > 0)
+			{
+				return;
+			}
+			Files.deleteIfExists(this.segmentPath(oldest.getKey()));
+			this.incompleteWrites.remove(oldest.getKey());
+		}
+	}
+	
+	@Override
+	public synchronized void close()
+	{
+		try
+		{
+			this.channel.close();
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static final class SpooledWrite
+	{
+		final long id;
+		final String bucketName;
+		final String key;
+		final Path segment;
+		final long dataPosition;
+		final int dataLength;
+		
+		SpooledWrite(
+			final long id,
+			final String bucketName,
+			final String key,
+			final Path segment,
+			final long dataPosition,
+			final int dataLength
+		)
+		{
+			this.id = id;
+			this.bucketName = bucketName;
+			this.key = key;
+			this.segment = segment;
+			this.dataPosition = dataPosition;
+			this.dataLength = dataLength;
+		}
+		
+		ByteBuffer readData() throws IOException
+		{
+			final ByteBuffer data = ByteBuffer.allocate(this.dataLength);
+			try(final FileChannel channel = FileChannel.open(this.segment, StandardOpenOption.READ))
+			{
+				while(data.hasRemaining())
+				{
+					if(channel.read(data, this.dataPosition + data.position()) < 0)
+					{
+						throw new EOFException();
+					}
+				}
+			}
+			return data.flip();
+		}
+	}
+	
+	/**
+	 * Reads the fields of a record and counts the read bytes.
+	 */
+	private static final class CountingDataInput
+	{
+		private final DataInputStream input;
+		long count;
+		
+		CountingDataInput(final InputStream input)
+		{
+			this.input = new DataInputStream(input);
+		}
+		
+		byte readByte() throws IOException
+		{
+			final byte value = this.input.readByte();
+			this.count += Byte.BYTES;
+			return value;
+		}
+		
+		int readInt() throws IOException
+		{
+			final int value = this.input.readInt();
+			this.count += Integer.BYTES;
+			return value;
+		}
+		
+		long readLong() throws IOException
+		{
+			final long value = this.input.readLong();
+			this.count += Long.BYTES;
+			return value;
+		}
+		
+		String readString() throws IOException
+		{
+			final int length = this.readInt();
+			if(length < 0 || length > MAX_STRING_LENGTH)
+			{
+				throw new IOException("Invalid string length " + length);
+			}
+			final byte[] bytes = new byte[length];
+			this.input.readFully(bytes);
+			this.count += bytes.length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		void skipFully(final int length) throws IOException
+		{
+			final byte[] skipped = new byte[Math.min(length, 64 * 1024)];
+			int remaining = length;
+			while(remaining > 0)
+			{
+				final int chunk = Math.min(remaining, skipped.length);
+				this.input.readFully(skipped, 0, chunk);
+				remaining -= chunk;
+			}
+			this.count += length;
+		}
+	}
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+/**
+ * Uploads written blobs in the background. The data of a write is copied into memory and the write returns right
+ * away, the blobs of each file are uploaded one after another in the order of their writes.
+ * <p>
+ * Until its upload is complete, a blob is served from memory and stays part of its file's blobs. If the memory
+ * budget is exhausted, writes wait until enough earlier uploads are done. After a failed upload, all further
+ * uploads and writes fail, since the files may miss blobs in between.
+ * </p>
+ * <p>
+ * A barrier write, like the one of a transaction log which completes a commit, is uploaded only after all earlier
+ * writes to any file. So the COS never holds a commit without its data, even though a crash may lose the latest
+ * commits.
+ * </p>
+ * <p>
+ * With a {@link CosSpool spool}, the data of a write is also forced to the local disk before the write returns, so
+ * it survives a crash and is uploaded on the next start.
+ * </p>
+ */
+final class CosWriteBehind implements AutoCloseable
+{
+	/**
+	 * Uploads the data of a blob.
+	 */
+	@FunctionalInterface
+	interface Uploader
+	{
+		/**
+		 * @return the ETag of the created object
+		 */
+		String upload(String bucketName, String key, List<ByteBuffer> buffers, long size);
+	}
+	
+	/**
+	 * Learns about completed uploads.
+	 */
+	@FunctionalInterface
+	interface Publisher
+	{
+		/**
+		 * Called before the blob leaves the pending ones, so it can be read from the COS with its ETag.
+		 *
+		 * @param blob a new summary of the uploaded blob, including its ETag
+		 */
+		void uploaded(String fileKey, S3ObjectSummary blob);
+	}
+	
+	private final Uploader uploader;
+	private final Publisher publisher;
+	private final long maxBytes;
+	private final ExecutorService executor;
+	private final CosSpool spool;
+	/**
+	 * Blobs which are not uploaded yet, per file and ordered by their blob number. Guarded by this.
+	 */
+	private final Map<String, NavigableMap<Long, PendingBlob>> pendingBlobs = new HashMap<>();
+	/**
+	 * The last upload of each file, the next one is chained to it.
+	 */
+	private final Map<String, CompletableFuture<Void>> lastUploads = new ConcurrentHashMap<>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private long pendingBytes;
+	
+	/**
+	 * @param spool keeps the written data until its upload is complete, may be <code>null</code>
+	 */
+	CosWriteBehind(
+		final Uploader uploader,
+		final Publisher publisher,
+		final long maxBytes,
+		final int threads,
+		final CosSpool spool
+	)
+	{
+		this.uploader = uploader;
+		this.publisher = publisher;
+		this.maxBytes = maxBytes;
+		this.executor = CosFutures.newBoundedExecutor("CosConnector-write-behind", threads);
+		this.spool = spool;
+	}
+	
+	/**
+	 * @return if a write of the given size can be uploaded in the background. Larger writes must be uploaded
+	 * directly after the pending ones of the file were {@link #flush(String) flushed}.
+	 */
+	boolean accepts(final long size)
+	{
+		return size <= this.maxBytes;
+	}
+	
+	/**
+	 * Copies the data and schedules its upload after all pending uploads of the file. Waits while the memory budget
+	 * is exhausted. The source buffers are consumed.
+	 *
+	 * @param fileKey identifies the file, see {@link CosBlobIndex#fileKey(String, String)}
+	 * @param blob    summary of the new blob without an ETag, it is never changed
+	 * @param barrier if the upload has to wait for the pending uploads of all files
+	 */
+	void write(
+		final String fileKey,
+		final S3ObjectSummary blob,
+		final Iterable<? extends ByteBuffer> sourceBuffers,
+		final boolean barrier
+	)
+	{
+		this.checkFailure();
+		final ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(blob.getSize()));
+		sourceBuffers.forEach(data::put);
+		data.flip();
+		
+		final CosSpool.Record record = this.spool != null
+			? this.spool.append(blob.getBucketName(), blob.getKey(), data)
+			: null;
+		final PendingBlob pendingBlob = new PendingBlob(blob, data, record);
+		this.reserve(fileKey, pendingBlob);
+		// Writes to other files which start later are no earlier writes, they are not waited for
+		final CompletableFuture<?>[] earlierUploads = barrier
+			? this.lastUploads.values().toArray(new CompletableFuture<?>[0])
+			: null;
+		final CompletableFuture<Void> upload = this.lastUploads.compute(
+			fileKey,
+			(k, lastUpload) -> predecessor(lastUpload, earlierUploads)
+				// A foreground request, since a flush waits for it
+				.thenRunAsync(() -> this.upload(fileKey, pendingBlob), this.executor)
+				// Part of the upload, so a flush returns only after the blob left the pending ones
+				.whenComplete((r, t) ->
+				{
+					if(t != null)
+					{
+						this.failure.compareAndSet(null, CosFutures.unwrap(t));
+					}
+					this.release(fileKey, pendingBlob);
+				})
+		);
+		upload.whenComplete((r, t) -> this.lastUploads.remove(fileKey, upload));
+	}
+	
+	private static CompletableFuture<?> predecessor(
+		final CompletableFuture<Void> lastUpload,
+		final CompletableFuture<?>[] earlierUploads
+	)
+	{
+		if(earlierUploads != null)
+		{
+			final CompletableFuture<?>[] uploads = Arrays.copyOf(earlierUploads, earlierUploads.length + 1);
+			uploads[earlierUploads.length] = lastUpload != null
+				? lastUpload
+				: CompletableFuture.completedFuture(null);
+			return CompletableFuture.allOf(uploads);
+		}
+		return lastUpload != null
+			? lastUpload
+			: CompletableFuture.completedFuture(null);
+	}
+	
+	private void upload(final String fileKey, final PendingBlob pendingBlob)
+	{
+		final S3ObjectSummary blob = pendingBlob.blob;
+		final String eTag = this.uploader.upload(
+			blob.getBucketName(),
+			blob.getKey(),
+			Collections.singletonList(pendingBlob.data.duplicate()),
+			blob.getSize()
+		);
+		// A new summary, the pending one may be read concurrently by the caches
+		this.publisher.uploaded(
+			fileKey,
+			CosBlobIndex.summary(blob.getBucketName(), blob.getKey(), blob.getSize(), eTag)
+		);
+		if(pendingBlob.record != null)
+		{
+			this.spool.done(pendingBlob.record);
+		}
+	}
+	
+	private synchronized void reserve(final String fileKey, final PendingBlob pendingBlob)
+	{
+		final long size = pendingBlob.blob.getSize();
+		// A single write may take the whole budget, so it never waits forever
+		while(this.pendingBytes > 0 && this.pendingBytes + size > this.maxBytes)
+		{
+			try
+			{
+				this.wait();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException("Interrupted while waiting for pending uploads", e);
+			}
+		}
+		this.pendingBytes += size;
+		this.pendingBlobs.computeIfAbsent(fileKey, k -> new TreeMap<>())
+			.put(CosBlobIndex.blobNumber(pendingBlob.blob.getKey()), pendingBlob);
+	}
+	
+	private synchronized void release(final String fileKey, final PendingBlob pendingBlob)
+	{
+		final NavigableMap<Long, PendingBlob> blobs = this.pendingBlobs.get(fileKey);
+		if(blobs != null
+			&& blobs.remove(CosBlobIndex.blobNumber(pendingBlob.blob.getKey()), pendingBlob)
+			&& blobs.isEmpty())
+		{
+			this.pendingBlobs.remove(fileKey);
+		}
+		this.pendingBytes -= pendingBlob.blob.getSize();
+		this.notifyAll();
+	}
+	
+	/**
+	 * @return the blobs of the file which are not uploaded yet, ordered by their blob number
+	 */
+	synchronized List<S3ObjectSummary> pendingBlobs(final String fileKey)
+	{
+		final NavigableMap<Long, PendingBlob> blobs = this.pendingBlobs.get(fileKey);
+		if(blobs == null)
+		{
+			return Collections.emptyList();
+		}
+		final List<S3ObjectSummary> summaries = new ArrayList<>(blobs.size());
+		blobs.values().forEach(pendingBlob -> summaries.add(pendingBlob.blob));
+		return summaries;
+	}
+	
+	synchronized boolean hasPendingBlobs(final String fileKey)
+	{
+		return this.pendingBlobs.containsKey(fileKey);
+	}
+	
+	/**
+	 * Reads from a blob which is not uploaded yet.
+	 *
+	 * @return <code>false</code> if the blob is not pending (anymore) and has to be read from the COS
+	 */
+	boolean read(
+		final String fileKey,
+		final S3ObjectSummary blob,
+		final ByteBuffer targetBuffer,
+		final long offset,
+		final long length
+	)
+	{
+		final PendingBlob pendingBlob;
+		synchronized(this)
+		{
+			pendingBlob = this.pendingBlob(fileKey, blob.getKey());
+		}
+		if(pendingBlob == null)
+		{
+			return false;
+		}
+		// The data is never changed after the copy, so it can be read without the lock
+		final ByteBuffer source = pendingBlob.data.duplicate();
+		source.position(Math.toIntExact(offset));
+		source.limit(Math.toIntExact(offset + length));
+		targetBuffer.put(source);
+		return true;
+	}
+	
+	private PendingBlob pendingBlob(final String fileKey, final String blobKey)
+	{
+		final NavigableMap<Long, PendingBlob> blobs = this.pendingBlobs.get(fileKey);
+		if(blobs == null)
+		{
+			return null;
+		}
+		final PendingBlob pendingBlob = blobs.get(CosBlobIndex.blobNumber(blobKey));
+		return pendingBlob != null && pendingBlob.blob.getKey().equals(blobKey)
+			? pendingBlob
+			: null;
+	}
+	
+	/**
+	 * Waits until all pending uploads of the file are complete.
+	 *
+	 * @throws SdkClientException if any upload failed
+	 */
+	void flush(final String fileKey)
+	{
+		final CompletableFuture<Void> lastUpload = this.lastUploads.get(fileKey);
+		if(lastUpload != null)
+		{
+			lastUpload.exceptionally(t -> null).join();
+		}
+		this.checkFailure();
+	}
+	
+	/**
+	 * Waits until all uploads which were pending at the time of the call are complete.
+	 *
+	 * @throws SdkClientException if any upload failed
+	 */
+	void flush()
+	{
+		CompletableFuture.allOf(
+			this.lastUploads.values().stream()
+				.map(upload -> upload.exceptionally(t -> null))
+				.toArray(CompletableFuture[]::new)
+		).join();
+		this.checkFailure();
+	}
+	
+	private void checkFailure()
+	{
+		final Throwable cause = this.failure.get();
+		if(cause != null)
+		{
+			throw new SdkClientException("A background upload failed, the files may be incomplete", cause);
+		}
+	}
+	
+	/**
+	 * Uploads everything which is still pending and stops the background threads.
+	 */
+	@Override
+	public void close()
+	{
+		try
+		{
+			this.flush();
+		}
+		finally
+		{
+			this.executor.shutdownNow();
+			if(this.spool != null)
+			{
+				this.spool.close();
+			}
+		}
+	}
+	
+	private static final class PendingBlob
+	{
+		final S3ObjectSummary blob;
+		final ByteBuffer data;
+		final CosSpool.Record record;
+		
+		PendingBlob(final S3ObjectSummary blob, final ByteBuffer data, final CosSpool.Record record)
+		{
+			this.blob = blob;
+			this.data = data;
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.DefaultRequest;
+import com.ibm.cloud.objectstorage.Request;
+import com.ibm.cloud.objectstorage.handlers.HandlerAfterAttemptContext;
+import com.ibm.cloud.objectstorage.handlers.HandlerBeforeAttemptContext;
+import com.ibm.cloud.objectstorage.services.s3.model.AmazonS3Exception;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ListBucketsRequest;
+
+
+class CosRateLimiterTest
+{
+	private final AtomicLong clock = new AtomicLong();
+	private final CosRateLimiter limiter = new CosRateLimiter(
+		new CosRateLimitConfiguration().withInitialRate(100),
+		this.clock::get
+	);
+	
+	private void attempt(final Request<?> request, final Exception exception)
+	{
+		this.limiter.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+		this.clock.addAndGet(1000);
+		this.limiter.afterAttempt(HandlerAfterAttemptContext.builder()
+			.withRequest(request)
+			.withException(exception)
+			.build());
+	}
+	
+	private static Request<?> get(final String bucketName)
+	{
+		return new DefaultRequest<>(new GetObjectRequest(bucketName, "key"), "s3");
+	}
+	
+	private static AmazonS3Exception slowDown()
+	{
+		final AmazonS3Exception exception = new AmazonS3Exception("Please reduce your request rate.");
+		exception.setStatusCode(503);
+		exception.setErrorCode("SlowDown");
+		return exception;
+	}
+	
+	@Test
+	void lowersRateOfThrottledBucket()
+	{
+		this.attempt(get("bucket"), null);
+		this.attempt(get("other"), null);
+		final double rate = this.limiter.rate("bucket");
+		Assertions.assertTrue(rate > 100);
+		
+		this.attempt(get("bucket"), slowDown());
+		Assertions.assertEquals(rate / 2, this.limiter.rate("bucket"));
+		Assertions.assertTrue(this.limiter.rate("other") > 100);
+	}
+	
+	@Test
+	void ignoresOtherFailures()
+	{
+		final AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+		notFound.setStatusCode(404);
+		this.attempt(get("bucket"), notFound);
+		Assertions.assertEquals(100, this.limiter.rate("bucket"));
+	}
+	
+	@Test
+	void doesNotLimitRequestsWithoutBucket()
+	{
+		this.attempt(new DefaultRequest<>(new ListBucketsRequest(), "s3"), slowDown());
+		Assertions.assertEquals(0, this.limiter.rate(""));
+	}
+	
+	@Test
+	void limitsCopiesInTheirTargetBucket()
+	{
+		this.attempt(new DefaultRequest<>(new CopyObjectRequest("source", "a", "target", "b"), "s3"), null);
+		this.attempt(
+			new DefaultRequest<>(
+				new CopyPartRequest()
+					.withSourceBucketName("source")
+					.withDestinationBucketName("part-target"),
+				"s3"
+			),
+			null
+		);
+		
+		Assertions.assertTrue(this.limiter.rate("target") > 100);
+		Assertions.assertTrue(this.limiter.rate("part-target") > 100);
+		Assertions.assertEquals(0, this.limiter.rate("source"));
+	}
+	
+	@Test
+	void limitsSubclassesOfRequests()
+	{
+		this.attempt(new DefaultRequest<>(new GetObjectRequest("bucket", "key")
+		{
+		}, "s3"), null);
+		Assertions.assertTrue(this.limiter.rate("bucket") > 100);
+	}
+	
+	@Test
+	void sharesBucketsBetweenLimiters()
+	{
+		final String bucketName = "shared-" + System.nanoTime();
+		final CosRateLimiter first = new CosRateLimiter();
+		final Request<?> request = get(bucketName);
+		first.beforeAttempt(HandlerBeforeAttemptContext.builder().withRequest(request).build());
+		first.afterAttempt(HandlerAfterAttemptContext.builder().withRequest(request).build());
+		
+		Assertions.assertEquals(first.rate(bucketName), new CosRateLimiter().rate(bucketName));
+		Assertions.assertTrue(new CosRateLimiter().rate(bucketName) > 0);
+	}
+}
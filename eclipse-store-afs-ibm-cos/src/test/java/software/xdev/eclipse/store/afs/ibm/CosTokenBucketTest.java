@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosTokenBucketTest
+{
+	private static CosTokenBucket bucket()
+	{
+		return new CosTokenBucket(
+			new CosRateLimitConfiguration()
+				.withInitialRate(10)
+				.withMinRate(2)
+				.withMaxRate(100)
+				.withAdditiveIncrease(10),
+			0
+		);
+	}
+	
+	@Test
+	void paysBurstsOffWithTheRate()
+	{
+		final CosTokenBucket bucket = bucket();
+		for(int i = 0; i < 10; i++)
+		{
+			Assertions.assertEquals(0, bucket.reserve(0));
+		}
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve(0));
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(200), bucket.reserve(0));
+		
+		// Refilled at the rate, but never beyond the burst
+		Assertions.assertEquals(0, bucket.reserve(TimeUnit.SECONDS.toNanos(10)));
+		for(int i = 0; i < 9; i++)
+		{
+			Assertions.assertEquals(0, bucket.reserve(TimeUnit.SECONDS.toNanos(10)));
+		}
+		Assertions.assertTrue(bucket.reserve(TimeUnit.SECONDS.toNanos(10)) > 0);
+	}
+	
+	@Test
+	void keepsReserveForForeground()
+	{
+		final CosTokenBucket bucket = bucket();
+		int backgroundRequests = 0;
+		while(bucket.tryReserveBackground(0) == 0)
+		{
+			backgroundRequests++;
+		}
+		Assertions.assertEquals(7, backgroundRequests);
+		for(int i = 0; i < 3; i++)
+		{
+			Assertions.assertEquals(0, bucket.reserve(0));
+		}
+		Assertions.assertTrue(bucket.tryReserveBackground(0) > 0);
+	}
+	
+	@Test
+	void halvesRateOncePerThrottlingBurst()
+	{
+		final CosTokenBucket bucket = bucket();
+		bucket.throttled(0, 1);
+		Assertions.assertEquals(5, bucket.rate());
+		// Sent before the rate was lowered
+		bucket.throttled(0, 2);
+		Assertions.assertEquals(5, bucket.rate());
+		
+		bucket.throttled(3, 4);
+		Assertions.assertEquals(2.5, bucket.rate());
+		bucket.throttled(5, 6);
+		Assertions.assertEquals(2, bucket.rate());
+		// The bucket was drained
+		Assertions.assertTrue(bucket.reserve(6) > 0);
+	}
+	
+	@Test
+	void growsRateWithoutThrottling()
+	{
+		final CosTokenBucket bucket = bucket();
+		for(int i = 0; i < 10; i++)
+		{
+			bucket.succeeded();
+		}
+		Assertions.assertTrue(bucket.rate() > 15 && bucket.rate() < 20, () -> "rate " + bucket.rate());
+		
+		for(int i = 0; i < 100_000; i++)
+		{
+			bucket.succeeded();
+		}
+		Assertions.assertEquals(100, bucket.rate());
+	}
+}
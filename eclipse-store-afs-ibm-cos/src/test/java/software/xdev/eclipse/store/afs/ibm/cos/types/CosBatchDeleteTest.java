@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
+
+
+class CosBatchDeleteTest
+{
+	private static final String BUCKET = "test-bucket";
+	
+	private final CosS3Local storage = new CosS3Local();
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final CosBatchDelete batchDelete =
+		new CosBatchDelete(this.storage.client(), this.executor, 2, CosIoScheduler.UNLIMITED);
+	
+	@AfterEach
+	void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	private List<String> store(final int count)
+	{
+		final List<String> keys = IntStream.range(0, count)
+			.mapToObj(number -> "file." + number)
+			.collect(Collectors.toList());
+		keys.forEach(key -> this.storage.put(BUCKET, key, new byte[]{1}));
+		return keys;
+	}
+	
+	@Test
+	void emptyListSendsNoRequest()
+	{
+		Assertions.assertEquals(List.of(), this.batchDelete.delete(BUCKET, List.of()));
+		Assertions.assertTrue(this.storage.requests(DeleteObjectsRequest.class).isEmpty());
+	}
+	
+	@Test
+	void splitsKeysIntoBatchesOfAtMost1000()
+	{
+		final List<String> keys = this.store(2500);
+		
+		final List<String> deleted = this.batchDelete.delete(BUCKET, keys);
+		
+		Assertions.assertEquals(keys, deleted);
+		Assertions.assertEquals(
+			List.of(1000, 1000, 500),
+			this.storage.requests(DeleteObjectsRequest.class).stream()
+				.map(request -> request.getKeys().size())
+				.sorted((a, b) -> b - a)
+				.collect(Collectors.toList())
+		);
+		Assertions.assertTrue(this.storage.keys(BUCKET).isEmpty());
+	}
+	
+	@Test
+	void reportsOnlyTheDeletedKeysOfAPartlyFailedBatch()
+	{
+		final List<String> keys = this.store(5);
+		this.storage.undeletable("file.1");
+		this.storage.undeletable("file.3");
+		
+		final List<String> deleted = this.batchDelete.delete(BUCKET, keys);
+		
+		Assertions.assertEquals(List.of("file.0", "file.2", "file.4"), deleted);
+		Assertions.assertEquals(List.of("file.1", "file.3"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void retriesTheFailedKeysOfABatchOneByOne()
+	{
+		final List<String> keys = this.store(3);
+		this.storage.undeletable("file.1");
+		
+		Assertions.assertEquals(List.of("file.0", "file.2"), this.batchDelete.delete(BUCKET, keys));
+		
+		Assertions.assertEquals(1, this.storage.requests(DeleteObjectsRequest.class).size());
+		Assertions.assertEquals(2, this.storage.requests(DeleteObjectRequest.class).size());
+		Assertions.assertEquals(List.of("file.1"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void deletesKeysOneByOneIfTheBatchRequestFails()
+	{
+		final List<String> keys = this.store(3);
+		this.storage.failWhen(request -> request instanceof DeleteObjectsRequest);
+		
+		Assertions.assertEquals(keys, this.batchDelete.delete(BUCKET, keys));
+		Assertions.assertTrue(this.storage.keys(BUCKET).isEmpty());
+	}
+}
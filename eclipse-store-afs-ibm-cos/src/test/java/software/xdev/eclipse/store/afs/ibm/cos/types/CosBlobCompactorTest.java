@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosBlobCompactorTest
+{
+	private static List<S3ObjectSummary> blobs(final long... sizes)
+	{
+		final List<S3ObjectSummary> blobs = new ArrayList<>();
+		for(int i = 0; i < sizes.length; i++)
+		{
+			blobs.add(CosBlobIndex.summary("bucket", "file." + i, sizes[i], "etag" + i));
+		}
+		return blobs;
+	}
+	
+	private static List<List<String>> keys(final List<List<S3ObjectSummary>> runs)
+	{
+		return runs.stream()
+			.map(run -> run.stream().map(S3ObjectSummary::getKey).collect(Collectors.toList()))
+			.collect(Collectors.toList());
+	}
+	
+	@Test
+	void findRunsSplitsAtLargeBlobsAndMaxSize()
+	{
+		final List<List<S3ObjectSummary>> runs = CosBlobCompactor.findRuns(
+			blobs(1, 1, 1, 100, 1, 1, 4, 4, 4, 1),
+			10,
+			2,
+			9
+		);
+		
+		Assertions.assertEquals(
+			List.of(
+				List.of("file.0", "file.1", "file.2"),
+				List.of("file.4", "file.5", "file.6"),
+				List.of("file.7", "file.8", "file.9")
+			),
+			keys(runs)
+		);
+	}
+	
+	@Test
+	void findRunsIgnoresShortRuns()
+	{
+		Assertions.assertEquals(List.of(), CosBlobCompactor.findRuns(blobs(1, 100, 1, 100), 10, 2, 100));
+	}
+	
+	@Test
+	void findTailRunOnlyReturnsARunAtTheEnd()
+	{
+		Assertions.assertEquals(
+			List.of("file.2", "file.3", "file.4"),
+			keys(List.of(CosBlobCompactor.findTailRun(blobs(1, 100, 1, 1, 1), 10, 2, 100)))
+				.get(0)
+		);
+		Assertions.assertEquals(List.of(), CosBlobCompactor.findTailRun(blobs(1, 1, 1, 100), 10, 2, 100));
+		Assertions.assertEquals(List.of(), CosBlobCompactor.findTailRun(List.of(), 10, 2, 100));
+	}
+	
+	@Test
+	void compactedBlobsAreTheRemainingBlobsOfTheMetadataRange()
+	{
+		final List<S3ObjectSummary> blobs = blobs(1, 1, 1, 1, 3, 1);
+		blobs.remove(2);
+		
+		Assertions.assertEquals(
+			List.of(List.of("file.1", "file.3")),
+			keys(List.of(CosBlobCompactor.compactedBlobs(blobs, blobs.get(3), "1-3")))
+		);
+		Assertions.assertEquals(List.of(), CosBlobCompactor.compactedBlobs(blobs, blobs.get(3), null));
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosBlobIndexTest
+{
+	private static final String FILE_KEY = CosBlobIndex.fileKey("bucket", "dir/file.");
+	
+	private static List<String> keys(final List<S3ObjectSummary> blobs)
+	{
+		return blobs.stream().map(S3ObjectSummary::getKey).collect(Collectors.toList());
+	}
+	
+	@Test
+	void listsOnlyOnFirstAccessAndTracksWritesAndDeletes()
+	{
+		final CosBlobIndex index = new CosBlobIndex();
+		final AtomicInteger listings = new AtomicInteger();
+		final Supplier<Stream<S3ObjectSummary>> loader = () ->
+		{
+			listings.incrementAndGet();
+			return Stream.of(
+				CosBlobIndex.summary("bucket", "dir/file.10", 3, null),
+				CosBlobIndex.summary("bucket", "dir/file.2", 5, null)
+			);
+		};
+		
+		Assertions.assertEquals(List.of("dir/file.2", "dir/file.10"), keys(index.blobs(FILE_KEY, loader)));
+		
+		index.added(FILE_KEY, CosBlobIndex.summary("bucket", "dir/file.11", 1, null));
+		index.removed(FILE_KEY, List.of("dir/file.2"));
+		
+		Assertions.assertEquals(List.of("dir/file.10", "dir/file.11"), keys(index.blobs(FILE_KEY, loader)));
+		Assertions.assertEquals(1, listings.get());
+	}
+	
+	@Test
+	void listsAgainAfterTheTimeToLive()
+	{
+		final AtomicLong clock = new AtomicLong();
+		final CosBlobIndex index = new CosBlobIndex(1000, 10, clock::get);
+		final AtomicInteger listings = new AtomicInteger();
+		final Supplier<Stream<S3ObjectSummary>> loader = () ->
+		{
+			listings.incrementAndGet();
+			return Stream.of(CosBlobIndex.summary("bucket", "dir/file." + listings.get(), 1, null));
+		};
+		
+		Assertions.assertEquals(List.of("dir/file.1"), keys(index.blobs(FILE_KEY, loader)));
+		clock.set(1000);
+		Assertions.assertEquals(List.of("dir/file.1"), keys(index.blobs(FILE_KEY, loader)));
+		clock.set(1001);
+		Assertions.assertEquals(List.of("dir/file.2"), keys(index.blobs(FILE_KEY, loader)));
+	}
+}
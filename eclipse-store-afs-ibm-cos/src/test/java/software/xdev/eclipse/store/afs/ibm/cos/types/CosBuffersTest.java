@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosBuffersTest
+{
+	@Test
+	void readFullyOnlyWritesTheRequestedLength() throws IOException
+	{
+		final ByteBuffer target = ByteBuffer.allocateDirect(8);
+		target.position(2);
+		
+		CosBuffers.readFully(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}), target, 3);
+		
+		Assertions.assertEquals(5, target.position());
+		Assertions.assertEquals(8, target.limit());
+		Assertions.assertEquals(1, target.get(2));
+		Assertions.assertEquals(3, target.get(4));
+		Assertions.assertEquals(0, target.get(5));
+	}
+	
+	@Test
+	void readFullyFailsOnPrematureEnd()
+	{
+		final ByteBuffer target = ByteBuffer.allocate(8);
+		
+		Assertions.assertThrows(
+			EOFException.class,
+			() -> CosBuffers.readFully(new ByteArrayInputStream(new byte[]{1, 2}), target, 4)
+		);
+		Assertions.assertEquals(8, target.limit());
+	}
+	
+	@Test
+	void sliceDoesNotChangeTheOriginalBuffer()
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6});
+		buffer.position(1);
+		
+		final ByteBuffer slice = CosBuffers.slice(buffer, 3, 2);
+		
+		Assertions.assertEquals(1, buffer.position());
+		Assertions.assertEquals(2, slice.remaining());
+		Assertions.assertEquals(4, slice.get());
+		Assertions.assertEquals(5, slice.get());
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosByteBufferInputStreamTest
+{
+	private static List<ByteBuffer> buffers()
+	{
+		final ByteBuffer first = ByteBuffer.wrap(new byte[]{9, 1, 2, 3});
+		first.position(1);
+		return List.of(first, ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[]{4, 5}));
+	}
+	
+	@Test
+	void readsAllBuffersWithoutModifyingThem()
+	{
+		final List<ByteBuffer> sources = buffers();
+		final CosByteBufferInputStream stream = CosByteBufferInputStream.New(sources);
+		
+		Assertions.assertEquals(5, stream.length());
+		final byte[] target = new byte[8];
+		Assertions.assertEquals(5, stream.read(target, 0, target.length));
+		Assertions.assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 0, 0, 0}, target);
+		Assertions.assertEquals(-1, stream.read());
+		Assertions.assertEquals(1, sources.get(0).position());
+	}
+	
+	@Test
+	void resetReplaysFromMark()
+	{
+		final CosByteBufferInputStream stream = CosByteBufferInputStream.New(buffers());
+		
+		Assertions.assertEquals(1, stream.read());
+		stream.mark(0);
+		Assertions.assertEquals(3, stream.skip(3));
+		Assertions.assertEquals(5, stream.read());
+		stream.reset();
+		Assertions.assertEquals(4, stream.available());
+		Assertions.assertEquals(2, stream.read());
+	}
+	
+	@Test
+	void resetWithoutMarkReplaysFromStart()
+	{
+		final CosByteBufferInputStream stream = CosByteBufferInputStream.New(buffers());
+		
+		Assertions.assertEquals(4, stream.skip(4));
+		stream.reset();
+		Assertions.assertEquals(5, stream.available());
+		Assertions.assertEquals(1, stream.read());
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.store.afs.blobstore.types.BlobStorePath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.PutObjectRequest;
+
+
+class CosConnectorTest
+{
+	private static final String BUCKET = "test-bucket";
+	private static final BlobStorePath FILE = BlobStorePath.New(BUCKET, "dir", "file");
+	private static final BlobStorePath TARGET = BlobStorePath.New(BUCKET, "dir", "target");
+	
+	private final CosS3Local storage = new CosS3Local().withPageSize(5);
+	private final List<CosConnector> connectors = new ArrayList<>();
+	
+	@AfterEach
+	void close()
+	{
+		this.connectors.forEach(CosConnector::close);
+	}
+	
+	private CosConnector connector(final CosConnectorConfiguration configuration)
+	{
+		final CosConnector connector = CosConnector.New(this.storage.client(), configuration);
+		this.connectors.add(connector);
+		return connector;
+	}
+	
+	private CosConnector cachingConnector(final CosConnectorConfiguration configuration)
+	{
+		final CosConnector connector = CosConnector.Caching(this.storage.client(), configuration);
+		this.connectors.add(connector);
+		return connector;
+	}
+	
+	private static void write(final CosConnector connector, final BlobStorePath file, final int... data)
+	{
+		connector.writeData(file, List.of(ByteBuffer.wrap(bytes(data))));
+	}
+	
+	private static byte[] read(final CosConnector connector, final BlobStorePath file)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(connector.fileSize(file)));
+		connector.readData(file, buffer, 0, buffer.capacity());
+		return buffer.array();
+	}
+	
+	private static byte[] bytes(final int... data)
+	{
+		final byte[] bytes = new byte[data.length];
+		for(int i = 0; i < data.length; i++)
+		{
+			bytes[i] = (byte)data[i];
+		}
+		return bytes;
+	}
+	
+	private void storeBlobs(final String key, final int blobCount, final int blobSize)
+	{
+		for(int number = 0; number < blobCount; number++)
+		{
+			final byte[] data = new byte[blobSize];
+			for(int i = 0; i < blobSize; i++)
+			{
+				data[i] = (byte)(number * blobSize + i);
+			}
+			this.storage.put(BUCKET, key + "." + number, data);
+		}
+	}
+	
+	private List<String> targetKeys()
+	{
+		return this.storage.keys(BUCKET).stream()
+			.filter(key -> key.startsWith("dir/target."))
+			.collect(Collectors.toList());
+	}
+	
+	private static void awaitQuietly(final CountDownLatch latch)
+	{
+		try
+		{
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void sleepQuietly(final long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private static void awaitCondition(final BooleanSupplier condition)
+	{
+		for(int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+		{
+			sleepQuietly(10);
+		}
+		Assertions.assertTrue(condition.getAsBoolean());
+	}
+	
+	@Test
+	void readsBlobsOfAllListingPagesInNumberOrder()
+	{
+		// 2 and 10 are listed in the order "file.10", "file.2"
+		for(int number = 0; number < 12; number++)
+		{
+			this.storage.put(BUCKET, "dir/file." + number, bytes(number));
+		}
+		final CosConnector connector = this.connector(new CosConnectorConfiguration().withListingPrefetch(true));
+		
+		Assertions.assertEquals(12, connector.fileSize(FILE));
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), read(connector, FILE));
+		Assertions.assertTrue(this.storage.requests(ListObjectsV2Request.class).size() >= 3);
+	}
+	
+	@Test
+	void copiesARangeOfAMultiBlobFile()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertEquals(5, connector.copyFile(FILE, TARGET, 2, 5));
+		
+		Assertions.assertArrayEquals(bytes(2, 3, 4, 5, 6), read(connector, TARGET));
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8), read(connector, FILE));
+		Assertions.assertEquals(0, this.storage.openUploads());
+	}
+	
+	@Test
+	void movesAMultiBlobFile()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		connector.moveFile(FILE, TARGET);
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8), read(connector, TARGET));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertEquals(List.of("dir/target.0", "dir/target.1", "dir/target.2"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void failedCopyDeletesTheBlobsWhichAreCopiedAfterTheFailure()
+	{
+		this.storeBlobs("dir/file", 2, 3);
+		final CountDownLatch failed = new CountDownLatch(1);
+		final CountDownLatch copied = new CountDownLatch(1);
+		this.storage.failWhen(request ->
+		{
+			if(request instanceof CopyPartRequest)
+			{
+				failed.countDown();
+				return true;
+			}
+			if(request instanceof CopyObjectRequest)
+			{
+				// The single copy of the first blob is still running when the copy of the second one fails
+				awaitQuietly(failed);
+				sleepQuietly(100);
+				copied.countDown();
+			}
+			return false;
+		});
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		// The first blob is copied whole, the second one partly
+		Assertions.assertThrows(SdkClientException.class, () -> connector.copyFile(FILE, TARGET, 0, 5));
+		awaitQuietly(copied);
+		sleepQuietly(100);
+		
+		Assertions.assertEquals(List.of(), this.targetKeys());
+		Assertions.assertEquals(0, this.storage.openUploads());
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5), read(connector, FILE));
+	}
+	
+	@Test
+	void failedMoveKeepsTheSourceAndRollsBackTheTarget()
+	{
+		this.storeBlobs("dir/file", 4, 3);
+		this.storage.failWhen(request -> request instanceof CopyObjectRequest
+			&& ((CopyObjectRequest)request).getDestinationKey().equals("dir/target.2"));
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertThrows(SdkClientException.class, () -> connector.moveFile(FILE, TARGET));
+		
+		Assertions.assertEquals(List.of(), this.targetKeys());
+		Assertions.assertFalse(connector.fileExists(TARGET));
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), read(connector, FILE));
+	}
+	
+	@Test
+	void truncatesAtABlobBoundary()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		connector.truncateFile(FILE, 6);
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.1"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void truncatesInTheMiddleOfABlob()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		connector.truncateFile(FILE, 4);
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.2"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void truncatesWithOneBatchDeleteAndRewritesASmallRemainder()
+	{
+		this.storeBlobs("dir/file", 4, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		connector.truncateFile(FILE, 4);
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.2"), this.storage.keys(BUCKET));
+		// One batch for the trailing blobs, one for the shortened blob
+		Assertions.assertEquals(2, this.storage.requests(DeleteObjectsRequest.class).size());
+		Assertions.assertEquals(List.of(), this.storage.requests(DeleteObjectRequest.class));
+		Assertions.assertEquals(List.of(), this.storage.requests(CopyPartRequest.class));
+	}
+	
+	@Test
+	void truncatesToZero()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		connector.truncateFile(FILE, 0);
+		
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertEquals(List.of(), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void failedDeleteOfATrailingBlobLeavesALongerFile()
+	{
+		this.storeBlobs("dir/file", 4, 3);
+		this.storage.undeletable("dir/file.2");
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertThrows(SdkClientException.class, () -> connector.truncateFile(FILE, 4));
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8), read(connector, FILE));
+	}
+	
+	@Test
+	void failedDeleteOfTheShortenedBlobKeepsItsContent()
+	{
+		this.storeBlobs("dir/file", 3, 3);
+		this.storage.undeletable("dir/file.1");
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertThrows(SdkClientException.class, () -> connector.truncateFile(FILE, 4));
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.1"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void largeWriteDoesNotTakeTheNumberOfARunningGroupCommit() throws Exception
+	{
+		final CountDownLatch uploading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		this.storage.failWhen(request ->
+		{
+			if(request instanceof PutObjectRequest && uploading.getCount() > 0)
+			{
+				uploading.countDown();
+				awaitQuietly(release);
+			}
+			return false;
+		});
+		final CosConnector connector = this.connector(new CosConnectorConfiguration()
+			.withGroupCommitWindowMillis(1)
+			.withGroupCommitMaxBytes(4));
+		
+		final CompletableFuture<Void> groupCommit = CompletableFuture.runAsync(() -> write(connector, FILE, 1, 2));
+		awaitQuietly(uploading);
+		final CompletableFuture<Void> largeWrite =
+			CompletableFuture.runAsync(() -> write(connector, FILE, 3, 4, 5, 6, 7));
+		sleepQuietly(100);
+		release.countDown();
+		groupCommit.get(5, TimeUnit.SECONDS);
+		largeWrite.get(5, TimeUnit.SECONDS);
+		
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.1"), this.storage.keys(BUCKET));
+		Assertions.assertArrayEquals(bytes(1, 2, 3, 4, 5, 6, 7), read(connector, FILE));
+	}
+	
+	@Test
+	void compactsTheLastBlobsIntoTheNextBlobNumber()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration()
+			.withCompaction(true)
+			.withCompactionIntervalMillis(200)
+			.withCompactionMinBlobs(3)
+			.withCompactionRequestsPerSecond(1000));
+		for(int number = 0; number < 4; number++)
+		{
+			write(connector, FILE, 2 * number, 2 * number + 1);
+		}
+		
+		awaitCondition(() -> this.storage.keys(BUCKET).equals(List.of("dir/file.4")));
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7), read(connector, FILE));
+		Assertions.assertEquals(
+			"0-3",
+			this.storage.getObjectMetadata(BUCKET, "dir/file.4")
+				.getUserMetaDataOf(CosBlobCompactor.COMPACTED_BLOBS_METADATA)
+		);
+		Assertions.assertEquals(0, this.storage.openUploads());
+		
+		write(connector, FILE, 8);
+		Assertions.assertEquals(List.of("dir/file.4", "dir/file.5"), this.storage.keys(BUCKET));
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7, 8), read(connector, FILE));
+	}
+	
+	@Test
+	void listingFinishesAnInterruptedCompaction()
+	{
+		this.storage.put(BUCKET, "dir/file.0", bytes(0, 1));
+		// The compacted blob 1 was deleted already
+		this.storage.put(BUCKET, "dir/file.2", bytes(4, 5));
+		this.storage.put(
+			BUCKET,
+			"dir/file.3",
+			bytes(0, 1, 2, 3, 4, 5),
+			Map.of(CosBlobCompactor.COMPACTED_BLOBS_METADATA, "0-2")
+		);
+		this.storage.put(BUCKET, "dir/file.compaction", "dir/file.3".getBytes(StandardCharsets.UTF_8));
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.3"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void listingKeepsTheBlobsOfACompactionWhichWasNotCompleted()
+	{
+		this.storeBlobs("dir/file", 3, 2);
+		this.storage.put(BUCKET, "dir/file.compaction", "dir/file.3".getBytes(StandardCharsets.UTF_8));
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5), read(connector, FILE));
+		Assertions.assertEquals(List.of("dir/file.0", "dir/file.1", "dir/file.2"), this.storage.keys(BUCKET));
+	}
+	
+	@Test
+	void childKeysDoNotContainTheCompactionMarker()
+	{
+		this.storeBlobs("dir/file", 2, 2);
+		this.storage.put(BUCKET, "dir/file.compaction", "dir/file.3".getBytes(StandardCharsets.UTF_8));
+		final CosConnector.Default connector = (CosConnector.Default)this.connector(new CosConnectorConfiguration());
+		
+		try(final Stream<String> childKeys = connector.childKeys(BlobStorePath.New(BUCKET, "dir")))
+		{
+			Assertions.assertEquals(List.of("dir/file.0", "dir/file.1"), childKeys.collect(Collectors.toList()));
+		}
+	}
+	
+	@Test
+	void listingKeepsTheBlobsIfTheMarkedNumberWasTakenByALaterWrite()
+	{
+		this.storeBlobs("dir/file", 4, 2);
+		this.storage.put(BUCKET, "dir/file.compaction", "dir/file.3".getBytes(StandardCharsets.UTF_8));
+		final CosConnector connector = this.connector(new CosConnectorConfiguration());
+		
+		Assertions.assertArrayEquals(bytes(0, 1, 2, 3, 4, 5, 6, 7), read(connector, FILE));
+		Assertions.assertEquals(4, this.storage.keys(BUCKET).size());
+	}
+	
+	@Test
+	void directoryExistsIsAnsweredFromKeysSeenBefore()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration());
+		write(connector, BlobStorePath.New(BUCKET, "dir", "sub", "file"), 1, 2, 3);
+		final int listings = this.storage.requests(ListObjectsV2Request.class).size();
+		
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET, "dir", "sub")));
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET, "dir")));
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET)));
+		Assertions.assertEquals(listings, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void unknownDirectoryIsCheckedOnceWithASingleKeyListing()
+	{
+		this.storage.put(BUCKET, "other/sub/file.0", bytes(1));
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration());
+		
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET, "other", "sub")));
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET, "other", "sub")));
+		Assertions.assertTrue(connector.directoryExists(BlobStorePath.New(BUCKET, "other")));
+		
+		final List<ListObjectsV2Request> requests = this.storage.requests(ListObjectsV2Request.class);
+		Assertions.assertEquals(1, requests.size());
+		Assertions.assertEquals("other/sub/", requests.get(0).getPrefix());
+		Assertions.assertEquals(Integer.valueOf(1), requests.get(0).getMaxKeys());
+	}
+	
+	@Test
+	void missingDirectoryDoesNotExist()
+	{
+		this.storage.put(BUCKET, "dir/file.0", bytes(1));
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration());
+		
+		Assertions.assertFalse(connector.directoryExists(BlobStorePath.New(BUCKET, "missing")));
+		Assertions.assertFalse(connector.directoryExists(BlobStorePath.New(BUCKET, "di")));
+	}
+	
+	@Test
+	void missingFileIsListedOnceWithinTheNegativeCacheTtl()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration().withBlobIndex(false));
+		
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertEquals(1, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void missingFileIsListedAgainWithoutNegativeCache()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration()
+			.withBlobIndex(false)
+			.withNegativeCacheTtlMillis(0));
+		
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		Assertions.assertEquals(2, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void writeEndsTheAbsenceOfTheFile()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration().withBlobIndex(false));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		
+		write(connector, FILE, 1, 2, 3);
+		
+		Assertions.assertTrue(connector.fileExists(FILE));
+		Assertions.assertArrayEquals(bytes(1, 2, 3), read(connector, FILE));
+	}
+	
+	@Test
+	void createdDirectoryIsNoLongerAbsent()
+	{
+		final BlobStorePath directory = BlobStorePath.New(BUCKET, "missing");
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration());
+		Assertions.assertFalse(connector.directoryExists(directory));
+		
+		connector.createDirectory(directory);
+		
+		Assertions.assertTrue(connector.directoryExists(directory));
+	}
+	
+	@Test
+	void absenceIsForgottenAfterTheNegativeCacheTtl()
+	{
+		final CosConnector connector = this.cachingConnector(new CosConnectorConfiguration()
+			.withBlobIndex(false)
+			.withNegativeCacheTtlMillis(50));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		
+		// Written by another process, which this connector doesn't notice until the entry expired
+		this.storage.put(BUCKET, "dir/file.0", bytes(1));
+		Assertions.assertFalse(connector.fileExists(FILE));
+		
+		awaitCondition(() -> connector.fileExists(FILE));
+	}
+}
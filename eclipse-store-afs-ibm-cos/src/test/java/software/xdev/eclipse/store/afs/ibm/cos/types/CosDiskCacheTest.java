@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosDiskCacheTest
+{
+	/**
+	 * Serves objects whose bytes are their offsets and counts the reads.
+	 */
+	private static final class CountingReader implements CosRangeReader
+	{
+		int reads;
+		
+		@Override
+		public boolean read(
+			final String bucketName,
+			final S3ObjectSummary object,
+			final ByteBuffer targetBuffer,
+			final long offset,
+			final long length
+		)
+		{
+			this.reads++;
+			for(long i = offset; i < offset + length; i++)
+			{
+				targetBuffer.put((byte)i);
+			}
+			return true;
+		}
+		
+		@Override
+		public void invalidate(final String bucketName, final Collection<String> keys)
+		{
+			// Nothing cached
+		}
+	}
+	
+	private static final S3ObjectSummary BLOB = CosBlobIndex.summary("bucket", "dir/file.1", 1024, "etag");
+	
+	private Path directory;
+	
+	@BeforeEach
+	void createDirectory() throws IOException
+	{
+		this.directory = Files.createTempDirectory("cos-disk-cache");
+	}
+	
+	@AfterEach
+	void deleteDirectory() throws IOException
+	{
+		try(final Stream<Path> walk = Files.walk(this.directory))
+		{
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+	
+	private static byte[] read(final CosRangeReader reader, final long offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Assertions.assertTrue(reader.read("bucket", BLOB, buffer, offset, length));
+		Assertions.assertEquals(length, buffer.position());
+		return buffer.array();
+	}
+	
+	@Test
+	void servesContainedRangesFromDiskAcrossRestarts()
+	{
+		final CountingReader delegate = new CountingReader();
+		final CosDiskCache cache = new CosDiskCache(delegate, this.directory, 1024);
+		
+		Assertions.assertArrayEquals(new byte[]{10, 11, 12, 13}, read(cache, 10, 4));
+		Assertions.assertArrayEquals(new byte[]{11, 12}, read(cache, 11, 2));
+		Assertions.assertEquals(1, delegate.reads);
+		
+		final CosDiskCache restarted = new CosDiskCache(delegate, this.directory, 1024);
+		Assertions.assertArrayEquals(new byte[]{12, 13}, read(restarted, 12, 2));
+		Assertions.assertEquals(1, delegate.reads);
+	}
+	
+	@Test
+	void dropsRangesOfDeletedObjects()
+	{
+		final CountingReader delegate = new CountingReader();
+		final CosDiskCache cache = new CosDiskCache(delegate, this.directory, 1024);
+		
+		read(cache, 0, 4);
+		cache.invalidate("bucket", List.of("dir/file.1"));
+		read(cache, 0, 4);
+		
+		Assertions.assertEquals(2, delegate.reads);
+	}
+	
+	@Test
+	void evictsLeastRecentlyUsedRanges()
+	{
+		final CountingReader delegate = new CountingReader();
+		final CosDiskCache cache = new CosDiskCache(delegate, this.directory, 64);
+		
+		read(cache, 0, 8);
+		read(cache, 100, 8);
+		read(cache, 0, 8);
+		// Exceeds the size, the range at 100 is the least recently used
+		for(int i = 0; i < 7; i++)
+		{
+			read(cache, 200 + i * 10, 8);
+		}
+		delegate.reads = 0;
+		read(cache, 0, 8);
+		read(cache, 100, 8);
+		
+		Assertions.assertEquals(1, delegate.reads);
+	}
+}
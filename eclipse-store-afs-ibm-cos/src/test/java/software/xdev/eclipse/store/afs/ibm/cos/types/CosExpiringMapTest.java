@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosExpiringMapTest
+{
+	@Test
+	void expiresEntriesAfterTheirTimeToLive()
+	{
+		final AtomicLong clock = new AtomicLong();
+		final CosExpiringMap<String> map = new CosExpiringMap<>(100, 10, clock::get);
+		map.put("a", "1");
+		
+		clock.set(100);
+		Assertions.assertEquals("1", map.get("a"));
+		clock.set(101);
+		Assertions.assertNull(map.get("a"));
+	}
+	
+	@Test
+	void evictsLeastRecentlyUsedEntries()
+	{
+		final CosExpiringMap<String> map = new CosExpiringMap<>(0, 2);
+		map.put("a", "1");
+		map.put("b", "2");
+		map.get("a");
+		map.put("c", "3");
+		
+		Assertions.assertEquals("1", map.get("a"));
+		Assertions.assertNull(map.get("b"));
+		Assertions.assertEquals("3", map.get("c"));
+	}
+	
+	@Test
+	void doesNotPutValuesLoadedBeforeARemoval()
+	{
+		final CosExpiringMap<String> map = new CosExpiringMap<>(0, 10);
+		final long modifications = map.modifications();
+		map.remove("b");
+		map.putIfUnmodified("a", "1", modifications);
+		Assertions.assertNull(map.get("a"));
+		
+		map.putIfUnmodified("a", "1", map.modifications());
+		Assertions.assertEquals("1", map.get("a"));
+	}
+}
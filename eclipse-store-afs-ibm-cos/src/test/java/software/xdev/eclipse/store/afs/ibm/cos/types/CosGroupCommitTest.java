@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosGroupCommitTest
+{
+	private static final String FILE_KEY = CosBlobIndex.fileKey("bucket", "dir/file.");
+	
+	private static List<ByteBuffer> data(final byte... bytes)
+	{
+		return List.of(ByteBuffer.wrap(bytes));
+	}
+	
+	@Test
+	void commitsConcurrentWritesAsOneBlob() throws Exception
+	{
+		final CosGroupCommit groupCommit = new CosGroupCommit(TimeUnit.MINUTES.toMillis(1), 4);
+		final List<byte[]> blobs = Collections.synchronizedList(new ArrayList<>());
+		final CosGroupCommit.Committer committer = (buffers, size) ->
+		{
+			final ByteBuffer blob = ByteBuffer.allocate((int)size);
+			buffers.forEach(buffer -> blob.put(buffer.duplicate()));
+			blobs.add(blob.array());
+		};
+		
+		// Whichever write comes first waits for the other one, which fills the group, so it is committed long
+		// before its window has passed
+		final CompletableFuture<Void> first = CompletableFuture.runAsync(
+			() -> groupCommit.write(FILE_KEY, data((byte)1, (byte)2), 2, committer)
+		);
+		final CompletableFuture<Void> second = CompletableFuture.runAsync(
+			() -> groupCommit.write(FILE_KEY, data((byte)3, (byte)4), 2, committer)
+		);
+		CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+		
+		Assertions.assertEquals(1, blobs.size());
+		final byte[] blob = blobs.get(0);
+		Assertions.assertTrue(
+			Arrays.equals(new byte[]{1, 2, 3, 4}, blob) || Arrays.equals(new byte[]{3, 4, 1, 2}, blob),
+			() -> Arrays.toString(blob)
+		);
+	}
+	
+	@Test
+	void writesLargeWritesOnTheirOwn()
+	{
+		final CosGroupCommit groupCommit = new CosGroupCommit(10, 4);
+		Assertions.assertTrue(groupCommit.accepts(3));
+		Assertions.assertFalse(groupCommit.accepts(4));
+	}
+}
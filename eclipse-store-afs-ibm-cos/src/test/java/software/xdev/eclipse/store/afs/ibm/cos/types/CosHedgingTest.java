@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosHedgingTest
+{
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@AfterEach
+	void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	private CosHedging hedging(final int budgetPercent)
+	{
+		final CosHedging hedging = new CosHedging(
+			this.executor,
+			new CosConnectorConfiguration()
+				.withHedgingPercentile(50)
+				.withHedgingBudgetPercent(budgetPercent)
+		);
+		// Fast requests, which make every slow one a candidate for hedging
+		for(int i = 0; i < 64; i++)
+		{
+			Assertions.assertEquals("fast", hedging.execute(cancellation -> "fast"));
+		}
+		Assertions.assertTrue(hedging.delayNanos() < TimeUnit.SECONDS.toNanos(1));
+		return hedging;
+	}
+	
+	@Test
+	void doesNotHedgeWithoutKnownLatencies()
+	{
+		final CosHedging hedging = new CosHedging(this.executor, new CosConnectorConfiguration());
+		Assertions.assertEquals(Long.MAX_VALUE, hedging.delayNanos());
+		Assertions.assertEquals("result", hedging.execute(cancellation -> "result"));
+		Assertions.assertEquals(0, hedging.hedgedRequests());
+	}
+	
+	@Test
+	void executesOnTheCallersThreadWithoutKnownLatencies()
+	{
+		final CosHedging hedging = new CosHedging(
+			command ->
+			{
+				throw new AssertionError("No attempt may be submitted");
+			},
+			new CosConnectorConfiguration()
+		);
+		final Thread caller = Thread.currentThread();
+		
+		Assertions.assertEquals("result", hedging.execute(cancellation -> Thread.currentThread() == caller
+			? "result"
+			: "other thread"));
+	}
+	
+	@Test
+	void cancelsSlowRequestWhenDuplicateAnswers() throws InterruptedException
+	{
+		final CosHedging hedging = this.hedging(100);
+		// The fast requests above the median may have been hedged as well
+		final long hedgedRequests = hedging.hedgedRequests();
+		final AtomicInteger attempts = new AtomicInteger();
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		
+		final String result = hedging.execute(cancellation ->
+		{
+			if(attempts.incrementAndGet() > 1)
+			{
+				return "duplicate";
+			}
+			cancellation.onCancel(cancelled::countDown);
+			try
+			{
+				cancelled.await();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return "slow";
+		});
+		
+		Assertions.assertEquals("duplicate", result);
+		Assertions.assertEquals(2, attempts.get());
+		Assertions.assertEquals(hedgedRequests + 1, hedging.hedgedRequests());
+		// The slow request may register its cancellation only after the duplicate answered
+		Assertions.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	void hedgesOnlyWithinBudget()
+	{
+		// 64 requests earned less than one duplicate
+		final CosHedging hedging = this.hedging(1);
+		final AtomicInteger attempts = new AtomicInteger();
+		
+		final String result = hedging.execute(cancellation ->
+		{
+			attempts.incrementAndGet();
+			try
+			{
+				Thread.sleep(200);
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return "slow";
+		});
+		
+		Assertions.assertEquals("slow", result);
+		Assertions.assertEquals(1, attempts.get());
+		Assertions.assertEquals(0, hedging.hedgedRequests());
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosIoSchedulerTest
+{
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@AfterEach
+	void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	private Future<?> submit(
+		final CosIoScheduler scheduler,
+		final CosIoClass ioClass,
+		final Runnable request
+	)
+	{
+		return this.executor.submit(() -> scheduler.run(ioClass, request));
+	}
+	
+	private static Runnable awaiting(final CountDownLatch latch)
+	{
+		return () ->
+		{
+			try
+			{
+				latch.await();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		};
+	}
+	
+	private static void awaitCondition(final BooleanSupplier condition) throws InterruptedException
+	{
+		for(int i = 0; i < 500 && !condition.getAsBoolean(); i++)
+		{
+			Thread.sleep(10);
+		}
+		Assertions.assertTrue(condition.getAsBoolean());
+	}
+	
+	@Test
+	void limitsConcurrencyOfEachClass() throws Exception
+	{
+		final CosIoScheduler scheduler = new CosIoScheduler(
+			new CosConnectorConfiguration().withIoSchedulerBackgroundMaintenance(1)
+		);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Future<?> first = this.submit(scheduler, CosIoClass.BACKGROUND_MAINTENANCE, awaiting(release));
+		awaitCondition(() -> scheduler.running(CosIoClass.BACKGROUND_MAINTENANCE) == 1);
+		
+		final Future<?> second = this.submit(scheduler, CosIoClass.BACKGROUND_MAINTENANCE, () -> { });
+		awaitCondition(() -> scheduler.waiting(CosIoClass.BACKGROUND_MAINTENANCE) == 1);
+		// Other classes are not held up by the limit
+		scheduler.run(CosIoClass.INTERACTIVE_READ, () -> { });
+		Assertions.assertFalse(second.isDone());
+		
+		release.countDown();
+		first.get();
+		second.get();
+		Assertions.assertEquals(0, scheduler.running(CosIoClass.BACKGROUND_MAINTENANCE));
+	}
+	
+	@Test
+	void givesFreedConnectionToMostUrgentClass() throws Exception
+	{
+		final CosIoScheduler scheduler = new CosIoScheduler(
+			new CosConnectorConfiguration().withIoSchedulerConnections(1)
+		);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<CosIoClass> started = new CopyOnWriteArrayList<>();
+		final Future<?> running = this.submit(scheduler, CosIoClass.BACKGROUND_MAINTENANCE, awaiting(release));
+		awaitCondition(() -> scheduler.running(CosIoClass.BACKGROUND_MAINTENANCE) == 1);
+		
+		final Future<?> background = this.submit(
+			scheduler,
+			CosIoClass.BACKGROUND_MAINTENANCE,
+			() -> started.add(CosIoClass.BACKGROUND_MAINTENANCE)
+		);
+		awaitCondition(() -> scheduler.waiting(CosIoClass.BACKGROUND_MAINTENANCE) == 1);
+		final Future<?> interactive = this.submit(
+			scheduler,
+			CosIoClass.INTERACTIVE_READ,
+			() -> started.add(CosIoClass.INTERACTIVE_READ)
+		);
+		awaitCondition(() -> scheduler.waiting(CosIoClass.INTERACTIVE_READ) == 1);
+		
+		release.countDown();
+		running.get();
+		interactive.get();
+		background.get();
+		Assertions.assertEquals(List.of(CosIoClass.INTERACTIVE_READ, CosIoClass.BACKGROUND_MAINTENANCE), started);
+	}
+	
+	@Test
+	void givesSlotBackWhileWaiting() throws Exception
+	{
+		final CosIoScheduler scheduler = new CosIoScheduler(
+			new CosConnectorConfiguration().withIoSchedulerConnections(1)
+		);
+		final CountDownLatch waitStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Future<?> waiting = this.submit(scheduler, CosIoClass.COMMIT_WRITE, () ->
+		{
+			try
+			{
+				CosRequestContext.awaitWithoutSlot(() ->
+				{
+					waitStarted.countDown();
+					release.await();
+				});
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			Assertions.assertEquals(1, scheduler.running(CosIoClass.COMMIT_WRITE));
+		});
+		Assertions.assertTrue(waitStarted.await(10, TimeUnit.SECONDS));
+		
+		// Gets the only connection while the other request waits
+		this.submit(scheduler, CosIoClass.INTERACTIVE_READ, () -> { }).get(10, TimeUnit.SECONDS);
+		
+		release.countDown();
+		waiting.get(10, TimeUnit.SECONDS);
+		Assertions.assertEquals(0, scheduler.running(CosIoClass.COMMIT_WRITE));
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosKeyTreeTest
+{
+	private static S3ObjectSummary object(final String key)
+	{
+		return CosBlobIndex.summary("bucket", key, 1, null);
+	}
+	
+	@Test
+	void parentPrefix()
+	{
+		Assertions.assertEquals("a/b/", CosKeyTree.parentPrefix("a/b/c"));
+		Assertions.assertEquals("a/", CosKeyTree.parentPrefix("a/b/"));
+		Assertions.assertEquals("", CosKeyTree.parentPrefix("a/"));
+		Assertions.assertEquals("", CosKeyTree.parentPrefix("a"));
+	}
+	
+	@Test
+	void answersFromTheListing()
+	{
+		final CosKeyTree tree = CosKeyTree.build(
+			"storage/",
+			Stream.of(
+				object("storage/channel_0/channel_0_1.dat.1"),
+				object("storage/channel_0/channel_0_1.dat.0"),
+				object("storage/channel_0/transactions_0.sft.0"),
+				object("storage/backup/")
+			)
+		);
+		
+		Assertions.assertTrue(tree.covers("storage/channel_0/"));
+		Assertions.assertFalse(tree.covers("other/"));
+		Assertions.assertTrue(tree.directoryExists("storage/backup/"));
+		Assertions.assertFalse(tree.directoryExists("storage/channel_1/"));
+		Assertions.assertEquals(
+			List.of("storage/backup/", "storage/channel_0/"),
+			tree.childKeys("storage/")
+		);
+		
+		final String prefix = "storage/channel_0/channel_0_1.dat.";
+		final Pattern pattern = Pattern.compile("^" + Pattern.quote(prefix) + "[0-9]+$");
+		tree.add(object(prefix + "2"));
+		tree.removed(prefix + "0");
+		Assertions.assertEquals(
+			List.of(prefix + "1", prefix + "2"),
+			tree.blobs(prefix, pattern).stream().map(S3ObjectSummary::getKey).collect(Collectors.toList())
+		);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosListingTest
+{
+	private static final String BUCKET = "test-bucket";
+	
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final CosS3Local storage = new CosS3Local().withPageSize(3);
+	private final AmazonS3 s3 = this.storage.client();
+	
+	@AfterEach
+	void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	private List<String> putBlobs(final int count)
+	{
+		final List<String> keys = IntStream.range(0, count)
+			.mapToObj(number -> String.format("dir/file.%02d", number))
+			.collect(Collectors.toList());
+		keys.forEach(key -> this.storage.put(BUCKET, key, new byte[]{1}));
+		// Outside of the listed prefix
+		this.storage.put(BUCKET, "other/file.0", new byte[]{1});
+		return keys;
+	}
+	
+	private static List<String> keys(final Stream<S3ObjectSummary> listing)
+	{
+		try(listing)
+		{
+			return listing.map(S3ObjectSummary::getKey).collect(Collectors.toList());
+		}
+	}
+	
+	@Test
+	void followsContinuationTokensOfTruncatedPages()
+	{
+		final List<String> expectedKeys = this.putBlobs(10);
+		
+		final List<String> keys = keys(CosListing.objects(this.s3::listObjectsV2, null, BUCKET, "dir/"));
+		
+		Assertions.assertEquals(expectedKeys, keys);
+		Assertions.assertEquals(4, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void prefetchedPagesKeepTheOrder()
+	{
+		final List<String> expectedKeys = this.putBlobs(10);
+		
+		final List<String> keys = keys(CosListing.objects(this.s3::listObjectsV2, this.executor, BUCKET, "dir/"));
+		
+		Assertions.assertEquals(expectedKeys, keys);
+		Assertions.assertEquals(4, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void requestsPagesOnlyWhenConsumed()
+	{
+		this.putBlobs(10);
+		
+		try(final Stream<S3ObjectSummary> listing = CosListing.objects(this.s3::listObjectsV2, null, BUCKET, "dir/"))
+		{
+			Assertions.assertEquals("dir/file.00", listing.findFirst().orElseThrow().getKey());
+		}
+		Assertions.assertEquals(1, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+	
+	@Test
+	void childKeysContainCommonPrefixesOfAllPages()
+	{
+		List.of("dir/a/file.0", "dir/b/file.0", "dir/c/file.0", "dir/d/file.0", "dir/file.0", "dir/file.1")
+			.forEach(key -> this.storage.put(BUCKET, key, new byte[]{1}));
+		
+		final List<String> childKeys;
+		try(final Stream<String> listing = CosListing.childKeys(this.s3::listObjectsV2, null, BUCKET, "dir/", "/"))
+		{
+			childKeys = listing.collect(Collectors.toList());
+		}
+		
+		Assertions.assertEquals(List.of("dir/a/", "dir/b/", "dir/c/", "dir/d/", "dir/file.0", "dir/file.1"), childKeys);
+		Assertions.assertEquals(2, this.storage.requests(ListObjectsV2Request.class).size());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosMemoryCacheTest
+{
+	private static final S3ObjectSummary BLOB = CosBlobIndex.summary("bucket", "dir/file.1", 100, "etag");
+	
+	/**
+	 * Serves objects whose bytes are their offsets and records the requested ranges.
+	 */
+	private static final class RecordingReader implements CosRangeReader
+	{
+		final List<String> ranges = new ArrayList<>();
+		
+		@Override
+		public boolean read(
+			final String bucketName,
+			final S3ObjectSummary object,
+			final ByteBuffer targetBuffer,
+			final long offset,
+			final long length
+		)
+		{
+			this.ranges.add(offset + "+" + length);
+			for(long i = offset; i < offset + length; i++)
+			{
+				targetBuffer.put((byte)i);
+			}
+			return true;
+		}
+		
+		@Override
+		public void invalidate(final String bucketName, final Collection<String> keys)
+		{
+			// Nothing cached
+		}
+	}
+	
+	private static byte[] read(final CosRangeReader reader, final long offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Assertions.assertTrue(reader.read("bucket", BLOB, buffer, offset, length));
+		Assertions.assertEquals(length, buffer.position());
+		return buffer.array();
+	}
+	
+	@Test
+	void fetchesOnlyMissingBlocks()
+	{
+		final RecordingReader delegate = new RecordingReader();
+		final CosMemoryCache cache = new CosMemoryCache(delegate, 1024, 10);
+		
+		Assertions.assertArrayEquals(new byte[]{25, 26}, read(cache, 25, 2));
+		Assertions.assertArrayEquals(
+			new byte[]{18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31},
+			read(cache, 18, 14)
+		);
+		// The last block ends with the object
+		Assertions.assertArrayEquals(new byte[]{98, 99}, read(cache, 98, 2));
+		
+		Assertions.assertEquals(List.of("20+10", "10+10", "30+10", "90+10"), delegate.ranges);
+		final CosCacheStatistics statistics = cache.statistics();
+		Assertions.assertEquals(1, statistics.getHits());
+		Assertions.assertEquals(4, statistics.getMisses());
+		Assertions.assertEquals(40, statistics.getUsedBytes());
+	}
+	
+	@Test
+	void evictsBlocksReadOnlyOnceFirst()
+	{
+		final RecordingReader delegate = new RecordingReader();
+		// Room for five blocks
+		final CosMemoryCache cache = new CosMemoryCache(delegate, 50, 10);
+		
+		read(cache, 0, 1);
+		read(cache, 0, 1);
+		// A scan over more blocks than fit into the cache
+		for(int block = 1; block <= 6; block++)
+		{
+			read(cache, block * 10, 1);
+		}
+		delegate.ranges.clear();
+		read(cache, 0, 1);
+		
+		Assertions.assertEquals(List.of(), delegate.ranges);
+		Assertions.assertEquals(2, cache.statistics().getEvictions());
+	}
+	
+	@Test
+	void dropsBlocksOfDeletedObjects()
+	{
+		final RecordingReader delegate = new RecordingReader();
+		final CosMemoryCache cache = new CosMemoryCache(delegate, 1024, 10);
+		
+		read(cache, 0, 4);
+		cache.invalidate("bucket", List.of("dir/file.1"));
+		read(cache, 0, 4);
+		
+		Assertions.assertEquals(List.of("0+10", "0+10"), delegate.ranges);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.AmazonS3Exception;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadResult;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartRequest;
+
+
+class CosMultipartUploadTest
+{
+	@Test
+	void splitSpansMultipleBuffers()
+	{
+		final ByteBuffer first = ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4});
+		first.position(1);
+		final ByteBuffer second = ByteBuffer.wrap(new byte[]{5, 6, 7});
+		
+		final List<List<ByteBuffer>> parts = CosMultipartUpload.split(List.of(first, second), 3);
+		
+		Assertions.assertEquals(3, parts.size());
+		Assertions.assertEquals(1, parts.get(0).size());
+		Assertions.assertEquals(2, parts.get(1).size());
+		Assertions.assertEquals(1, parts.get(1).get(0).remaining());
+		Assertions.assertEquals(4, parts.get(1).get(0).get());
+		Assertions.assertEquals(5, parts.get(1).get(1).get());
+		Assertions.assertEquals(1, parts.get(2).size());
+		Assertions.assertEquals(1, parts.get(2).get(0).remaining());
+		// The sources are left untouched
+		Assertions.assertEquals(1, first.position());
+		Assertions.assertEquals(0, second.position());
+	}
+	
+	@Test
+	void rejectedPartIsNotRetried()
+	{
+		final AmazonS3 s3 = Mockito.mock(AmazonS3.class);
+		final InitiateMultipartUploadResult initiated = new InitiateMultipartUploadResult();
+		initiated.setUploadId("upload");
+		Mockito.when(s3.initiateMultipartUpload(ArgumentMatchers.any(InitiateMultipartUploadRequest.class)))
+			.thenReturn(initiated);
+		final AmazonS3Exception forbidden = new AmazonS3Exception("Forbidden");
+		forbidden.setStatusCode(403);
+		Mockito.when(s3.uploadPart(ArgumentMatchers.any(UploadPartRequest.class))).thenThrow(forbidden);
+		
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			final CosMultipartUpload upload = new CosMultipartUpload(
+				s3,
+				executor,
+				CosMultipartUpload.MIN_PART_SIZE,
+				3,
+				CosIoScheduler.UNLIMITED
+			);
+			Assertions.assertThrows(
+				AmazonS3Exception.class,
+				() -> upload.upload("bucket", "key", List.of(ByteBuffer.allocate(1)), 1)
+			);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+		
+		Mockito.verify(s3).uploadPart(ArgumentMatchers.any(UploadPartRequest.class));
+		Mockito.verify(s3).abortMultipartUpload(ArgumentMatchers.any(AbortMultipartUploadRequest.class));
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.S3Object;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectInputStream;
+
+
+class CosObjectReaderTest
+{
+	private static final String BUCKET = "test-bucket";
+	private static final String KEY = "dir/file.0";
+	
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@AfterEach
+	void shutdown()
+	{
+		this.executor.shutdownNow();
+	}
+	
+	private CosObjectReader parallelReader(final AmazonS3 s3, final long chunkSize)
+	{
+		return new CosObjectReader(
+			s3,
+			this.executor,
+			new CosConnectorConfiguration()
+				.withParallelReads(true)
+				.withParallelReadChunkSize(chunkSize),
+			false,
+			null,
+			CosIoScheduler.UNLIMITED
+		);
+	}
+	
+	/**
+	 * @return a reader whose hedging duplicates every request which takes longer than the fast ones
+	 */
+	private CosObjectReader hedgingReader(final AmazonS3 s3, final CosHedging hedging)
+	{
+		for(int i = 0; i < 64; i++)
+		{
+			hedging.execute(cancellation -> "fast");
+		}
+		return new CosObjectReader(
+			s3,
+			this.executor,
+			new CosConnectorConfiguration().withHedgingMaxRangeSize(4),
+			false,
+			hedging,
+			CosIoScheduler.UNLIMITED
+		);
+	}
+	
+	private static void sleepQuietly(final long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Test
+	void parallelReadWritesEveryChunkIntoItsSlice()
+	{
+		final CosS3Local storage = new CosS3Local();
+		storage.put(BUCKET, KEY, new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+		final ByteBuffer target = ByteBuffer.allocate(12);
+		target.position(2);
+		
+		Assertions.assertTrue(this.parallelReader(storage.client(), 3)
+			.read(BUCKET, CosBlobIndex.summary(BUCKET, KEY, 10, null), target, 1, 8));
+		
+		Assertions.assertEquals(10, target.position());
+		Assertions.assertArrayEquals(new byte[]{0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 0, 0}, target.array());
+		Assertions.assertEquals(
+			Set.of("1-3", "4-6", "7-8"),
+			storage.requests(GetObjectRequest.class).stream()
+				.map(request -> request.getRange()[0] + "-" + request.getRange()[1])
+				.collect(Collectors.toSet())
+		);
+	}
+	
+	@Test
+	void failedChunkAbortsTheRunningChunksBeforeReturning() throws Exception
+	{
+		final CountDownLatch reading = new CountDownLatch(1);
+		final HttpGet slowRequest = new HttpGet();
+		final AtomicBoolean slowReadFinished = new AtomicBoolean();
+		final AmazonS3 s3 = Mockito.mock(AmazonS3.class);
+		Mockito.when(s3.getObject(Mockito.any(GetObjectRequest.class))).thenAnswer(invocation ->
+		{
+			final GetObjectRequest request = invocation.getArgument(0);
+			if(request.getRange()[0] == 0)
+			{
+				// Fails while the other chunk is still reading its response
+				Assertions.assertTrue(reading.await(5, TimeUnit.SECONDS));
+				throw new SdkClientException("Injected failure");
+			}
+			final S3Object object = new S3Object();
+			object.setObjectContent(new S3ObjectInputStream(
+				new SlowInputStream(reading, slowRequest, slowReadFinished),
+				slowRequest
+			));
+			return object;
+		});
+		final ByteBuffer target = ByteBuffer.allocate(6);
+		
+		final SdkClientException e = Assertions.assertThrows(
+			SdkClientException.class,
+			() -> this.parallelReader(s3, 3).read(BUCKET, CosBlobIndex.summary(BUCKET, KEY, 6, null), target, 0, 6)
+		);
+		
+		Assertions.assertEquals("Injected failure", e.getMessage());
+		Assertions.assertTrue(slowRequest.isAborted());
+		Assertions.assertTrue(slowReadFinished.get());
+		Assertions.assertEquals(0, target.position());
+	}
+	
+	/**
+	 * Blocks on the first read until the request is aborted, at most for some seconds.
+	 */
+	private static final class SlowInputStream extends InputStream
+	{
+		private final CountDownLatch reading;
+		private final HttpGet request;
+		private final AtomicBoolean finished;
+		
+		SlowInputStream(final CountDownLatch reading, final HttpGet request, final AtomicBoolean finished)
+		{
+			this.reading = reading;
+			this.request = request;
+			this.finished = finished;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] data = new byte[1];
+			return this.read(data, 0, 1) < 0
+				? -1
+				: data[0];
+		}
+		
+		@Override
+		public int read(final byte[] data, final int offset, final int length) throws IOException
+		{
+			this.reading.countDown();
+			try
+			{
+				final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+				while(!this.request.isAborted() && System.nanoTime() < deadline)
+				{
+					Thread.sleep(10);
+				}
+				if(this.request.isAborted())
+				{
+					throw new IOException("Aborted");
+				}
+				return length;
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			finally
+			{
+				this.finished.set(true);
+			}
+		}
+	}
+	
+	@Test
+	void onlyHedgesRangesUpToTheMaxRangeSize()
+	{
+		final CosS3Local storage = new CosS3Local();
+		storage.put(BUCKET, KEY, new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+		final CosHedging hedging = new CosHedging(
+			this.executor,
+			new CosConnectorConfiguration().withHedgingPercentile(50).withHedgingBudgetPercent(100)
+		);
+		final CosObjectReader reader = this.hedgingReader(storage.client(), hedging);
+		storage.failWhen(request ->
+		{
+			sleepQuietly(100);
+			return false;
+		});
+		final long hedgedRequests = hedging.hedgedRequests();
+		
+		final ByteBuffer large = ByteBuffer.allocate(8);
+		Assertions.assertTrue(reader.read(BUCKET, CosBlobIndex.summary(BUCKET, KEY, 10, null), large, 0, 8));
+		Assertions.assertEquals(hedgedRequests, hedging.hedgedRequests());
+		Assertions.assertEquals(1, storage.requests(GetObjectRequest.class).size());
+		
+		final ByteBuffer small = ByteBuffer.allocate(4);
+		Assertions.assertTrue(reader.read(BUCKET, CosBlobIndex.summary(BUCKET, KEY, 10, null), small, 2, 4));
+		Assertions.assertEquals(hedgedRequests + 1, hedging.hedgedRequests());
+		Assertions.assertArrayEquals(new byte[]{2, 3, 4, 5}, small.array());
+	}
+}
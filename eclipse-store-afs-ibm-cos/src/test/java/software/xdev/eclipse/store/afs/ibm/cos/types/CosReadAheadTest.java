@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosReadAheadTest
+{
+	private static final S3ObjectSummary BLOB = CosBlobIndex.summary("bucket", "dir/file.1", 100, "etag");
+	
+	/**
+	 * Serves objects whose bytes are their offsets and records the requested ranges.
+	 */
+	private static final class RecordingReader implements CosRangeReader
+	{
+		final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+		
+		@Override
+		public boolean read(
+			final String bucketName,
+			final S3ObjectSummary object,
+			final ByteBuffer targetBuffer,
+			final long offset,
+			final long length
+		)
+		{
+			this.ranges.add(offset + "+" + length);
+			for(long i = offset; i < offset + length; i++)
+			{
+				targetBuffer.put((byte)i);
+			}
+			return true;
+		}
+		
+		@Override
+		public void invalidate(final String bucketName, final Collection<String> keys)
+		{
+			// Nothing cached
+		}
+	}
+	
+	private static byte[] read(final CosRangeReader reader, final long offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Assertions.assertTrue(reader.read("bucket", BLOB, buffer, offset, length));
+		Assertions.assertEquals(length, buffer.position());
+		return buffer.array();
+	}
+	
+	@Test
+	void servesSequentialReadsFromPrefetchedChunks()
+	{
+		final RecordingReader delegate = new RecordingReader();
+		try(final CosReadAhead readAhead = new CosReadAhead(
+			delegate,
+			new CosConnectorConfiguration()
+				.withReadAheadChunkSize(4)
+				.withReadAheadMaxWindow(16)
+		))
+		{
+			Assertions.assertArrayEquals(new byte[]{0, 1, 2, 3}, read(readAhead, 0, 4));
+			Assertions.assertArrayEquals(new byte[]{4, 5, 6, 7}, read(readAhead, 4, 4));
+			Assertions.assertArrayEquals(new byte[]{8, 9, 10, 11, 12, 13}, read(readAhead, 8, 6));
+			Assertions.assertArrayEquals(new byte[]{14, 15}, read(readAhead, 14, 2));
+			
+			// The third read waited for the prefetched chunk, the fourth one was prefetched by the third.
+			// Prefetches run concurrently, so their order is not fixed.
+			final List<String> ranges = new ArrayList<>(delegate.ranges);
+			Assertions.assertTrue(ranges.containsAll(List.of("0+4", "4+4", "8+4", "14+4")), ranges::toString);
+			Assertions.assertFalse(ranges.contains("8+6"));
+			Assertions.assertFalse(ranges.contains("14+2"));
+		}
+	}
+	
+	@Test
+	void doesNotPrefetchRandomReads()
+	{
+		final RecordingReader delegate = new RecordingReader();
+		try(final CosReadAhead readAhead = new CosReadAhead(
+			delegate,
+			new CosConnectorConfiguration().withReadAheadChunkSize(4)
+		))
+		{
+			read(readAhead, 40, 4);
+			read(readAhead, 0, 4);
+			read(readAhead, 20, 4);
+			
+			Assertions.assertEquals(List.of("40+4", "0+4", "20+4"), delegate.ranges);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosReadCoalescerTest
+{
+	private static final S3ObjectSummary BLOB = CosBlobIndex.summary("bucket", "dir/file.1", 1024, "etag");
+	
+	/**
+	 * Serves objects whose bytes are their offsets and records the requested ranges.
+	 */
+	private static final class RecordingReader implements CosRangeReader
+	{
+		final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+		
+		@Override
+		public boolean read(
+			final String bucketName,
+			final S3ObjectSummary object,
+			final ByteBuffer targetBuffer,
+			final long offset,
+			final long length
+		)
+		{
+			this.ranges.add(offset + "+" + length);
+			for(long i = offset; i < offset + length; i++)
+			{
+				targetBuffer.put((byte)i);
+			}
+			return true;
+		}
+		
+		@Override
+		public void invalidate(final String bucketName, final Collection<String> keys)
+		{
+			// Nothing cached
+		}
+	}
+	
+	private static byte[] read(final CosRangeReader reader, final long offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Assertions.assertTrue(reader.read("bucket", BLOB, buffer, offset, length));
+		Assertions.assertEquals(length, buffer.position());
+		return buffer.array();
+	}
+	
+	private static CosReadCoalescer coalescer(final CosRangeReader delegate)
+	{
+		return new CosReadCoalescer(
+			delegate,
+			new CosConnectorConfiguration()
+				.withReadCoalescingWindowMillis(1000)
+				.withReadCoalescingMaxGap(4)
+				.withReadCoalescingMaxSize(64)
+		);
+	}
+	
+	@Test
+	void readsNearbyRangesWithOneRequest() throws Exception
+	{
+		final RecordingReader delegate = new RecordingReader();
+		final CosReadCoalescer coalescer = coalescer(delegate);
+		
+		// Whichever read comes first waits for the window, the other one joins it
+		final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> read(coalescer, 0, 4));
+		Assertions.assertArrayEquals(new byte[]{6, 7, 8, 9}, read(coalescer, 6, 4));
+		Assertions.assertArrayEquals(new byte[]{0, 1, 2, 3}, leader.get(10, TimeUnit.SECONDS));
+		
+		Assertions.assertEquals(List.of("0+10"), delegate.ranges);
+	}
+	
+	@Test
+	void readsDistantRangesOnTheirOwn() throws Exception
+	{
+		final RecordingReader delegate = new RecordingReader();
+		final CosReadCoalescer coalescer = coalescer(delegate);
+		
+		final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> read(coalescer, 0, 4));
+		Assertions.assertArrayEquals(new byte[]{20, 21}, read(coalescer, 20, 2));
+		leader.get(10, TimeUnit.SECONDS);
+		
+		Assertions.assertEquals(2, delegate.ranges.size());
+		Assertions.assertEquals(Set.of("0+4", "20+2"), Set.copyOf(delegate.ranges));
+	}
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+
+class CosRequestContextTest
+{
+	@Test
+	void runsWorkInBackground()
+	{
+		Assertions.assertFalse(CosRequestContext.isBackground());
+		CosRequestContext.runInBackground(() -> Assertions.assertTrue(CosRequestContext.isBackground()));
+		Assertions.assertFalse(CosRequestContext.isBackground());
+	}
+	
+	@Test
+	void tasksKeepTheBackgroundPriorityOnOtherThreads()
+	{
+		final AtomicBoolean background = new AtomicBoolean();
+		final Runnable task = () -> background.set(CosRequestContext.isBackground());
+		Assertions.assertSame(task, CosRequestContext.withCurrentPriority(task));
+		
+		final AtomicReference<Runnable> handedOver = new AtomicReference<>();
+		CosRequestContext.runInBackground(() -> handedOver.set(CosRequestContext.withCurrentPriority(task)));
+		// Executed by a foreground thread
+		handedOver.get().run();
+		Assertions.assertTrue(background.get());
+	}
+}
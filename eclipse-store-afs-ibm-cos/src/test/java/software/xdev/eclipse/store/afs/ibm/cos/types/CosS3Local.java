@@ -0,0 +1,585 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+
+import com.ibm.cloud.objectstorage.AmazonWebServiceRequest;
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.AmazonS3;
+import com.ibm.cloud.objectstorage.services.s3.model.AbortMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.AmazonS3Exception;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CompleteMultipartUploadResult;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyObjectResult;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.CopyPartResult;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.DeleteObjectsResult;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectMetadataRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.GetObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.InitiateMultipartUploadResult;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Request;
+import com.ibm.cloud.objectstorage.services.s3.model.ListObjectsV2Result;
+import com.ibm.cloud.objectstorage.services.s3.model.MultiObjectDeleteException;
+import com.ibm.cloud.objectstorage.services.s3.model.ObjectMetadata;
+import com.ibm.cloud.objectstorage.services.s3.model.PartETag;
+import com.ibm.cloud.objectstorage.services.s3.model.PutObjectRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.PutObjectResult;
+import com.ibm.cloud.objectstorage.services.s3.model.S3Object;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectInputStream;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartRequest;
+import com.ibm.cloud.objectstorage.services.s3.model.UploadPartResult;
+
+
+/**
+ * Keeps the objects of an {@link AmazonS3} in memory, to locally test the connector. Only the requests used by the
+ * connector are supported, see {@link #client()}.
+ * <p>
+ * Failures can be injected for any request, and keys can be made undeletable to simulate partly failing batch
+ * deletes.
+ * </p>
+ */
+class CosS3Local
+{
+	private static final int HTTP_NOT_FOUND = 404;
+	
+	private static final class StoredObject
+	{
+		final byte[] data;
+		final String eTag;
+		final Map<String, String> userMetadata;
+		
+		StoredObject(final byte[] data, final String eTag, final Map<String, String> userMetadata)
+		{
+			this.data = data;
+			this.eTag = eTag;
+			this.userMetadata = userMetadata;
+		}
+	}
+	
+	private static final class Upload
+	{
+		final String bucketName;
+		final String key;
+		final Map<String, String> userMetadata;
+		final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+		
+		Upload(final String bucketName, final String key, final Map<String, String> userMetadata)
+		{
+			this.bucketName = bucketName;
+			this.key = key;
+			this.userMetadata = userMetadata;
+		}
+	}
+	
+	private final AtomicLong nextETag = new AtomicLong();
+	private final AtomicLong nextUploadId = new AtomicLong();
+	/**
+	 * Objects by bucket name and key.
+	 */
+	private final Map<String, StoredObject> objects = new TreeMap<>();
+	private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+	private final List<AmazonWebServiceRequest> requests = new ArrayList<>();
+	private final Set<String> undeletableKeys = ConcurrentHashMap.newKeySet();
+	private volatile Predicate<AmazonWebServiceRequest> failure = request -> false;
+	private volatile int pageSize = 1000;
+	
+	/**
+	 * @return a client whose requests are answered by this storage
+	 */
+	AmazonS3 client()
+	{
+		return Mockito.mock(AmazonS3.class, AdditionalAnswers.delegatesTo(this));
+	}
+	
+	/**
+	 * Limits the number of keys of every listing page, so listings are split into several pages.
+	 */
+	CosS3Local withPageSize(final int pageSize)
+	{
+		this.pageSize = pageSize;
+		return this;
+	}
+	
+	/**
+	 * Lets every request which matches the condition fail with a {@link SdkClientException}. The condition is
+	 * tested outside of the storage's lock, so it may block to delay a request.
+	 */
+	void failWhen(final Predicate<AmazonWebServiceRequest> failure)
+	{
+		this.failure = failure;
+	}
+	
+	/**
+	 * Lets the deletes of the key fail.
+	 */
+	void undeletable(final String key)
+	{
+		this.undeletableKeys.add(key);
+	}
+	
+	synchronized void put(final String bucketName, final String key, final byte[] data)
+	{
+		this.store(bucketName, key, data, Map.of());
+	}
+	
+	synchronized void put(
+		final String bucketName,
+		final String key,
+		final byte[] data,
+		final Map<String, String> userMetadata
+	)
+	{
+		this.store(bucketName, key, data, userMetadata);
+	}
+	
+	synchronized byte[] data(final String bucketName, final String key)
+	{
+		final StoredObject object = this.objects.get(objectKey(bucketName, key));
+		return object != null
+			? object.data.clone()
+			: null;
+	}
+	
+	synchronized String eTag(final String bucketName, final String key)
+	{
+		final StoredObject object = this.objects.get(objectKey(bucketName, key));
+		return object != null
+			? object.eTag
+			: null;
+	}
+	
+	/**
+	 * @return all keys of the bucket in their order
+	 */
+	synchronized List<String> keys(final String bucketName)
+	{
+		final String prefix = objectKey(bucketName, "");
+		return this.objects.keySet().stream()
+			.filter(objectKey -> objectKey.startsWith(prefix))
+			.map(objectKey -> objectKey.substring(prefix.length()))
+			.collect(Collectors.toList());
+	}
+	
+	/**
+	 * @return the requests of the type which were received so far
+	 */
+	synchronized <R extends AmazonWebServiceRequest> List<R> requests(final Class<R> type)
+	{
+		return this.requests.stream()
+			.filter(type::isInstance)
+			.map(type::cast)
+			.collect(Collectors.toList());
+	}
+	
+	int openUploads()
+	{
+		return this.uploads.size();
+	}
+	
+	private static String objectKey(final String bucketName, final String key)
+	{
+		return bucketName + "/" + key;
+	}
+	
+	private void received(final AmazonWebServiceRequest request)
+	{
+		synchronized(this)
+		{
+			this.requests.add(request);
+		}
+		if(this.failure.test(request))
+		{
+			throw new SdkClientException("Injected failure of " + request.getClass().getSimpleName());
+		}
+	}
+	
+	private synchronized String store(
+		final String bucketName,
+		final String key,
+		final byte[] data,
+		final Map<String, String> userMetadata
+	)
+	{
+		final String eTag = "etag-" + this.nextETag.incrementAndGet();
+		this.objects.put(objectKey(bucketName, key), new StoredObject(data, eTag, userMetadata));
+		return eTag;
+	}
+	
+	private static Map<String, String> userMetadata(final ObjectMetadata metadata)
+	{
+		return metadata != null
+			? Map.copyOf(metadata.getUserMetadata())
+			: Map.of();
+	}
+	
+	private synchronized StoredObject existing(final String bucketName, final String key)
+	{
+		final StoredObject object = this.objects.get(objectKey(bucketName, key));
+		if(object == null)
+		{
+			final AmazonS3Exception e = new AmazonS3Exception("The specified key does not exist: " + key);
+			e.setStatusCode(HTTP_NOT_FOUND);
+			e.setErrorCode("NoSuchKey");
+			throw e;
+		}
+		return object;
+	}
+	
+	private static boolean matches(final List<String> eTagConstraints, final StoredObject object)
+	{
+		return eTagConstraints.isEmpty() || eTagConstraints.contains(object.eTag);
+	}
+	
+	private static byte[] readFully(final InputStream inputStream, final long length)
+	{
+		try
+		{
+			final byte[] data = inputStream.readNBytes(Math.toIntExact(length));
+			if(data.length != length)
+			{
+				throw new SdkClientException("Expected " + length + " bytes, but got " + data.length);
+			}
+			return data;
+		}
+		catch(final IOException e)
+		{
+			throw new SdkClientException(e);
+		}
+	}
+	
+	public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request)
+	{
+		this.received(request);
+		final String prefix = request.getPrefix() != null
+			? request.getPrefix()
+			: "";
+		final String delimiter = request.getDelimiter();
+		final TreeMap<String, S3ObjectSummary> entries = new TreeMap<>();
+		final Set<String> commonPrefixes = new TreeSet<>();
+		synchronized(this)
+		{
+			for(final String key : this.keys(request.getBucketName()))
+			{
+				if(!key.startsWith(prefix))
+				{
+					continue;
+				}
+				final int delimiterIndex = delimiter != null
+					? key.indexOf(delimiter, prefix.length())
+					: -1;
+				if(delimiterIndex >= 0)
+				{
+					final String commonPrefix = key.substring(0, delimiterIndex + delimiter.length());
+					commonPrefixes.add(commonPrefix);
+					entries.put(commonPrefix, null);
+					continue;
+				}
+				final StoredObject object = this.objects.get(objectKey(request.getBucketName(), key));
+				final S3ObjectSummary summary = new S3ObjectSummary();
+				summary.setBucketName(request.getBucketName());
+				summary.setKey(key);
+				summary.setSize(object.data.length);
+				summary.setETag(object.eTag);
+				entries.put(key, summary);
+			}
+		}
+		
+		final int start = request.getContinuationToken() != null
+			? Integer.parseInt(request.getContinuationToken())
+			: 0;
+		final int maxKeys = request.getMaxKeys() != null
+			? Math.min(request.getMaxKeys(), this.pageSize)
+			: this.pageSize;
+		final List<Map.Entry<String, S3ObjectSummary>> page = new ArrayList<>(entries.entrySet())
+			.subList(Math.min(start, entries.size()), Math.min(start + maxKeys, entries.size()));
+		
+		final ListObjectsV2Result result = new ListObjectsV2Result();
+		result.setBucketName(request.getBucketName());
+		result.setPrefix(prefix);
+		result.setContinuationToken(request.getContinuationToken());
+		final List<String> pageCommonPrefixes = new ArrayList<>();
+		for(final Map.Entry<String, S3ObjectSummary> entry : page)
+		{
+			if(entry.getValue() != null)
+			{
+				result.getObjectSummaries().add(entry.getValue());
+			}
+			else
+			{
+				pageCommonPrefixes.add(entry.getKey());
+			}
+		}
+		result.setCommonPrefixes(pageCommonPrefixes);
+		result.setKeyCount(page.size());
+		result.setTruncated(start + maxKeys < entries.size());
+		if(result.isTruncated())
+		{
+			result.setNextContinuationToken(String.valueOf(start + maxKeys));
+		}
+		return result;
+	}
+	
+	public PutObjectResult putObject(final String bucketName, final String key, final String content)
+	{
+		final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(data.length);
+		return this.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(data), metadata));
+	}
+	
+	public PutObjectResult putObject(final PutObjectRequest request)
+	{
+		this.received(request);
+		final byte[] data = readFully(request.getInputStream(), request.getMetadata().getContentLength());
+		final PutObjectResult result = new PutObjectResult();
+		result.setETag(this.store(
+			request.getBucketName(),
+			request.getKey(),
+			data,
+			userMetadata(request.getMetadata())
+		));
+		return result;
+	}
+	
+	public ObjectMetadata getObjectMetadata(final String bucketName, final String key)
+	{
+		return this.getObjectMetadata(new GetObjectMetadataRequest(bucketName, key));
+	}
+	
+	public ObjectMetadata getObjectMetadata(final GetObjectMetadataRequest request)
+	{
+		this.received(request);
+		final StoredObject object = this.existing(request.getBucketName(), request.getKey());
+		final ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(object.data.length);
+		metadata.setUserMetadata(object.userMetadata);
+		return metadata;
+	}
+	
+	public String getObjectAsString(final String bucketName, final String key)
+	{
+		this.received(new GetObjectRequest(bucketName, key));
+		return new String(this.existing(bucketName, key).data, StandardCharsets.UTF_8);
+	}
+	
+	public S3Object getObject(final GetObjectRequest request)
+	{
+		this.received(request);
+		final StoredObject object = this.existing(request.getBucketName(), request.getKey());
+		if(!matches(request.getMatchingETagConstraints(), object))
+		{
+			return null;
+		}
+		final long[] range = request.getRange();
+		final byte[] data = range != null
+			? Arrays.copyOfRange(
+				object.data,
+				(int)range[0],
+				(int)Math.min(range[1] + 1, object.data.length))
+			: object.data;
+		
+		final S3Object result = new S3Object();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.getObjectMetadata().setContentLength(data.length);
+		result.setObjectContent(new S3ObjectInputStream(new ByteArrayInputStream(data), null));
+		return result;
+	}
+	
+	public void deleteObject(final String bucketName, final String key)
+	{
+		this.deleteObject(new DeleteObjectRequest(bucketName, key));
+	}
+	
+	public void deleteObject(final DeleteObjectRequest request)
+	{
+		this.received(request);
+		if(this.undeletableKeys.contains(request.getKey()))
+		{
+			throw new AmazonS3Exception("Access denied: " + request.getKey());
+		}
+		synchronized(this)
+		{
+			this.objects.remove(objectKey(request.getBucketName(), request.getKey()));
+		}
+	}
+	
+	public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request)
+	{
+		this.received(request);
+		final List<DeleteObjectsResult.DeletedObject> deleted = new ArrayList<>();
+		final List<MultiObjectDeleteException.DeleteError> errors = new ArrayList<>();
+		synchronized(this)
+		{
+			for(final DeleteObjectsRequest.KeyVersion keyVersion : request.getKeys())
+			{
+				if(this.undeletableKeys.contains(keyVersion.getKey()))
+				{
+					final MultiObjectDeleteException.DeleteError error = new MultiObjectDeleteException.DeleteError();
+					error.setKey(keyVersion.getKey());
+					error.setCode("AccessDenied");
+					errors.add(error);
+					continue;
+				}
+				this.objects.remove(objectKey(request.getBucketName(), keyVersion.getKey()));
+				final DeleteObjectsResult.DeletedObject deletedObject = new DeleteObjectsResult.DeletedObject();
+				deletedObject.setKey(keyVersion.getKey());
+				deleted.add(deletedObject);
+			}
+		}
+		if(!errors.isEmpty())
+		{
+			throw new MultiObjectDeleteException(errors, deleted);
+		}
+		return new DeleteObjectsResult(deleted);
+	}
+	
+	public CopyObjectResult copyObject(final CopyObjectRequest request)
+	{
+		this.received(request);
+		final StoredObject source = this.existing(request.getSourceBucketName(), request.getSourceKey());
+		if(!matches(request.getMatchingETagConstraints(), source))
+		{
+			return null;
+		}
+		final CopyObjectResult result = new CopyObjectResult();
+		result.setETag(this.store(
+			request.getDestinationBucketName(),
+			request.getDestinationKey(),
+			source.data,
+			source.userMetadata
+		));
+		return result;
+	}
+	
+	public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request)
+	{
+		this.received(request);
+		final String uploadId = "upload-" + this.nextUploadId.incrementAndGet();
+		this.uploads.put(
+			uploadId,
+			new Upload(request.getBucketName(), request.getKey(), userMetadata(request.getObjectMetadata()))
+		);
+		final InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+		result.setBucketName(request.getBucketName());
+		result.setKey(request.getKey());
+		result.setUploadId(uploadId);
+		return result;
+	}
+	
+	private Upload upload(final String uploadId)
+	{
+		final Upload upload = this.uploads.get(uploadId);
+		if(upload == null)
+		{
+			final AmazonS3Exception e = new AmazonS3Exception("The specified upload does not exist: " + uploadId);
+			e.setStatusCode(HTTP_NOT_FOUND);
+			e.setErrorCode("NoSuchUpload");
+			throw e;
+		}
+		return upload;
+	}
+	
+	public UploadPartResult uploadPart(final UploadPartRequest request)
+	{
+		this.received(request);
+		final Upload upload = this.upload(request.getUploadId());
+		upload.parts.put(request.getPartNumber(), readFully(request.getInputStream(), request.getPartSize()));
+		final UploadPartResult result = new UploadPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag("part-" + request.getPartNumber());
+		return result;
+	}
+	
+	public CopyPartResult copyPart(final CopyPartRequest request)
+	{
+		this.received(request);
+		final Upload upload = this.upload(request.getUploadId());
+		final StoredObject source = this.existing(request.getSourceBucketName(), request.getSourceKey());
+		if(!matches(request.getMatchingETagConstraints(), source))
+		{
+			return null;
+		}
+		final byte[] data = request.getFirstByte() != null
+			? Arrays.copyOfRange(
+				source.data,
+				Math.toIntExact(request.getFirstByte()),
+				Math.toIntExact(request.getLastByte() + 1))
+			: source.data;
+		upload.parts.put(request.getPartNumber(), data);
+		final CopyPartResult result = new CopyPartResult();
+		result.setPartNumber(request.getPartNumber());
+		result.setETag("part-" + request.getPartNumber());
+		return result;
+	}
+	
+	public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request)
+	{
+		this.received(request);
+		final Upload upload = this.upload(request.getUploadId());
+		final Set<Integer> partNumbers = new HashSet<>();
+		int size = 0;
+		for(final PartETag part : request.getPartETags())
+		{
+			partNumbers.add(part.getPartNumber());
+			size += upload.parts.get(part.getPartNumber()).length;
+		}
+		final byte[] data = new byte[size];
+		int offset = 0;
+		for(final PartETag part : request.getPartETags())
+		{
+			final byte[] partData = upload.parts.get(part.getPartNumber());
+			System.arraycopy(partData, 0, data, offset, partData.length);
+			offset += partData.length;
+		}
+		this.uploads.remove(request.getUploadId());
+		final CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+		result.setBucketName(upload.bucketName);
+		result.setKey(upload.key);
+		result.setETag(this.store(upload.bucketName, upload.key, data, upload.userMetadata));
+		return result;
+	}
+	
+	public void abortMultipartUpload(final AbortMultipartUploadRequest request)
+	{
+		this.received(request);
+		this.uploads.remove(request.getUploadId());
+	}
+}
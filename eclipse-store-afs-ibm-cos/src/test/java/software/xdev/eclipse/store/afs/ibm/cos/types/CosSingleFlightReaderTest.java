@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosSingleFlightReaderTest
+{
+	private static final S3ObjectSummary BLOB = CosBlobIndex.summary("bucket", "dir/file.1", 1024, "etag");
+	
+	/**
+	 * Serves objects whose bytes are their offsets, as soon as it is released.
+	 */
+	private static final class BlockingReader implements CosRangeReader
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+		final AtomicInteger requests = new AtomicInteger();
+		volatile boolean failing;
+		
+		@Override
+		public boolean read(
+			final String bucketName,
+			final S3ObjectSummary object,
+			final ByteBuffer targetBuffer,
+			final long offset,
+			final long length
+		)
+		{
+			this.requests.incrementAndGet();
+			this.started.countDown();
+			try
+			{
+				this.released.await();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SdkClientException(e);
+			}
+			if(this.failing)
+			{
+				throw new SdkClientException("failed");
+			}
+			for(long i = offset; i < offset + length; i++)
+			{
+				targetBuffer.put((byte)i);
+			}
+			return true;
+		}
+		
+		@Override
+		public void invalidate(final String bucketName, final Collection<String> keys)
+		{
+			// Nothing cached
+		}
+	}
+	
+	private static byte[] read(final CosRangeReader reader, final long offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		Assertions.assertTrue(reader.read("bucket", BLOB, buffer, offset, length));
+		Assertions.assertEquals(length, buffer.position());
+		return buffer.array();
+	}
+	
+	/**
+	 * Starts a read of the range and a second one which follows it, the delegate must be released afterwards.
+	 */
+	private static CompletableFuture<byte[]> readWhileRunning(
+		final CosSingleFlightReader reader,
+		final BlockingReader delegate
+	) throws InterruptedException
+	{
+		final CompletableFuture<byte[]> leader = CompletableFuture.supplyAsync(() -> read(reader, 4, 4));
+		Assertions.assertTrue(delegate.started.await(10, TimeUnit.SECONDS));
+		
+		final CompletableFuture<byte[]> follower = new CompletableFuture<>();
+		final Thread followerThread = new Thread(() -> {
+			try
+			{
+				follower.complete(read(reader, 4, 4));
+			}
+			catch(final RuntimeException | Error e)
+			{
+				follower.completeExceptionally(e);
+			}
+		});
+		followerThread.start();
+		// The follower only waits once it follows the running read
+		while(followerThread.getState() != Thread.State.WAITING && !follower.isDone())
+		{
+			Thread.onSpinWait();
+		}
+		return leader.thenCombine(follower, (leaderData, followerData) -> {
+			Assertions.assertArrayEquals(leaderData, followerData);
+			return followerData;
+		});
+	}
+	
+	@Test
+	void readsIdenticalRangesWithOneRequest() throws Exception
+	{
+		final BlockingReader delegate = new BlockingReader();
+		final CosSingleFlightReader reader = new CosSingleFlightReader(delegate);
+		
+		final CompletableFuture<byte[]> data = readWhileRunning(reader, delegate);
+		delegate.released.countDown();
+		Assertions.assertArrayEquals(new byte[]{4, 5, 6, 7}, data.get(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(1, delegate.requests.get());
+		
+		// Later reads make their own request
+		Assertions.assertArrayEquals(new byte[]{4, 5, 6, 7}, read(reader, 4, 4));
+		Assertions.assertEquals(2, delegate.requests.get());
+	}
+	
+	@Test
+	void passesFailuresToAllReads() throws Exception
+	{
+		final BlockingReader delegate = new BlockingReader();
+		delegate.failing = true;
+		final CosSingleFlightReader reader = new CosSingleFlightReader(delegate);
+		
+		final CompletableFuture<byte[]> data = readWhileRunning(reader, delegate);
+		delegate.released.countDown();
+		final ExecutionException e = Assertions.assertThrows(
+			ExecutionException.class,
+			() -> data.get(10, TimeUnit.SECONDS)
+		);
+		Assertions.assertTrue(e.getCause() instanceof SdkClientException);
+		Assertions.assertEquals(1, delegate.requests.get());
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+class CosSpoolTest
+{
+	private Path directory;
+	
+	@BeforeEach
+	void createDirectory() throws IOException
+	{
+		this.directory = Files.createTempDirectory("cos-spool");
+	}
+	
+	@AfterEach
+	void deleteDirectory() throws IOException
+	{
+		try(final Stream<Path> walk = Files.walk(this.directory))
+		{
+			walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+	
+	private static ByteBuffer data(final String value)
+	{
+		return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private List<String> replay()
+	{
+		final List<String> replayed = new ArrayList<>();
+		new CosSpool(
+			this.directory,
+			1024,
+			(bucketName, key, data) -> replayed.add(
+				bucketName + "/" + key + "=" + StandardCharsets.UTF_8.decode(data)
+			)
+		).close();
+		return replayed;
+	}
+	
+	private List<Path> segments() throws IOException
+	{
+		try(final Stream<Path> files = Files.list(this.directory))
+		{
+			return files.collect(Collectors.toList());
+		}
+	}
+	
+	@Test
+	void replaysIncompleteWritesInOrder()
+	{
+		final CosSpool spool = new CosSpool(this.directory, 1024, (bucketName, key, data) -> Assertions.fail());
+		final CosSpool.Record first = spool.append("bucket", "dir/file.1", data("a"));
+		spool.append("bucket", "dir/file.2", data("b"));
+		spool.append("bucket", "dir/file.3", data("c"));
+		spool.done(first);
+		spool.close();
+		
+		Assertions.assertEquals(List.of("bucket/dir/file.2=b", "bucket/dir/file.3=c"), this.replay());
+		// Everything was uploaded by the replay
+		Assertions.assertEquals(List.of(), this.replay());
+	}
+	
+	@Test
+	void ignoresTornRecords() throws IOException
+	{
+		final CosSpool spool = new CosSpool(this.directory, 1024, (bucketName, key, data) -> Assertions.fail());
+		spool.append("bucket", "dir/file.1", data("a"));
+		spool.close();
+		final Path segment = this.segments().get(0);
+		Files.write(segment, new byte[]{1, 0, 0, 0}, StandardOpenOption.APPEND);
+		
+		Assertions.assertEquals(List.of("bucket/dir/file.1=a"), this.replay());
+	}
+	
+	@Test
+	void deletesSegmentsWithoutIncompleteWrites() throws IOException
+	{
+		final CosSpool spool = new CosSpool(this.directory, 1, (bucketName, key, data) -> Assertions.fail());
+		final CosSpool.Record first = spool.append("bucket", "dir/file.1", data("a"));
+		final CosSpool.Record second = spool.append("bucket", "dir/file.2", data("b"));
+		Assertions.assertEquals(2, this.segments().size());
+		
+		spool.done(second);
+		// The first segment still has an incomplete write
+		Assertions.assertEquals(2, this.segments().size());
+		spool.done(first);
+		Assertions.assertEquals(1, this.segments().size());
+		spool.close();
+	}
+}
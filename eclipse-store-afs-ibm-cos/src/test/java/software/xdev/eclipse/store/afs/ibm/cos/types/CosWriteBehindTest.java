@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2023 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.eclipse.store.afs.ibm.cos.types;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.ibm.cloud.objectstorage.SdkClientException;
+import com.ibm.cloud.objectstorage.services.s3.model.S3ObjectSummary;
+
+
+class CosWriteBehindTest
+{
+	private static final String FILE_KEY = CosBlobIndex.fileKey("bucket", "dir/file.");
+	private static final String COMMIT_FILE_KEY = CosBlobIndex.fileKey("bucket", "dir/commit.");
+	
+	private final Map<String, S3ObjectSummary> uploadedBlobs = new ConcurrentHashMap<>();
+	
+	private void uploaded(final String fileKey, final S3ObjectSummary blob)
+	{
+		this.uploadedBlobs.put(blob.getKey(), blob);
+	}
+	
+	private static S3ObjectSummary blob(final long number, final int size)
+	{
+		return CosBlobIndex.summary("bucket", "dir/file." + number, size, null);
+	}
+	
+	private static List<ByteBuffer> data(final byte... bytes)
+	{
+		return List.of(ByteBuffer.wrap(bytes));
+	}
+	
+	private static void await(final CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	@Test
+	void servesPendingBlobsAndUploadsThemInOrder()
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> uploadedKeys = Collections.synchronizedList(new ArrayList<>());
+		try(final CosWriteBehind writeBehind = new CosWriteBehind(
+			(bucketName, key, buffers, size) ->
+			{
+				await(release);
+				uploadedKeys.add(key);
+				return "etag-" + key;
+			},
+			this::uploaded,
+			1024,
+			4,
+			null
+		))
+		{
+			final S3ObjectSummary first = blob(1, 3);
+			final S3ObjectSummary second = blob(2, 2);
+			writeBehind.write(FILE_KEY, first, data((byte)1, (byte)2, (byte)3), false);
+			writeBehind.write(FILE_KEY, second, data((byte)4, (byte)5), false);
+			
+			Assertions.assertEquals(List.of(first, second), writeBehind.pendingBlobs(FILE_KEY));
+			final ByteBuffer target = ByteBuffer.allocate(2);
+			Assertions.assertTrue(writeBehind.read(FILE_KEY, first, target, 1, 2));
+			Assertions.assertArrayEquals(new byte[]{2, 3}, target.array());
+			
+			release.countDown();
+			writeBehind.flush();
+			
+			Assertions.assertEquals(List.of("dir/file.1", "dir/file.2"), uploadedKeys);
+			Assertions.assertEquals("etag-dir/file.2", this.uploadedBlobs.get("dir/file.2").getETag());
+			// The pending summary may still be used by a reader
+			Assertions.assertNull(second.getETag());
+			Assertions.assertTrue(writeBehind.pendingBlobs(FILE_KEY).isEmpty());
+			Assertions.assertFalse(writeBehind.read(FILE_KEY, first, ByteBuffer.allocate(2), 1, 2));
+		}
+	}
+	
+	@Test
+	void failsFurtherWritesAfterAFailedUpload()
+	{
+		final CosWriteBehind writeBehind = new CosWriteBehind(
+			(bucketName, key, buffers, size) ->
+			{
+				throw new SdkClientException("upload failed");
+			},
+			this::uploaded,
+			1024,
+			1,
+			null
+		);
+		writeBehind.write(FILE_KEY, blob(1, 1), data((byte)1), false);
+		
+		Assertions.assertThrows(SdkClientException.class, writeBehind::flush);
+		Assertions.assertThrows(
+			SdkClientException.class,
+			() -> writeBehind.write(FILE_KEY, blob(2, 1), data((byte)2), false)
+		);
+		Assertions.assertThrows(SdkClientException.class, writeBehind::close);
+	}
+	
+	@Test
+	void barrierIsUploadedAfterTheEarlierWritesOfAllFiles()
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> uploadedKeys = Collections.synchronizedList(new ArrayList<>());
+		try(final CosWriteBehind writeBehind = new CosWriteBehind(
+			(bucketName, key, buffers, size) ->
+			{
+				if(key.startsWith("dir/file."))
+				{
+					await(release);
+				}
+				uploadedKeys.add(key);
+				return "etag-" + key;
+			},
+			this::uploaded,
+			1024,
+			4,
+			null
+		))
+		{
+			writeBehind.write(FILE_KEY, blob(1, 1), data((byte)1), false);
+			writeBehind.write(
+				COMMIT_FILE_KEY,
+				CosBlobIndex.summary("bucket", "dir/commit.1", 1, null),
+				data((byte)2),
+				true
+			);
+			writeBehind.write(
+				COMMIT_FILE_KEY,
+				CosBlobIndex.summary("bucket", "dir/commit.2", 1, null),
+				data((byte)3),
+				false
+			);
+			
+			Assertions.assertTrue(uploadedKeys.isEmpty());
+			release.countDown();
+			writeBehind.flush();
+			
+			Assertions.assertEquals(List.of("dir/file.1", "dir/commit.1", "dir/commit.2"), uploadedKeys);
+		}
+	}
+	
+	@Test
+	void writeWithoutBarrierDoesNotWaitForOtherFiles()
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch otherUploaded = new CountDownLatch(1);
+		try(final CosWriteBehind writeBehind = new CosWriteBehind(
+			(bucketName, key, buffers, size) ->
+			{
+				if(key.startsWith("dir/file."))
+				{
+					await(release);
+				}
+				else
+				{
+					otherUploaded.countDown();
+				}
+				return "etag-" + key;
+			},
+			this::uploaded,
+			1024,
+			4,
+			null
+		))
+		{
+			writeBehind.write(FILE_KEY, blob(1, 1), data((byte)1), false);
+			writeBehind.write(
+				COMMIT_FILE_KEY,
+				CosBlobIndex.summary("bucket", "dir/commit.1", 1, null),
+				data((byte)2),
+				false
+			);
+			
+			await(otherUploaded);
+			writeBehind.flush(COMMIT_FILE_KEY);
+			Assertions.assertTrue(writeBehind.hasPendingBlobs(FILE_KEY));
+			Assertions.assertFalse(writeBehind.hasPendingBlobs(COMMIT_FILE_KEY));
+			release.countDown();
+		}
+	}
+}